@@ -0,0 +1,34 @@
+package io.iron.ironmq.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates message bodies for the benchmarks: JSON events with the mix of
+ * repeated keys and varying values typical of queue traffic.
+ */
+final class Bodies {
+    private static final String[] EVENTS = { "page_view", "click", "signup",
+            "purchase", "logout" };
+
+    private Bodies() {
+    }
+
+    /**
+     * Returns a body of the given length in characters. The same seed gives
+     * the same body.
+     */
+    static String json(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(length + 128).append('[');
+        while (sb.length() < length) {
+            sb.append("{\"event\":\"").append(EVENTS[random.nextInt(EVENTS.length)])
+                    .append("\",\"user\":").append(random.nextInt(100000))
+                    .append(",\"ts\":").append(1400000000000L + random.nextInt(1000000000))
+                    .append(",\"url\":\"/products/").append(random.nextInt(500))
+                    .append("\",\"session\":\"").append(Long.toHexString(random.nextLong()))
+                    .append("\"},");
+        }
+        sb.setLength(length - 1);
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,76 @@
+package io.iron.ironmq.benchmarks;
+
+import io.iron.ironmq.codec.BodyFormat;
+import io.iron.ironmq.codec.DeflateCodec;
+import io.iron.ironmq.codec.GzipCodec;
+import io.iron.ironmq.codec.IdentityCodec;
+import io.iron.ironmq.codec.LzCodec;
+import io.iron.ironmq.util.MessageBodyInflater;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding message bodies as Queue.push does (UTF-8, compression,
+ * Base64) and decoding them as Queue.reserve does, per body format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BodyCodecBenchmark {
+    @Param({ "64", "1024", "16384", "262144" })
+    int bodySize;
+
+    @Param({ "legacy", "adaptive", "deflate1", "gzip", "lz", "identity" })
+    String format;
+
+    private BodyFormat bodyFormat;
+    private String body;
+    private String encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        bodyFormat = format(format);
+        body = Bodies.json(bodySize, 1);
+        encoded = bodyFormat.encode(body);
+    }
+
+    static BodyFormat format(String name) {
+        if ("legacy".equals(name)) {
+            return BodyFormat.LEGACY;
+        } else if ("adaptive".equals(name)) {
+            return BodyFormat.adaptive();
+        } else if ("deflate1".equals(name)) {
+            return new BodyFormat(new DeflateCodec(1));
+        } else if ("gzip".equals(name)) {
+            return new BodyFormat(new GzipCodec());
+        } else if ("lz".equals(name)) {
+            return new BodyFormat(new LzCodec());
+        } else if ("identity".equals(name)) {
+            return new BodyFormat(new IdentityCodec());
+        }
+        throw new IllegalArgumentException("Unknown format " + name);
+    }
+
+    @Benchmark
+    public String encode() throws Exception {
+        return bodyFormat.encode(body);
+    }
+
+    @Benchmark
+    public String decode() throws Exception {
+        return MessageBodyInflater.inflateBody(encoded);
+    }
+}
@@ -0,0 +1,64 @@
+package io.iron.ironmq.benchmarks;
+
+import io.iron.ironmq.Message;
+import io.iron.ironmq.Messages;
+import io.iron.ironmq.codec.BodyFormat;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures binding batches of encoded messages to and from JSON through the
+ * ObjectMapper a Client is configured with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+    @Param({ "64", "1024", "16384" })
+    int bodySize;
+
+    @Param({ "1", "10", "100" })
+    int batchSize;
+
+    private ObjectMapper mapper;
+    private Messages messages;
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws Exception {
+        mapper = new ObjectMapper();
+        Message[] batch = new Message[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new Message();
+            batch[i].setId(Integer.toString(i));
+            batch[i].setBody(BodyFormat.LEGACY.encode(Bodies.json(bodySize, i)));
+            batch[i].setTimeout(60L);
+        }
+        messages = new Messages(batch);
+        json = mapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return mapper.writeValueAsBytes(messages);
+    }
+
+    @Benchmark
+    public Messages deserialize() throws Exception {
+        return mapper.readValue(json, Messages.class);
+    }
+}
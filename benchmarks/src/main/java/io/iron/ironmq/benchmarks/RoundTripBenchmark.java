@@ -0,0 +1,94 @@
+package io.iron.ironmq.benchmarks;
+
+import io.iron.ironmq.Client;
+import io.iron.ironmq.Message;
+import io.iron.ironmq.Messages;
+import io.iron.ironmq.PooledTransport;
+import io.iron.ironmq.Queue;
+import io.iron.ironmq.RetryPolicy;
+import io.iron.ironmq.Transport;
+import io.iron.ironmq.UrlConnectionTransport;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures push, get and delete through a Client against a local stub
+ * server, per transport. Run with -t to measure concurrent callers sharing
+ * one client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+    @Param({ "64", "1024", "16384" })
+    int bodySize;
+
+    @Param({ "1", "10", "100" })
+    int batchSize;
+
+    @Param({ "pooled", "urlconnection" })
+    String transport;
+
+    private StubServer server;
+    private Client client;
+    private Queue queue;
+    private Message[] batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new StubServer(batchSize, bodySize);
+        Transport t = "pooled".equals(transport) ? new PooledTransport()
+                : new UrlConnectionTransport();
+        client = new Client("benchmark", "token", server.getCloud(),
+                new ObjectMapper(), t);
+        client.setRetryPolicy(RetryPolicy.none());
+        queue = client.queue("benchmark");
+        batch = new Message[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new Message();
+            batch[i].setBody(Bodies.json(bodySize, i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Benchmark
+    public List<String> push() throws Exception {
+        return queue.pushAll(batch);
+    }
+
+    @Benchmark
+    public Messages get() throws Exception {
+        return queue.get(batchSize);
+    }
+
+    @Benchmark
+    public Messages pushGetDelete() throws Exception {
+        queue.pushAll(batch);
+        Messages msgs = queue.get(batchSize);
+        if (!queue.deleteMessages(msgs).isSuccessful()) {
+            throw new IllegalStateException("delete failed");
+        }
+        return msgs;
+    }
+}
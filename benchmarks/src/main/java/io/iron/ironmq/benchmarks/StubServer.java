@@ -0,0 +1,90 @@
+package io.iron.ironmq.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.iron.ironmq.Cloud;
+import io.iron.ironmq.codec.BodyFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server answering IronMQ requests with canned responses, so
+ * that round trips measure the client rather than the service. Pushes of
+ * any size get the IDs of one batch back, gets return one batch of messages
+ * with legacy encoded bodies, and deletes succeed.
+ */
+class StubServer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static {
+        // Without it, delayed ACKs stall every response by about 40 ms. This
+        // sets a JVM-wide property, which is fine for the benchmark JVMs
+        // this class is loaded in, but not for library code.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] pushResponse;
+    private final byte[] getResponse;
+    private final byte[] deleteResponse = "{\"msg\":\"Deleted\"}".getBytes(UTF8);
+
+    StubServer(int batchSize, int bodySize) throws IOException {
+        StringBuilder ids = new StringBuilder("{\"ids\":[");
+        StringBuilder messages = new StringBuilder("{\"messages\":[");
+        for (int i = 0; i < batchSize; i++) {
+            if (i > 0) {
+                ids.append(',');
+                messages.append(',');
+            }
+            ids.append('"').append(i).append('"');
+            messages.append("{\"id\":\"").append(i).append("\",\"body\":\"")
+                    .append(BodyFormat.LEGACY.encode(Bodies.json(bodySize, i)))
+                    .append("\",\"timeout\":60}");
+        }
+        pushResponse = ids.append("],\"msg\":\"Messages put on queue.\"}")
+                .toString().getBytes(UTF8);
+        getResponse = messages.append("]}").toString().getBytes(UTF8);
+
+        executor = Executors.newFixedThreadPool(8);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.start();
+    }
+
+    Cloud getCloud() {
+        return new Cloud("http", "127.0.0.1", server.getAddress().getPort());
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+        }
+        in.close();
+        String method = exchange.getRequestMethod();
+        byte[] body = "POST".equals(method) ? pushResponse
+                : "GET".equals(method) ? getResponse : deleteResponse;
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+}
@@ -0,0 +1,314 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.DaemonThreadFactory;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The AsyncQueue class offers the operations of a Queue without blocking the
+ * calling thread. Every operation returns a CompletableFuture and runs on the
+ * given executor.
+ * <p>
+ * Failed requests are retried according to the client's RetryPolicy, as
+ * Queue does, but the wait between attempts is scheduled on a timer instead
+ * of parking a thread, so a slow service does not tie up the executor.
+ */
+public class AsyncQueue {
+    /**
+     * The number of threads of the default executor when virtual threads are
+     * not available.
+     */
+    public static final int DEFAULT_THREADS = PooledTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    Logger log = LoggerFactory.getLogger(getClass());
+    final private Client client;
+    final private Queue queue;
+    // sends the requests of queue without retrying them
+    final private Queue attempts;
+    final private Executor executor;
+    final private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a new AsyncQueue on top of the given queue. The queue's
+     * settings, such as its body format, and those of its client apply to
+     * the AsyncQueue as well, including later changes.
+     *
+     * @param queue The queue to operate on.
+     * @param executor The executor that performs the requests.
+     * @param scheduler The scheduler used to delay retries.
+     */
+    public AsyncQueue(Queue queue, Executor executor,
+            ScheduledExecutorService scheduler) {
+        this.client = queue.getClient();
+        this.queue = queue;
+        this.attempts = queue.withoutRetries();
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+    * Retrieves a Message from the queue. The future fails with an
+    * EmptyQueueException if there are no items on the queue.
+    *
+    * @see Queue#get()
+    */
+    public CompletableFuture<Message> getAsync() {
+        return submit(new Callable<Message>() {
+            public Message call() throws Exception {
+                return attempts.get();
+            }
+        }, true);
+    }
+
+    /**
+    * Retrieves Messages from the queue.
+    *
+    * @param numberOfMessages The number of messages to receive. Max. is 100.
+    * @see Queue#get(int)
+    */
+    public CompletableFuture<Messages> getAsync(final int numberOfMessages) {
+        return submit(new Callable<Messages>() {
+            public Messages call() throws Exception {
+                return attempts.get(numberOfMessages);
+            }
+        }, true);
+    }
+
+    /**
+    * Retrieves Messages from the queue without decoding their bodies.
+    *
+    * @param numberOfMessages The number of messages to receive. Max. is 100.
+    * @param timeout timeout in seconds.
+    * @see Queue#get(int, int)
+    */
+    public CompletableFuture<Messages> getAsync(final int numberOfMessages,
+            final int timeout) {
+        return submit(new Callable<Messages>() {
+            public Messages call() throws Exception {
+                return attempts.get(numberOfMessages, timeout);
+            }
+        }, true);
+    }
+
+    /**
+    * Pushes a message onto the queue.
+    *
+    * @param msg The body of the message to push.
+    * @see Queue#push(String)
+    */
+    public CompletableFuture<String> pushAsync(String msg) {
+        return pushAsync(msg, null, null, null);
+    }
+
+    /**
+    * Pushes a message onto the queue.
+    *
+    * @param msg The body of the message to push.
+    * @param expiresIn The message's expiration offset in seconds.
+    * @param timeout The message's timeout in seconds.
+    * @param delay The message's delay in seconds.
+    * @see Queue#push(String, Long, Long, Long)
+    */
+    public CompletableFuture<String> pushAsync(final String msg,
+            final Long expiresIn, final Long timeout, final Long delay) {
+        return submit(new Callable<String>() {
+            public String call() throws Exception {
+                return attempts.push(msg, expiresIn, timeout, delay);
+            }
+        }, false);
+    }
+
+    /**
+    * Pushes a batch of messages onto the queue.
+    *
+    * @param msgs The bodies of the messages to push.
+    * @see Queue#push(List)
+    */
+    public CompletableFuture<List<String>> pushAsync(final List<String> msgs) {
+        return submit(new Callable<List<String>>() {
+            public List<String> call() throws Exception {
+                return attempts.push(msgs);
+            }
+        }, false);
+    }
+
+    /**
+    * Pushes a batch of messages onto the queue.
+    *
+    * @param msgs The messages to push.
+    * @see Queue#pushAll(Message...)
+    */
+    public CompletableFuture<List<String>> pushAllAsync(final Message... msgs) {
+        return submit(new Callable<List<String>>() {
+            public List<String> call() throws Exception {
+                return attempts.pushAll(msgs);
+            }
+        }, false);
+    }
+
+    /**
+    * Deletes a Message from the queue.
+    *
+    * @param id The ID of the message to delete.
+    * @see Queue#deleteMessage(String)
+    */
+    public CompletableFuture<Void> deleteAsync(final String id) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                attempts.deleteMessage(id);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+    * Deletes a Message from the queue of the Cloud it was retrieved from.
+    *
+    * @param msg The message to delete.
+    * @see Queue#deleteMessage(Message)
+    */
+    public CompletableFuture<Void> deleteAsync(final Message msg) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                attempts.deleteMessage(msg);
+                return null;
+            }
+        }, true);
+    }
+
+    /**
+    * Deletes a set of messages from the queue. Failures of individual
+    * messages are reported in the result rather than failing the future.
+    *
+    * @param ids The IDs of the messages to delete.
+    * @see Queue#deleteMessages(Collection)
+    */
+    public CompletableFuture<DeleteResult> deleteMessagesAsync(
+            final Collection<String> ids) {
+        return submit(new Callable<DeleteResult>() {
+            public DeleteResult call() throws Exception {
+                return attempts.deleteMessages(ids);
+            }
+        }, true);
+    }
+
+    /**
+    * Clears the queue off all messages.
+    *
+    * @see Queue#clear()
+    */
+    public CompletableFuture<Void> clearAsync() {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                attempts.clear();
+                return null;
+            }
+        }, false);
+    }
+
+    /**
+    * Subscribes endpoints to the queue.
+    *
+    * @param pushType unicast or multicast
+    * @param subcrEndpoints The endpoints to subscribe.
+    * @see Queue#subscribers(PushType, String...)
+    */
+    public CompletableFuture<Void> subscribersAsync(final PushType pushType,
+            final String... subcrEndpoints) {
+        return submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                attempts.subscribers(pushType, subcrEndpoints);
+                return null;
+            }
+        }, false);
+    }
+
+    /**
+     * Returns the synchronous queue this AsyncQueue operates on.
+     */
+    public Queue getQueue() {
+        return queue;
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> call,
+            boolean idempotent) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        client.recordRequest();
+        attempt(call, idempotent, future, 0);
+        return future;
+    }
+
+    private <T> void attempt(final Callable<T> call, final boolean idempotent,
+            final CompletableFuture<T> future, final int retries) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.complete(call.call());
+                    } catch (IOException e) {
+                        retry(call, idempotent, future, retries, e);
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private <T> void retry(final Callable<T> call, final boolean idempotent,
+            final CompletableFuture<T> future, final int retries,
+            IOException e) {
+        long delay = client.retryDelay(e, retries, idempotent);
+        if (delay < 0) {
+            future.completeExceptionally(e);
+            return;
+        }
+        log.debug("Retrying request in {} ms after: {}", delay, e.getMessage());
+        try {
+            scheduler.schedule(new Runnable() {
+                public void run() {
+                    attempt(call, idempotent, future, retries + 1);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException re) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Creates the executor used by Client.asyncQueue: a virtual thread per
+     * task where the JVM supports it, or a pool of DEFAULT_THREADS daemon
+     * threads otherwise.
+     */
+    static ExecutorService newDefaultExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception e) {
+            return Executors.newFixedThreadPool(DEFAULT_THREADS,
+                    new DaemonThreadFactory("ironmq-async"));
+        }
+    }
+
+    static ScheduledExecutorService newRetryScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(
+                "ironmq-retry"));
+    }
+}
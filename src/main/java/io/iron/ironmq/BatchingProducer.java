@@ -0,0 +1,429 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.DaemonThreadFactory;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The BatchingProducer class collects messages pushed from any number of
+ * threads in a bounded buffer and pushes them to the queue in batches.
+ * <p>
+ * A batch is sent as soon as it holds the batch size of messages or the
+ * batch byte budget of encoded bodies, or once its oldest message has waited
+ * for the linger time. Bodies are encoded on the calling thread, so the
+ * sender threads only post. Every call to send() returns a future completed
+ * with the ID of the message once its batch was pushed, or with the error
+ * that failed the batch.
+ * <p>
+ * What happens when the buffer is full is set with setOverflowPolicy(): the
+ * caller blocks until there is space (the default), the message is dropped
+ * and its future fails with a BufferFullException, or send() throws the
+ * BufferFullException.
+ */
+public class BatchingProducer {
+    public static final int DEFAULT_BATCH_SIZE = Queue.MAX_MESSAGES;
+    public static final long DEFAULT_MAX_BATCH_BYTES = 1L << 20;
+    public static final long DEFAULT_LINGER = 10;
+    public static final int DEFAULT_BUFFER_SIZE = 10000;
+    public static final int DEFAULT_SENDERS = 2;
+
+    // JSON framing of a message in the request, in addition to its body
+    static final int MESSAGE_OVERHEAD = 64;
+
+    /**
+     * What send() does when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait until there is space in the buffer. */
+        BLOCK,
+        /** Drop the message and fail its future. */
+        DROP,
+        /** Throw a BufferFullException. */
+        FAIL
+    }
+
+    Logger log = LoggerFactory.getLogger(getClass());
+    final private Queue queue;
+    // set by callers and read by the sender threads
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private volatile long linger = DEFAULT_LINGER;
+    private volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private volatile int senders = DEFAULT_SENDERS;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+    private final ArrayDeque<Pending> buffer = new ArrayDeque<Pending>();
+    private long bufferedBytes;
+    private int inFlight;
+    private int flushing;
+    private boolean closed;
+    private volatile Thread[] threads;
+
+    /**
+     * Constructs a new BatchingProducer. Call start() before sending.
+     *
+     * @param queue The queue to push to.
+     */
+    public BatchingProducer(Queue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Sets the maximum number of messages pushed with one request.
+     *
+     * @param batchSize The batch size. Max. is 100.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > Queue.MAX_MESSAGES) {
+            throw new IllegalArgumentException(
+                    "batchSize has to be within 1..100");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the size of encoded bodies at which a batch is sent. A single
+     * larger message is sent on its own.
+     *
+     * @param maxBatchBytes The budget in bytes.
+     */
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("maxBatchBytes has to be positive");
+        }
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Sets how long a message waits for more messages to join its batch.
+     *
+     * @param linger The linger in milliseconds; 0 sends right away.
+     */
+    public void setLinger(long linger) {
+        if (linger < 0) {
+            throw new IllegalArgumentException("linger must not be negative");
+        }
+        this.linger = linger;
+    }
+
+    /**
+     * Sets the number of messages that can be buffered and not yet pushed.
+     *
+     * @param bufferSize The number of messages.
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize has to be positive");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Sets the number of threads pushing batches, and so the number of
+     * requests that can be in flight at a time. Has to be called before
+     * start().
+     *
+     * @param senders The number of threads.
+     */
+    public void setSenders(int senders) {
+        if (senders < 1) {
+            throw new IllegalArgumentException("senders has to be positive");
+        }
+        this.senders = senders;
+    }
+
+    /**
+     * Sets what send() does when the buffer is full.
+     *
+     * @param overflowPolicy The policy.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy must not be null");
+        }
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts the threads pushing batches.
+     */
+    public synchronized void start() {
+        if (threads != null) {
+            throw new IllegalStateException("Producer already started");
+        }
+        DaemonThreadFactory factory = new DaemonThreadFactory(
+                "ironmq-producer-" + queue.getName());
+        threads = new Thread[senders];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = factory.newThread(new Runnable() {
+                public void run() {
+                    sendLoop();
+                }
+            });
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Adds a message to the buffer.
+     *
+     * @param msg The body of the message to push.
+     * @return A future completed with the ID of the pushed message.
+     * @throws BufferFullException If the buffer is full and the overflow
+     * policy is FAIL.
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * for space in the buffer.
+     */
+    public CompletableFuture<String> send(String msg) throws Exception {
+        Message message = new Message();
+        message.setBody(msg);
+        return send(message);
+    }
+
+    /**
+     * Adds a message to the buffer. The body, timeout, delay and expiration
+     * of the message are used; the message itself is not modified.
+     *
+     * @param msg The message to push.
+     * @return A future completed with the ID of the pushed message.
+     * @throws BufferFullException If the buffer is full and the overflow
+     * policy is FAIL.
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * for space in the buffer.
+     */
+    public CompletableFuture<String> send(Message msg) throws Exception {
+        // checked before encoding, so that rejected messages cost nothing
+        lock.lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Producer is closed");
+            }
+            if (buffer.size() >= bufferSize
+                    && overflowPolicy != OverflowPolicy.BLOCK) {
+                return overflow();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Pending pending = new Pending(queue.encode(msg));
+        lock.lockInterruptibly();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Producer is closed");
+            }
+            while (buffer.size() >= bufferSize) {
+                if (overflowPolicy != OverflowPolicy.BLOCK) {
+                    return overflow();
+                }
+                notFull.await();
+                if (closed) {
+                    throw new IllegalStateException("Producer is closed");
+                }
+            }
+            buffer.addLast(pending);
+            bufferedBytes += pending.bytes;
+            if (buffer.size() == 1 || buffer.size() == batchSize
+                    || bufferedBytes >= maxBatchBytes) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return pending.future;
+    }
+
+    // Rejects a message according to the FAIL or DROP policy.
+    private CompletableFuture<String> overflow() throws BufferFullException {
+        if (overflowPolicy == OverflowPolicy.FAIL) {
+            throw new BufferFullException();
+        }
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        future.completeExceptionally(new BufferFullException());
+        return future;
+    }
+
+    /**
+     * Sends all buffered messages without waiting for the linger time, and
+     * waits until they have been pushed.
+     *
+     * @throws IllegalStateException If messages are buffered but the
+     * producer was not started, so that nothing would push them.
+     */
+    public void flush() throws InterruptedException {
+        lock.lockInterruptibly();
+        if (threads == null && !buffer.isEmpty()) {
+            lock.unlock();
+            throw new IllegalStateException("Producer is not started");
+        }
+        try {
+            flushing++;
+            notEmpty.signalAll();
+            while (!buffer.isEmpty() || inFlight > 0) {
+                idle.await();
+            }
+        } finally {
+            flushing--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends all buffered messages and stops the sender threads. Messages sent
+     * afterwards are rejected with an IllegalStateException.
+     */
+    public synchronized void close() throws InterruptedException {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+            if (threads == null) {
+                Pending pending;
+                while ((pending = buffer.pollFirst()) != null) {
+                    pending.future.completeExceptionally(new IllegalStateException(
+                            "Producer closed before it was started"));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (threads != null) {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages buffered and not yet being pushed.
+     */
+    public int getBufferedCount() {
+        lock.lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sendLoop() {
+        while (true) {
+            Pending[] batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (batch == null) {
+                break;
+            }
+            send(batch);
+        }
+    }
+
+    // Waits until a batch is due and takes it out of the buffer; returns null
+    // once the producer is closed and the buffer is empty.
+    private Pending[] nextBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Pending first = buffer.peekFirst();
+                if (first == null) {
+                    if (closed) {
+                        return null;
+                    }
+                    notEmpty.await();
+                    continue;
+                }
+                long wait = first.created + linger - System.currentTimeMillis();
+                if (wait > 0 && !closed && flushing == 0
+                        && buffer.size() < batchSize
+                        && bufferedBytes < maxBatchBytes) {
+                    notEmpty.await(wait, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                return takeBatch();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held.
+    private Pending[] takeBatch() {
+        int count = 0;
+        long bytes = 0;
+        for (Pending pending : buffer) {
+            if (count == batchSize
+                    || (count > 0 && bytes + pending.bytes > maxBatchBytes)) {
+                break;
+            }
+            count++;
+            bytes += pending.bytes;
+        }
+        Pending[] batch = new Pending[count];
+        for (int i = 0; i < count; i++) {
+            batch[i] = buffer.pollFirst();
+        }
+        bufferedBytes -= bytes;
+        inFlight++;
+        notFull.signalAll();
+        if (!buffer.isEmpty()) {
+            // let another sender look at the rest
+            notEmpty.signal();
+        }
+        return batch;
+    }
+
+    private void send(Pending[] batch) {
+        Message[] msgs = new Message[batch.length];
+        for (int i = 0; i < batch.length; i++) {
+            msgs[i] = batch[i].message;
+        }
+        try {
+            List<String> ids = queue.pushEncoded(msgs);
+            for (int i = 0; i < batch.length; i++) {
+                batch[i].future.complete(ids.get(i));
+            }
+        } catch (Throwable e) {
+            log.warn("Pushing " + batch.length + " messages to "
+                    + queue.getName() + " failed: " + e.getMessage(), e);
+            for (Pending pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+        } finally {
+            lock.lock();
+            try {
+                inFlight--;
+                if (buffer.isEmpty() && inFlight == 0) {
+                    idle.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Pending {
+        final Message message;
+        final long bytes;
+        final long created = System.currentTimeMillis();
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        Pending(Message message) {
+            this.message = message;
+            this.bytes = message.getBodyLength() + MESSAGE_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+
+/**
+ * The BufferFullException class indicates that a message could not be
+ * accepted because the producer's buffer is full.
+ */
+public class BufferFullException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+    * Creates a new BufferFullException.
+    */
+    public BufferFullException() {
+        super("Producer buffer is full");
+    }
+}
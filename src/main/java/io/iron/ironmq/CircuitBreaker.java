@@ -0,0 +1,169 @@
+package io.iron.ironmq;
+
+/**
+ * The CircuitBreaker class stops requests to a host while most of them fail,
+ * so that callers fail fast instead of waiting for a service that cannot
+ * answer, and the service is not swamped while it recovers.
+ * <p>
+ * The breaker counts the outcomes of requests over a sliding window. Once
+ * the window holds the minimum number of requests and the share of failures
+ * reaches the threshold, the breaker opens and requests fail right away with
+ * a CircuitOpenException. After the open time a single probe request is let
+ * through: if it succeeds the breaker closes, otherwise it opens again.
+ * <p>
+ * Connection failures and 5xx and 429 responses count as failures; other
+ * responses show that the service is up and count as successes.
+ */
+public class CircuitBreaker {
+    public static final double DEFAULT_FAILURE_RATE = 0.5;
+    public static final int DEFAULT_MINIMUM_REQUESTS = 20;
+    public static final long DEFAULT_WINDOW = 10000;
+    public static final long DEFAULT_OPEN_TIME = 5000;
+
+    static final int BUCKETS = 10;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    final private double failureRate;
+    final private int minimumRequests;
+    final private long bucketLength;
+    final private long openTime;
+
+    private final long[] bucketStart = new long[BUCKETS];
+    private final int[] requests = new int[BUCKETS];
+    private final int[] failures = new int[BUCKETS];
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * Constructs a new CircuitBreaker with the default thresholds.
+     */
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_RATE, DEFAULT_MINIMUM_REQUESTS, DEFAULT_WINDOW,
+                DEFAULT_OPEN_TIME);
+    }
+
+    /**
+     * Constructs a new CircuitBreaker.
+     *
+     * @param failureRate The share of failed requests at which it opens.
+     * @param minimumRequests The number of requests in the window needed
+     * before it can open.
+     * @param window The length in milliseconds of the window requests are
+     * counted over.
+     * @param openTime The time in milliseconds it stays open before probing.
+     */
+    public CircuitBreaker(double failureRate, int minimumRequests, long window,
+            long openTime) {
+        if (failureRate <= 0 || failureRate > 1 || minimumRequests < 1
+                || window < BUCKETS || openTime < 1) {
+            throw new IllegalArgumentException("invalid circuit breaker settings");
+        }
+        this.failureRate = failureRate;
+        this.minimumRequests = minimumRequests;
+        this.bucketLength = window / BUCKETS;
+        this.openTime = openTime;
+    }
+
+    /**
+     * Checks whether a request may be sent.
+     *
+     * @param host The host, for the exception message.
+     * @throws CircuitOpenException If the breaker is open.
+     */
+    synchronized void acquire(String host) throws CircuitOpenException {
+        if (state == State.CLOSED) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (state == State.OPEN && now - openedAt >= openTime) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        // a probe whose outcome never arrived does not block forever
+        if (state == State.HALF_OPEN
+                && (!probing || now - openedAt >= 2 * openTime)) {
+            probing = true;
+            openedAt = now - openTime;
+            return;
+        }
+        throw new CircuitOpenException(host);
+    }
+
+    /**
+     * Records the outcome of a request let through by acquire().
+     *
+     * @param failed Whether the request failed.
+     */
+    synchronized void record(boolean failed) {
+        long now = System.currentTimeMillis();
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            if (failed) {
+                open(now);
+            } else {
+                state = State.CLOSED;
+                reset();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+        int i = (int) ((now / bucketLength) % BUCKETS);
+        long start = now - now % bucketLength;
+        if (bucketStart[i] != start) {
+            bucketStart[i] = start;
+            requests[i] = 0;
+            failures[i] = 0;
+        }
+        requests[i]++;
+        if (failed) {
+            failures[i]++;
+            checkFailureRate(now);
+        }
+    }
+
+    /**
+     * Returns the current state.
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN
+                && System.currentTimeMillis() - openedAt >= openTime) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void checkFailureRate(long now) {
+        int total = 0;
+        int failed = 0;
+        long oldest = now - bucketLength * BUCKETS;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketStart[i] > oldest) {
+                total += requests[i];
+                failed += failures[i];
+            }
+        }
+        if (total >= minimumRequests && failed >= failureRate * total) {
+            open(now);
+        }
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+        reset();
+    }
+
+    private void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            bucketStart[i] = 0;
+            requests[i] = 0;
+            failures[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+
+/**
+ * The CircuitOpenException class indicates that a request was not sent
+ * because the circuit breaker of its host is open.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+    * Creates a new CircuitOpenException.
+    *
+    * @param host The host whose circuit is open.
+    */
+    public CircuitOpenException(String host) {
+        super("Circuit breaker for " + host + " is open");
+    }
+}
@@ -1,14 +1,21 @@
 package io.iron.ironmq;
 
-import java.io.BufferedReader;
+import io.iron.ironmq.codec.BodyFormat;
+import io.iron.ironmq.metrics.MetricsRecorder;
+import io.iron.ironmq.metrics.Operation;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
+import java.io.Reader;
 import java.net.URL;
-import java.util.Random;
-import org.codehaus.jackson.map.JsonMappingException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,16 +23,27 @@ import org.slf4j.LoggerFactory;
 /**
  * The Client class provides access to the IronMQ service.
  */
-public class Client {
+public class Client implements QueueProvider {
     static final private String apiVersion = "1";
     Logger log = LoggerFactory.getLogger(getClass());
 
-    static final Random rand = new Random();
+    static final Charset UTF8 = Charset.forName("UTF-8");
 
-    private Cloud cloud;
+    private final CloudRouter router;
     private ObjectMapper mapper;
+    private Transport transport;
+    private final boolean retrying;
+    private volatile RetryPolicy retryPolicy = new RetryPolicy();
+    private final Map<String, CircuitBreaker> circuitBreakers;
+    private volatile BodyFormat bodyFormat = BodyFormat.LEGACY;
+    private volatile MetricsRecorder metrics = MetricsRecorder.NONE;
+    private final Client parent;
+    private ExecutorService asyncExecutor;
+    private ScheduledExecutorService retryScheduler;
     final String path;
     final String oauthHeader;
+    final Map<String, String> headers;
+    final Map<String, String> bodyHeaders;
 
     static {
         System.setProperty("https.protocols", "TLSv1");
@@ -57,11 +75,73 @@ public class Client {
      */
     public Client(String projectId, String token, Cloud cloud,
             ObjectMapper mapper) {
+        this(projectId, token, cloud, mapper, new PooledTransport());
+    }
+
+    /**
+     * Constructs a new Client using the specified project ID and token.
+     * The network is not accessed during construction and this call will
+     * succeed even if the credentials are invalid.
+     *
+     * @param projectId A 24-character project ID.
+     * @param token An OAuth token.
+     * @param cloud The cloud to use.
+     * @param Jackson object mapper for data binding
+     * @param transport The transport that performs the HTTP requests.
+     */
+    public Client(String projectId, String token, Cloud cloud,
+            ObjectMapper mapper, Transport transport) {
+        this(projectId, token, Collections.singletonList(cloud), mapper,
+                transport);
+    }
+
+    /**
+     * Constructs a new Client that spreads requests over several Clouds,
+     * such as the same project in different regions. Pushes go to the
+     * preferred healthy Cloud and fail over to the next one; messages are
+     * retrieved from the preferred Cloud that has any, and deleted from the
+     * Cloud they came from. How Clouds are preferred is set on getRouter().
+     * The network is not accessed during construction and this call will
+     * succeed even if the credentials are invalid.
+     *
+     * @param projectId A 24-character project ID.
+     * @param token An OAuth token.
+     * @param clouds The clouds to use, the preferred one first.
+     * @param Jackson object mapper for data binding
+     * @param transport The transport that performs the HTTP requests.
+     */
+    public Client(String projectId, String token, List<Cloud> clouds,
+            ObjectMapper mapper, Transport transport) {
         this.oauthHeader = "OAuth " + token;
-        this.cloud = cloud;
+        this.router = new CloudRouter(clouds);
         this.mapper = mapper;
+        this.transport = transport;
+        this.retrying = true;
+        this.parent = null;
+        this.circuitBreakers = new HashMap<String, CircuitBreaker>();
         this.path = new StringBuilder().append("/").append(apiVersion)
                 .append("/projects/").append(projectId).append("/").toString();
+
+        Map<String, String> h = new HashMap<String, String>();
+        h.put(HttpRequestHeader.AUTHORIZATION, oauthHeader);
+        h.put(HttpRequestHeader.USER_AGENT, "IronMQ Java Client");
+        this.headers = Collections.unmodifiableMap(h);
+        h = new HashMap<String, String>(h);
+        h.put(HttpRequestHeader.CONTENT_TYPE, HttpRequestHeader.JSON_TYPE);
+        this.bodyHeaders = Collections.unmodifiableMap(h);
+    }
+
+    private Client(Client client, boolean retrying) {
+        this.oauthHeader = client.oauthHeader;
+        this.router = client.router;
+        this.mapper = client.mapper;
+        this.transport = client.transport;
+        this.retrying = retrying;
+        this.parent = client;
+        this.circuitBreakers = client.circuitBreakers;
+        this.path = client.path;
+        this.headers = client.headers;
+        this.bodyHeaders = client.bodyHeaders;
     }
 
     /**
@@ -74,166 +154,527 @@ public class Client {
         return new Queue(this, name);
     }
 
-    String delete(String endpoint) throws IOException {
-        return request("DELETE", endpoint, null);
+    /**
+     * Returns an AsyncQueue using the given name. Its operations run on an
+     * executor shared by all async queues of this client, which uses virtual
+     * threads where the JVM supports them and a bounded thread pool
+     * otherwise. The network is not accessed during this call.
+     *
+     * @param name The name of the Queue.
+     */
+    public AsyncQueue asyncQueue(String name) {
+        synchronized (this) {
+            if (asyncExecutor == null) {
+                asyncExecutor = AsyncQueue.newDefaultExecutor();
+                retryScheduler = AsyncQueue.newRetryScheduler();
+            }
+        }
+        return new AsyncQueue(queue(name), asyncExecutor, retryScheduler);
+    }
+
+    /**
+     * Returns a client that shares this client's configuration, connections
+     * and circuit breakers but never retries failed requests itself. Later
+     * changes of this client's settings apply to it as well. Its
+     * requests do not add to the retry budget either; callers retrying on
+     * their own call recordRequest() once per operation.
+     */
+    Client withoutRetries() {
+        return new Client(this, false);
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before retrying a request
+     * that failed with the given error, or -1 if it should not be retried.
+     *
+     * @param e The error the request failed with.
+     * @param retries The number of retries already made.
+     * @param idempotent Whether the request can safely be repeated.
+     */
+    long retryDelay(IOException e, int retries, boolean idempotent) {
+        return getRetryPolicy().retryDelay(e, retries, idempotent);
+    }
+
+    /**
+     * Adds an operation to the retry budget.
+     */
+    void recordRequest() {
+        getRetryPolicy().recordRequest();
+    }
+
+    /**
+     * Returns the policy deciding which failed requests are retried.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return parent != null ? parent.getRetryPolicy() : retryPolicy;
+    }
+
+    /**
+     * Sets the policy deciding which failed requests are retried.
+     *
+     * @param retryPolicy The policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new IllegalArgumentException("retryPolicy must not be null");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns the circuit breaker guarding requests to the given Cloud's
+     * host, or null if requests to it are not guarded. Every host gets a
+     * breaker with the default settings unless one was set.
+     *
+     * @param cloud The cloud.
+     */
+    public CircuitBreaker getCircuitBreaker(Cloud cloud) {
+        String host = hostKey(cloud);
+        synchronized (circuitBreakers) {
+            if (!circuitBreakers.containsKey(host)) {
+                circuitBreakers.put(host, new CircuitBreaker());
+            }
+            return circuitBreakers.get(host);
+        }
+    }
+
+    /**
+     * Sets the circuit breaker guarding requests to the given Cloud's host.
+     *
+     * @param cloud The cloud.
+     * @param circuitBreaker The circuit breaker, or null to send all requests.
+     */
+    public void setCircuitBreaker(Cloud cloud, CircuitBreaker circuitBreaker) {
+        synchronized (circuitBreakers) {
+            circuitBreakers.put(hostKey(cloud), circuitBreaker);
+        }
+    }
+
+    private static String hostKey(Cloud cloud) {
+        return cloud.scheme + "://" + cloud.host + ":" + cloud.port;
+    }
+
+    /**
+     * Deletes from the given Cloud, or, if it is null, from the first Cloud
+     * that does not answer 404.
+     */
+    String delete(Cloud cloud, String endpoint) throws IOException {
+        return delete(cloud, endpoint, null);
+    }
+
+    String delete(Cloud cloud, String endpoint, Ids body) throws IOException {
+        byte[] bytes = body != null ? mapper.writeValueAsBytes(body) : null;
+        if (cloud != null) {
+            return request(Operation.DELETE, cloud, "DELETE", endpoint, bytes,
+                    STRING_READER);
+        }
+        MetricsRecorder metrics = getMetricsRecorder();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        List<Cloud> clouds = router.getClouds();
+        try {
+            for (int i = 0;; i++) {
+                try {
+                    String result = send(Operation.DELETE, clouds.get(i),
+                            "DELETE", endpoint, bytes, STRING_READER);
+                    succeeded = true;
+                    return result;
+                } catch (HTTPException e) {
+                    if (e.getStatusCode() != 404 || i + 1 == clouds.size()) {
+                        throw e;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            metrics.recordError(Operation.DELETE, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.DELETE, System.nanoTime() - start,
+                    succeeded);
+        }
     }
 
+    /**
+     * Gets messages from the preferred Cloud that has any. Every message
+     * remembers the Cloud it came from.
+     */
     Messages get(String endpoint) throws IOException {
-        return mapper.readValue(request("GET", endpoint, null), Messages.class);
+        MetricsRecorder metrics = getMetricsRecorder();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            Messages msgs = getFromRanked(endpoint);
+            succeeded = true;
+            return msgs;
+        } catch (IOException e) {
+            metrics.recordError(Operation.GET, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(Operation.GET, System.nanoTime() - start,
+                    succeeded);
+        }
     }
 
-    String post(String endpoint, Messages body) throws IOException {
-        return request("POST", endpoint, mapper.writeValueAsString(body));
+    private Messages getFromRanked(String endpoint) throws IOException {
+        List<Cloud> clouds = router.rank(this);
+        Messages empty = null;
+        IOException error = null;
+        for (Cloud cloud : clouds) {
+            Messages msgs;
+            try {
+                msgs = send(Operation.GET, cloud, "GET", endpoint, null,
+                        jsonReader(Messages.class));
+            } catch (IOException e) {
+                if (clouds.size() == 1) {
+                    throw e;
+                }
+                log.debug("Getting messages from {} failed: {}", cloud.host,
+                        e.getMessage());
+                getMetricsRecorder().recordRetry(Operation.GET, statusOf(e));
+                error = e;
+                continue;
+            }
+            if (msgs != null && msgs.size() > 0) {
+                for (Message msg : msgs.getMessages()) {
+                    msg.setOrigin(cloud);
+                }
+                return msgs;
+            }
+            empty = msgs;
+        }
+        if (empty == null && error != null) {
+            throw error;
+        }
+        return empty;
     }
 
-    String post(String endpoint, Subscriber body) throws IOException {
-        return request("POST", endpoint, mapper.writeValueAsString(body));
+    /**
+     * Gets the info of a queue from the preferred Cloud, failing over to the
+     * others.
+     */
+    Queue.Info getInfo(String endpoint) throws IOException {
+        return request(Operation.INFO, null, "GET", endpoint, null,
+                jsonReader(Queue.Info.class));
+    }
+
+    /**
+     * Posts messages to the preferred Cloud, failing over to the others.
+     */
+    Ids post(String endpoint, Messages body) throws IOException {
+        return request(Operation.PUSH, null, "POST", endpoint,
+                mapper.writeValueAsBytes(body), jsonReader(Ids.class));
     }
 
-    String post(String endpoint, String body) throws IOException {
-        return request("POST", endpoint, body);
+    String post(Cloud cloud, String endpoint, Subscriber body)
+            throws IOException {
+        return request(Operation.SUBSCRIBE, cloud, "POST", endpoint,
+                mapper.writeValueAsBytes(body), STRING_READER);
+    }
+
+    String post(Cloud cloud, String endpoint, String body) throws IOException {
+        return post(Operation.CLEAR, cloud, endpoint, body);
+    }
+
+    String post(Operation op, Cloud cloud, String endpoint, String body)
+            throws IOException {
+        return request(op, cloud, "POST", endpoint, body.getBytes(UTF8),
+                STRING_READER);
     }
 
     public ObjectMapper getMapper() {
         return mapper;
     }
 
-    private String request(String method, String endpoint, String body)
+    /**
+     * Returns the router that ranks this client's Clouds.
+     */
+    public CloudRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Returns the format message bodies are encoded with when they are
+     * pushed. Defaults to BodyFormat.LEGACY, which clients of every version
+     * can read.
+     */
+    public BodyFormat getBodyFormat() {
+        return parent != null ? parent.getBodyFormat() : bodyFormat;
+    }
+
+    /**
+     * Sets the format message bodies are encoded with when they are pushed.
+     * Queues use it unless they have a format of their own.
+     *
+     * @param bodyFormat The format.
+     */
+    public void setBodyFormat(BodyFormat bodyFormat) {
+        if (bodyFormat == null) {
+            throw new IllegalArgumentException("bodyFormat must not be null");
+        }
+        this.bodyFormat = bodyFormat;
+    }
+
+    /**
+     * Returns the recorder that measurements of this client's requests are
+     * reported to. Defaults to MetricsRecorder.NONE.
+     */
+    public MetricsRecorder getMetricsRecorder() {
+        return parent != null ? parent.getMetricsRecorder() : metrics;
+    }
+
+    /**
+     * Sets the recorder that measurements of this client's requests are
+     * reported to, including those made by its async queues, consumers and
+     * producers. The recorder is passed on to the transport as well.
+     *
+     * @param metrics The recorder, e.g. a DefaultMetricsRecorder.
+     */
+    public void setMetricsRecorder(MetricsRecorder metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("metrics must not be null");
+        }
+        this.metrics = metrics;
+        transport.setMetricsRecorder(metrics);
+    }
+
+    /**
+     * Returns the transport used to perform HTTP requests.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Releases the connections held by this client's transport. The client
+     * must not be used afterwards.
+     */
+    public void close() {
+        synchronized (this) {
+            if (asyncExecutor != null) {
+                asyncExecutor.shutdown();
+                retryScheduler.shutdown();
+            }
+        }
+        transport.close();
+    }
+
+    /**
+     * Reads the body of a successful response.
+     */
+    interface ResponseReader<T> {
+        T read(InputStream is) throws IOException;
+    }
+
+    static final ResponseReader<String> STRING_READER = new ResponseReader<String>() {
+        public String read(InputStream is) throws IOException {
+            return readString(is);
+        }
+    };
+
+    /**
+     * Returns a reader that binds the response to the given type while it is
+     * streamed from the connection, without buffering the whole body first.
+     */
+    <T> ResponseReader<T> jsonReader(final Class<T> type) {
+        return new ResponseReader<T>() {
+            public T read(InputStream is) throws IOException {
+                JsonParser jp = mapper.getJsonFactory().createJsonParser(is);
+                try {
+                    return mapper.readValue(jp, type);
+                } finally {
+                    // releases the parser's recycled buffers
+                    jp.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Sends a request and records it as one operation.
+     */
+    private <T> T request(Operation op, Cloud target, String method,
+            String endpoint, byte[] body, ResponseReader<T> reader)
+            throws IOException {
+        MetricsRecorder metrics = getMetricsRecorder();
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            T result = send(op, target, method, endpoint, body, reader);
+            succeeded = true;
+            return result;
+        } catch (IOException e) {
+            metrics.recordError(op, e);
+            throw e;
+        } finally {
+            metrics.recordOperation(op, System.nanoTime() - start, succeeded);
+        }
+    }
+
+    /**
+     * Sends a request to the given Cloud, or, if it is null, to the preferred
+     * one. A request that can be retried fails over to the next Cloud right
+     * away; once all were tried it is retried after the backoff.
+     */
+    private <T> T send(Operation op, Cloud target, String method,
+            String endpoint, byte[] body, ResponseReader<T> reader)
             throws IOException {
         String endpointPath = new StringBuilder(path).append(endpoint)
                 .toString();
-        URL url = new URL(cloud.scheme, cloud.host, cloud.port, endpointPath);
-
-        final int maxRetries = 5;
+        boolean idempotent = !"POST".equals(method);
+        if (retrying) {
+            recordRequest();
+        }
+        List<Cloud> clouds = target != null ? Collections.singletonList(target)
+                : router.rank(this);
+        int next = 0;
         int retries = 0;
         while (true) {
+            Cloud cloud = clouds.get(next);
             try {
-                return singleRequest(method, url, body);
-            } catch (HTTPException e) {
-                // ELB sometimes returns this when load is increasing.
+                return attempt(op, cloud, method, endpointPath, body, reader);
+            } catch (IOException e) {
+                if (next + 1 < clouds.size() && canFailOver(e, idempotent)) {
+                    log.debug("Failing over from {} to {} after: {}", cloud.host,
+                            clouds.get(next + 1).host, e.getMessage());
+                    getMetricsRecorder().recordRetry(op, statusOf(e));
+                    next++;
+                    continue;
+                }
                 // We retry with exponential backoff.
-                if (e.getStatusCode() != 503 || retries >= maxRetries) {
+                long delay = retrying ? retryDelay(e, retries, idempotent) : -1;
+                if (delay < 0) {
                     throw e;
                 }
+                log.debug("Retrying request in {} ms after: {}", delay,
+                        e.getMessage());
+                getMetricsRecorder().recordRetry(op, statusOf(e));
                 retries++;
-                // random delay between 0 and 4^tries*100 milliseconds
-                int pow = (1 << (2 * retries)) * 100;
-                int delay = rand.nextInt(pow);
                 try {
                     Thread.sleep(delay);
                 } catch (InterruptedException ie) {
                     Thread.currentThread().interrupt();
+                    throw e;
                 }
+                if (target == null) {
+                    clouds = router.rank(this);
+                }
+                next = 0;
             }
         }
     }
 
-    private String singleRequest(String method, URL url, String body)
+    private <T> T attempt(Operation op, Cloud cloud, String method,
+            String endpointPath, byte[] body, ResponseReader<T> reader)
             throws IOException {
-        String result;
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod(method);
-        conn.setRequestProperty(HttpRequestHeader.AUTHORIZATION, oauthHeader);
-        conn.setRequestProperty(HttpRequestHeader.USER_AGENT,
-                "IronMQ Java Client");
-        if (body != null) {
-            conn.setRequestProperty(HttpRequestHeader.CONTENT_TYPE,
-                    HttpRequestHeader.JSON_TYPE);
-            conn.setRequestProperty(HttpRequestHeader.CONTENT_LENGTH,
-                    Integer.toString(body.length()));
-            conn.setRequestProperty(HttpRequestHeader.CONNECTION,
-                    HttpRequestHeader.CLOSE);
-            conn.setDoOutput(true);
-        }
-
-        conn.connect();
-
-        if (body != null) {
-            OutputStreamWriter out = new OutputStreamWriter(
-                    conn.getOutputStream());
-            out.write(body);
-            out.flush();
-            out.close();
-        }
-        InputStream is = null;
-        int status = conn.getResponseCode();
-        if (status != 200) {
-            StringBuilder sb = new StringBuilder();
-            String msg;
-            if (conn.getContentLength() > 0
-                    && HttpRequestHeader.JSON_TYPE
-                            .equals(conn.getContentType())) {
-                BufferedReader reader = null;
-                try {
-                    is = conn.getErrorStream();
-                    reader = new BufferedReader(new InputStreamReader(is));
-                    while ((msg = reader.readLine()) != null)
-                        sb.append(msg);
-                    // Error error = mapper.readValue(reader, Error.class);
-                    msg = sb.toString();
-                } catch (JsonMappingException e) {
-                    msg = "IronMQ's response contained invalid JSON";
-                } finally {
-                    try {
-                        if (is != null)
-                            is.close();
-                    } catch (Exception e) {
-                        log.warn(e.getMessage(), e);
-                    }
-                    is = null;
-                    try {
-                        if (reader != null)
-                            reader.close();
-                    } catch (Exception e) {
-                        log.warn(e.getMessage(), e);
-                    }
-                    reader = null;
-                    try {
-                        conn.disconnect();
-                    } catch (Exception e) {
-                        log.warn(e.getMessage(), e);
-                    }
-
-                }
-            } else {
-                msg = "Empty or non-JSON response";
-            }
-            throw new HTTPException(status, msg);
+        URL url = new URL(cloud.scheme, cloud.host, cloud.port, endpointPath);
+        CircuitBreaker breaker = getCircuitBreaker(cloud);
+        if (breaker != null) {
+            breaker.acquire(cloud.host);
         }
-        BufferedReader br = null;
-        StringBuilder sb = new StringBuilder(1024);
+        long start = System.nanoTime();
+        boolean failed = true;
         try {
-            is = conn.getInputStream();
-            br = new BufferedReader(new InputStreamReader(is));
-            String line;
-
-            while ((line = br.readLine()) != null)
-                sb.append(line);
-            result = sb.toString();
+            T result = singleRequest(op, method, url, body, reader);
+            failed = false;
+            return result;
+        } catch (IOException e) {
+            failed = isFailure(e);
+            throw e;
         } finally {
-            try {
-                if (is != null)
-                    is.close();
-            } catch (Exception e) {
-                log.warn(e.getMessage(), e);
+            if (breaker != null) {
+                breaker.record(failed);
             }
-            is = null;
-            try {
-                if (br != null)
-                    br.close();
-            } catch (Exception e) {
-                log.warn(e.getMessage(), e);
+            router.record(cloud, (System.nanoTime() - start) / 1000000, failed);
+        }
+    }
+
+    /**
+     * Returns whether a request that failed with the given error may be sent
+     * to another Cloud: if the Cloud's breaker is open, if it answered with
+     * an error of its own, or if the connection failed in a way the retry
+     * policy would retry. Requests that are not idempotent only fail over on
+     * 503 and 429, which IronMQ answers without handling the request; other
+     * 5xx responses may come after a push was stored, so they are left to
+     * the caller.
+     */
+    boolean canFailOver(IOException e, boolean idempotent) {
+        if (e instanceof CircuitOpenException) {
+            return true;
+        }
+        if (e instanceof HTTPException) {
+            if (!idempotent) {
+                int status = ((HTTPException) e).getStatusCode();
+                return status == 503 || status == 429;
             }
-            br = null;
-            try {
-                conn.disconnect();
-            } catch (Exception e) {
-                log.warn(e.getMessage(), e);
+            return isFailure(e);
+        }
+        return getRetryPolicy().isRetryable(e, idempotent);
+    }
+
+    /**
+     * Returns whether an error indicates that the service is failing, rather
+     * than that the request was rejected.
+     */
+    static boolean isFailure(IOException e) {
+        if (e instanceof HTTPException) {
+            int status = ((HTTPException) e).getStatusCode();
+            return status >= 500 || status == 429;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the HTTP status of an error, or 0 if there was no response.
+     */
+    private static int statusOf(IOException e) {
+        return e instanceof HTTPException ? ((HTTPException) e).getStatusCode()
+                : 0;
+    }
+
+    private <T> T singleRequest(Operation op, String method, URL url,
+            byte[] body, ResponseReader<T> reader) throws IOException {
+        MetricsRecorder metrics = getMetricsRecorder();
+        long start = System.nanoTime();
+        TransportResponse response = transport.execute(method, url,
+                body != null ? bodyHeaders : headers, body);
+        // execute() returns with the response headers, so its time covers
+        // connecting, sending the body and waiting for the first byte
+        metrics.recordFirstByte(op, System.nanoTime() - start);
+        metrics.recordTransfer(op, body != null ? body.length : 0,
+                response.getContentLength());
+        try {
+            int status = response.getStatusCode();
+            if (status != 200) {
+                throw new HTTPException(status, errorMessage(response));
             }
-            sb.setLength(0);
-            sb.trimToSize();
-            sb = null;
+            return reader.read(response.getBody());
+        } finally {
+            response.close();
+        }
+    }
+
+    private String errorMessage(TransportResponse response) {
+        if (response.getContentLength() <= 0
+                || !HttpRequestHeader.JSON_TYPE.equals(response
+                        .getContentType())) {
+            return "Empty or non-JSON response";
+        }
+        try {
+            return readString(response.getBody());
+        } catch (IOException e) {
+            log.warn(e.getMessage(), e);
+            return "IronMQ's response could not be read";
+        }
+    }
+
+    private static String readString(InputStream is) throws IOException {
+        Reader reader = new InputStreamReader(is, UTF8);
+        StringBuilder sb = new StringBuilder(1024);
+        char[] buffer = new char[1024];
+        int len;
+        while ((len = reader.read(buffer)) > 0) {
+            sb.append(buffer, 0, len);
         }
-        return result;
+        return sb.toString();
     }
 }
@@ -0,0 +1,199 @@
+package io.iron.ironmq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The CloudRouter class keeps track of how the Clouds of a Client perform
+ * and ranks them for every request.
+ * <p>
+ * For each Cloud it keeps moving averages of the request latency and of the
+ * share of failed requests; the error rate fades while no requests are made,
+ * so a Cloud that failed is tried again after a while. A Cloud is healthy
+ * unless its circuit breaker is open or its error rate is above one half.
+ * Healthy Clouds are ranked before unhealthy ones, either in the order they
+ * were given (ORDERED, the default) or by latency divided by their weight
+ * (LATENCY). In LATENCY mode a small share of requests goes to another
+ * healthy Cloud, so that the latencies of all of them stay current.
+ */
+public class CloudRouter {
+    public enum Mode {
+        /** Prefer Clouds in the order they were given. */
+        ORDERED,
+        /** Prefer the Cloud with the lowest weighted latency. */
+        LATENCY
+    }
+
+    static final double ALPHA = 0.2;
+    static final double UNHEALTHY_ERROR_RATE = 0.5;
+    static final long ERROR_HALF_LIFE = 10000;
+    static final double EXPLORE_SHARE = 0.05;
+
+    final private List<Cloud> clouds;
+    final private Stats[] stats;
+    private volatile Mode mode = Mode.ORDERED;
+
+    CloudRouter(List<Cloud> clouds) {
+        if (clouds.isEmpty()) {
+            throw new IllegalArgumentException("at least one cloud is required");
+        }
+        this.clouds = Collections.unmodifiableList(new ArrayList<Cloud>(clouds));
+        this.stats = new Stats[clouds.size()];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new Stats();
+        }
+    }
+
+    /**
+     * Returns the Clouds in the order they were given.
+     */
+    public List<Cloud> getClouds() {
+        return clouds;
+    }
+
+    /**
+     * Sets how healthy Clouds are ranked.
+     *
+     * @param mode The mode.
+     */
+    public void setMode(Mode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("mode must not be null");
+        }
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Sets the weight of a Cloud in LATENCY mode. A Cloud with twice the
+     * weight is preferred as long as its latency is less than twice as high.
+     *
+     * @param cloud The cloud.
+     * @param weight The weight; 1 by default.
+     */
+    public void setWeight(Cloud cloud, double weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight has to be positive");
+        }
+        stats(cloud).weight = weight;
+    }
+
+    /**
+     * Returns the average latency of requests to the Cloud in milliseconds,
+     * or -1 if none were made.
+     *
+     * @param cloud The cloud.
+     */
+    public double getLatency(Cloud cloud) {
+        return stats(cloud).latency;
+    }
+
+    /**
+     * Returns the average share of failed requests to the Cloud.
+     *
+     * @param cloud The cloud.
+     */
+    public double getErrorRate(Cloud cloud) {
+        return stats(cloud).errorRate(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns whether the Cloud is considered healthy.
+     *
+     * @param client The client whose circuit breakers are checked.
+     * @param cloud The cloud.
+     */
+    boolean isHealthy(Client client, Cloud cloud) {
+        CircuitBreaker breaker = client.getCircuitBreaker(cloud);
+        return (breaker == null || breaker.getState() != CircuitBreaker.State.OPEN)
+                && getErrorRate(cloud) <= UNHEALTHY_ERROR_RATE;
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param cloud The cloud the request was sent to.
+     * @param millis The time the request took.
+     * @param failed Whether the request failed.
+     */
+    void record(Cloud cloud, long millis, boolean failed) {
+        stats(cloud).record(millis, failed, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the Clouds ordered by preference for the next request.
+     *
+     * @param client The client whose circuit breakers are checked.
+     */
+    List<Cloud> rank(Client client) {
+        if (clouds.size() == 1) {
+            return clouds;
+        }
+        List<Cloud> healthy = new ArrayList<Cloud>(clouds.size());
+        List<Cloud> unhealthy = new ArrayList<Cloud>();
+        for (Cloud cloud : clouds) {
+            (isHealthy(client, cloud) ? healthy : unhealthy).add(cloud);
+        }
+        if (mode == Mode.LATENCY && healthy.size() > 1) {
+            Collections.sort(healthy, new Comparator<Cloud>() {
+                public int compare(Cloud a, Cloud b) {
+                    return Double.compare(score(a), score(b));
+                }
+            });
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < EXPLORE_SHARE) {
+                Collections.swap(healthy, 0, 1 + random.nextInt(healthy.size() - 1));
+            }
+        }
+        final long now = System.currentTimeMillis();
+        Collections.sort(unhealthy, new Comparator<Cloud>() {
+            public int compare(Cloud a, Cloud b) {
+                return Double.compare(stats(a).errorRate(now),
+                        stats(b).errorRate(now));
+            }
+        });
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    // Clouds without samples come first, so they get some.
+    private double score(Cloud cloud) {
+        Stats s = stats(cloud);
+        return s.latency < 0 ? -1 : s.latency / s.weight;
+    }
+
+    private Stats stats(Cloud cloud) {
+        for (int i = 0; i < stats.length; i++) {
+            if (clouds.get(i) == cloud) {
+                return stats[i];
+            }
+        }
+        throw new IllegalArgumentException("Unknown cloud " + cloud.getHost());
+    }
+
+    private static class Stats {
+        volatile double latency = -1;
+        volatile double weight = 1;
+        private double errorRate;
+        private long updated;
+
+        synchronized void record(long millis, boolean failed, long now) {
+            latency = latency < 0 ? millis : latency * (1 - ALPHA) + millis * ALPHA;
+            errorRate = errorRate(now) * (1 - ALPHA) + (failed ? ALPHA : 0);
+            updated = now;
+        }
+
+        synchronized double errorRate(long now) {
+            if (errorRate == 0) {
+                return 0;
+            }
+            return errorRate * Math.pow(0.5, (double) (now - updated) / ERROR_HALF_LIFE);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The DeleteResult class reports the outcome of deleting a set of messages.
+ * Messages whose deletion failed are listed with the error that caused it, so
+ * that they can be retried.
+ */
+public class DeleteResult {
+    private final List<String> deleted = new ArrayList<String>();
+    private final Map<String, IOException> failed = new LinkedHashMap<String, IOException>();
+
+    void deleted(String id) {
+        deleted.add(id);
+    }
+
+    void failed(String id, IOException e) {
+        failed.put(id, e);
+    }
+
+    /**
+    * Returns the IDs of the messages that were deleted.
+    */
+    public List<String> getDeleted() {
+        return Collections.unmodifiableList(deleted);
+    }
+
+    /**
+    * Returns the IDs of the messages that could not be deleted, mapped to the
+    * error returned for each of them.
+    */
+    public Map<String, IOException> getFailed() {
+        return Collections.unmodifiableMap(failed);
+    }
+
+    /**
+    * Returns true if every message was deleted.
+    */
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+
+    public String toString() {
+        return new StringBuilder("DeleteResult[deleted=")
+                .append(deleted.size()).append(", failed=")
+                .append(failed.keySet()).append("]").toString();
+    }
+}
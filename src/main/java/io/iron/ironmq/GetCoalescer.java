@@ -0,0 +1,136 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges concurrent single-message gets on a queue into batched
+ * reservations. The first caller opens a batch and waits for the window;
+ * callers arriving in the meantime join it. The first caller then reserves
+ * as many messages as there are callers, up to 100, with a single request
+ * and every caller takes the message in its slot. Callers whose slot is not
+ * filled because the queue ran out get no message. The message of a caller
+ * interrupted while waiting is released again.
+ */
+class GetCoalescer {
+    Logger log = LoggerFactory.getLogger(getClass());
+    final private Queue queue;
+    final private long window;
+    // the batch callers join, guarded by this
+    private Batch open;
+
+    private static class Batch {
+        final CompletableFuture<Messages> result = new CompletableFuture<Messages>();
+        int size;
+    }
+
+    /**
+     * @param queue The queue to reserve messages from.
+     * @param window The time in nanoseconds a batch stays open.
+     */
+    GetCoalescer(Queue queue, long window) {
+        this.queue = queue;
+        this.window = window;
+    }
+
+    /**
+     * Returns a message reserved for the default timeout, or null if the
+     * queue has none for this caller.
+     */
+    Message get() throws Exception {
+        Batch batch;
+        int slot;
+        boolean leader = false;
+        synchronized (this) {
+            batch = open;
+            if (batch == null) {
+                batch = new Batch();
+                open = batch;
+                leader = true;
+            }
+            slot = batch.size++;
+            if (batch.size == Queue.MAX_MESSAGES) {
+                open = null;
+                notifyAll();
+            }
+        }
+        if (leader) {
+            reserve(batch);
+        }
+        Messages msgs;
+        try {
+            msgs = batch.result.get();
+        } catch (InterruptedException e) {
+            releaseWhenReserved(batch, slot);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a message");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        return msgs != null && slot < msgs.size() ? msgs.getMessage(slot)
+                : null;
+    }
+
+    // Puts the message of an abandoned slot back onto the queue, right away
+    // or once the batch is reserved.
+    private void releaseWhenReserved(Batch batch, final int slot) {
+        batch.result.whenComplete(new BiConsumer<Messages, Throwable>() {
+            public void accept(Messages msgs, Throwable failure) {
+                if (msgs == null || slot >= msgs.size()) {
+                    return;
+                }
+                Message msg = msgs.getMessage(slot);
+                try {
+                    queue.releaseMessage(msg, 0);
+                } catch (IOException e) {
+                    log.warn("Failed to release message " + msg.getId()
+                            + " of an interrupted get: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void reserve(Batch batch) {
+        int size;
+        boolean interrupted = false;
+        synchronized (this) {
+            long deadline = System.nanoTime() + window;
+            while (open == batch) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    open = null;
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    // the callers that joined still need their messages
+                    interrupted = true;
+                    open = null;
+                }
+            }
+            size = batch.size;
+        }
+        try {
+            batch.result.complete(queue.reserve(size, Queue.DEFAULT_TIMEOUT));
+        } catch (Exception e) {
+            batch.result.completeExceptionally(e);
+        } catch (Error e) {
+            batch.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -1,9 +1,32 @@
 package io.iron.ironmq;
 
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * The IDs IronMQ assigns to a batch of pushed messages, in push order.
+ */
+@JsonIgnoreProperties(ignoreUnknown=true)
 class Ids {
+    @JsonProperty
     private String[] ids;
 
+    Ids() {
+    }
+
+    Ids(String... ids) {
+        this.ids = ids;
+    }
+
     String getId(int i) {
         return ids[i];
     }
+
+    String[] getIds() {
+        return ids != null ? ids : new String[0];
+    }
+
+    int getSize() {
+        return ids != null ? ids.length : 0;
+    }
 }
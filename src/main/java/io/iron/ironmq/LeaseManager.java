@@ -0,0 +1,252 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.DaemonThreadFactory;
+import io.iron.ironmq.util.TimerWheel;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The LeaseManager class keeps messages reserved while they are processed,
+ * so that slow handlers do not see them delivered a second time.
+ * <p>
+ * Every tracked message has a lease on a TimerWheel that comes due when a
+ * quarter of its reservation is left. Due leases are touched by a pool of
+ * worker threads, so that a slow or retried touch holds up only its own
+ * message, and the lease restarts. A message is
+ * no longer tracked once it is deleted or released through its Queue, once
+ * IronMQ reports that it is no longer reserved, or once it has been extended
+ * for the maximum extension; its reservation then runs out as usual.
+ * <p>
+ * A LeaseManager serves a single Queue. Close it when done to stop its
+ * threads.
+ */
+public class LeaseManager {
+    /**
+     * The time in seconds a message is kept reserved for by default.
+     */
+    public static final long DEFAULT_MAX_EXTENSION = 3600;
+    /**
+     * The number of touches in flight at most by default.
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+    static final long RETRY_DELAY = 1000;
+
+    Logger log = LoggerFactory.getLogger(getClass());
+    final private Queue queue;
+    final private TimerWheel timer;
+    final private ExecutorService worker;
+    final private ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+    private volatile long maxExtension = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_EXTENSION);
+
+    private class Lease implements Runnable {
+        final Message msg;
+        final long reservation;
+        final long deadline;
+        volatile TimerWheel.Timeout handle;
+
+        Lease(Message msg, long reservation) {
+            this.msg = msg;
+            this.reservation = reservation;
+            this.deadline = System.nanoTime() + maxExtension;
+        }
+
+        // runs on the timer thread
+        public void run() {
+            try {
+                worker.execute(new Runnable() {
+                    public void run() {
+                        extend(Lease.this);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * Constructs a LeaseManager for the messages of a queue that has up to
+     * DEFAULT_CONCURRENCY touches in flight.
+     *
+     * @param queue The queue the messages were retrieved from.
+     */
+    public LeaseManager(Queue queue) {
+        this(queue, DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Constructs a LeaseManager for the messages of a queue.
+     *
+     * @param queue The queue the messages were retrieved from.
+     * @param concurrency The number of touches in flight at most.
+     */
+    public LeaseManager(Queue queue, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency has to be at least 1");
+        }
+        this.queue = queue;
+        this.timer = new TimerWheel("ironmq-lease-timer-" + queue.getName(),
+                100, TimeUnit.MILLISECONDS, TimerWheel.DEFAULT_WHEEL_SIZE);
+        this.worker = Executors.newFixedThreadPool(concurrency,
+                new DaemonThreadFactory("ironmq-lease-" + queue.getName()));
+        queue.setLeaseManager(this);
+    }
+
+    /**
+     * Sets how long a message is kept reserved at most, counted from the
+     * time it is tracked. Messages tracked before keep their limit.
+     *
+     * @param maxExtension The maximum time.
+     * @param unit The unit of the time.
+     */
+    public void setMaxExtension(long maxExtension, TimeUnit unit) {
+        if (maxExtension <= 0) {
+            throw new IllegalArgumentException("maxExtension has to be positive");
+        }
+        this.maxExtension = unit.toNanos(maxExtension);
+    }
+
+    /**
+     * Keeps a retrieved message reserved until it is deleted or released.
+     * The message's own timeout is the length of its reservation, or
+     * Queue.DEFAULT_TIMEOUT if it has none.
+     *
+     * @param msg The message.
+     */
+    public void track(Message msg) {
+        Long timeout = msg.getTimeout();
+        track(msg, timeout != null && timeout > 0 ? timeout
+                : Queue.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Keeps a retrieved message reserved until it is deleted or released.
+     *
+     * @param msg The message.
+     * @param timeout The length of its reservation in seconds.
+     */
+    public void track(Message msg, long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout has to be positive");
+        }
+        Lease lease = new Lease(msg, TimeUnit.SECONDS.toNanos(timeout));
+        Lease previous = leases.put(msg.getId(), lease);
+        if (previous != null) {
+            cancel(previous);
+        }
+        schedule(lease, lease.reservation * 3 / 4);
+    }
+
+    /**
+     * Keeps a batch of retrieved messages reserved.
+     *
+     * @param msgs The messages.
+     */
+    public void track(Messages msgs) {
+        if (msgs != null && msgs.getMessages() != null) {
+            for (Message msg : msgs.getMessages()) {
+                track(msg);
+            }
+        }
+    }
+
+    /**
+     * Stops extending the reservation of a message; it runs out as usual.
+     *
+     * @param id The ID of the message.
+     */
+    public void untrack(String id) {
+        Lease lease = leases.remove(id);
+        if (lease != null) {
+            cancel(lease);
+        }
+    }
+
+    /**
+     * Stops extending the reservation of a message; it runs out as usual.
+     *
+     * @param msg The message.
+     */
+    public void untrack(Message msg) {
+        untrack(msg.getId());
+    }
+
+    /**
+     * Returns the number of messages whose reservations are extended.
+     */
+    public int size() {
+        return leases.size();
+    }
+
+    /**
+     * Stops extending all reservations and stops the threads.
+     */
+    public void close() {
+        queue.removeLeaseManager(this);
+        timer.stop();
+        worker.shutdown();
+        leases.clear();
+    }
+
+    private void schedule(Lease lease, long delay) {
+        try {
+            lease.handle = timer.schedule(lease, delay, TimeUnit.NANOSECONDS);
+        } catch (IllegalStateException e) {
+            // closed while a touch was in flight
+            return;
+        }
+        // untracked meanwhile, after cancelling the previous timeout
+        if (leases.get(lease.msg.getId()) != lease) {
+            lease.handle.cancel();
+        }
+    }
+
+    private static void cancel(Lease lease) {
+        TimerWheel.Timeout timeout = lease.handle;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void extend(Lease lease) {
+        String id = lease.msg.getId();
+        if (leases.get(id) != lease) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lease.deadline >= 0) {
+            leases.remove(id, lease);
+            log.warn("Stopped extending the reservation of message {} on {} after {} s",
+                    id, queue.getName(), TimeUnit.NANOSECONDS.toSeconds(
+                            now - lease.deadline + maxExtension));
+            return;
+        }
+        try {
+            queue.touchMessage(lease.msg);
+            schedule(lease, lease.reservation * 3 / 4);
+        } catch (HTTPException e) {
+            if (e.getStatusCode() == 404) {
+                log.debug("Message {} is no longer reserved", id);
+                leases.remove(id, lease);
+            } else {
+                retry(lease, e);
+            }
+        } catch (IOException e) {
+            retry(lease, e);
+        }
+    }
+
+    private void retry(Lease lease, IOException e) {
+        log.warn("Failed to extend the reservation of message "
+                + lease.msg.getId() + ": " + e.getMessage());
+        schedule(lease, Math.min(TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY),
+                lease.reservation / 8));
+    }
+}
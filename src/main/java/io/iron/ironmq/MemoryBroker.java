@@ -0,0 +1,48 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.TimerWheel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The MemoryBroker class provides MemoryQueues: queues held in the memory of
+ * the JVM with the semantics of IronMQ queues. Every name maps to one queue
+ * for the lifetime of the broker, and all of them share one timer thread for
+ * reservation timeouts and delays.
+ *
+ * <pre>
+ * QueueProvider queues = inMemory ? new MemoryBroker() : client;
+ * MessageQueue queue = queues.queue("jobs");
+ * </pre>
+ */
+public class MemoryBroker implements QueueProvider {
+    final private ConcurrentMap<String, MemoryQueue> queues = new ConcurrentHashMap<String, MemoryQueue>();
+    final private AtomicLong ids = new AtomicLong();
+    final private TimerWheel timer = new TimerWheel("ironmq-memory-timer");
+
+    /**
+    * Returns the queue with the given name, creating it on first use.
+    *
+    * @param name The name of the queue.
+    */
+    public MemoryQueue queue(String name) {
+        MemoryQueue queue = queues.get(name);
+        if (queue == null) {
+            MemoryQueue created = new MemoryQueue(name, timer, ids);
+            queue = queues.putIfAbsent(name, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    /**
+    * Stops the timer thread. Reserved and delayed messages do not become
+    * available anymore, so the queues must not be used afterwards.
+    */
+    public void close() {
+        timer.stop();
+    }
+}
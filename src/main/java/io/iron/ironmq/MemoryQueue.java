@@ -0,0 +1,312 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.TimerWheel;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The MemoryQueue class is a MessageQueue held in the memory of the JVM, for
+ * components that exchange messages within one process and for fast tests.
+ * It has the semantics of a Queue: retrieved messages are reserved for a
+ * timeout and become available again unless deleted, pushed messages can be
+ * delayed and expire, and deleting an unknown message fails with a 404
+ * HTTPException. As with a Queue, get() reserves messages for the default
+ * timeout and reserve() for the given one, whatever timeout a message was
+ * pushed with. Bodies are kept as they are, without encoding; binary bodies
+ * are copied when they are pushed.
+ * <p>
+ * Available messages wait in a lock-free FIFO, and every message carries its
+ * state and reservation count in one atomic word, so that concurrent gets,
+ * deletes and expiring reservations never lock. Reservation timeouts and
+ * delays run on the TimerWheel of the MemoryBroker the queue belongs to.
+ * Expired messages are dropped when a get comes across them.
+ */
+public class MemoryQueue implements MessageQueue {
+    static final long DEFAULT_EXPIRES_IN = 7 * 24 * 3600;
+
+    // The low two bits of Entry.state hold the state, the others count the
+    // reservations, so that an expiring reservation can tell whether the
+    // message was reserved again in the meantime.
+    private static final long AVAILABLE = 0;
+    private static final long RESERVED = 1;
+    private static final long WAITING = 2;
+    private static final long DELETED = 3;
+    private static final long STATE = 3;
+
+    final private String name;
+    final private TimerWheel timer;
+    final private AtomicLong ids;
+    final private ConcurrentMap<String, Entry> messages = new ConcurrentHashMap<String, Entry>();
+    final private ConcurrentLinkedQueue<Entry> available = new ConcurrentLinkedQueue<Entry>();
+
+    private static class Entry {
+        final String id;
+        // either a String or a read-only ByteBuffer
+        final Object body;
+        final long expiresAt;
+        final AtomicLong state;
+        volatile TimerWheel.Timeout release;
+
+        Entry(String id, Object body, long expiresAt, long state) {
+            this.id = id;
+            this.body = body;
+            this.expiresAt = expiresAt;
+            this.state = new AtomicLong(state);
+        }
+    }
+
+    MemoryQueue(String name, TimerWheel timer, AtomicLong ids) {
+        this.name = name;
+        this.timer = timer;
+        this.ids = ids;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Message get() throws IOException {
+        Messages msgs = get(1);
+        if (msgs.size() == 0) {
+            throw new EmptyQueueException();
+        }
+        return msgs.getMessage(0);
+    }
+
+    public Optional<Message> tryGet() {
+        Messages msgs = get(1);
+        if (msgs.size() == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(msgs.getMessage(0));
+    }
+
+    public Messages get(int numberOfMessages) {
+        return reserve(numberOfMessages, Queue.DEFAULT_TIMEOUT);
+    }
+
+    public Messages reserve(int numberOfMessages, int timeout) {
+        if (numberOfMessages < 1 || numberOfMessages > Queue.MAX_MESSAGES) {
+            throw new IllegalArgumentException(
+                    "numberOfMessages has to be within 1..100");
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        List<Message> reserved = new ArrayList<Message>(numberOfMessages);
+        long now = System.currentTimeMillis();
+        while (reserved.size() < numberOfMessages) {
+            Entry entry = available.poll();
+            if (entry == null) {
+                break;
+            }
+            if (entry.expiresAt <= now) {
+                remove(entry);
+                continue;
+            }
+            long state = entry.state.get();
+            if ((state & STATE) != AVAILABLE) {
+                continue;
+            }
+            long reservation = (state & ~STATE) + 4 | RESERVED;
+            if (!entry.state.compareAndSet(state, reservation)) {
+                continue;
+            }
+            scheduleRelease(entry, reservation, timeout);
+            Message msg = new Message();
+            msg.setId(entry.id);
+            if (entry.body instanceof ByteBuffer) {
+                msg.setBodyBuffer((ByteBuffer) entry.body);
+            } else {
+                msg.setBody((String) entry.body);
+            }
+            msg.setTimeout((long) timeout);
+            reserved.add(msg);
+        }
+        return new Messages(reserved.toArray(new Message[reserved.size()]));
+    }
+
+    public void deleteMessage(String id) throws IOException {
+        Entry entry = messages.remove(id);
+        if (entry == null) {
+            throw new HTTPException(404, "Message not found");
+        }
+        markDeleted(entry);
+    }
+
+    public void deleteMessage(Message msg) throws IOException {
+        deleteMessage(msg.getId());
+    }
+
+    public DeleteResult deleteMessages(Collection<String> ids) {
+        DeleteResult result = new DeleteResult();
+        for (String id : ids) {
+            try {
+                deleteMessage(id);
+                result.deleted(id);
+            } catch (IOException e) {
+                result.failed(id, e);
+            }
+        }
+        return result;
+    }
+
+    public DeleteResult deleteMessages(Messages msgs) {
+        List<String> ids = new ArrayList<String>();
+        if (msgs != null && msgs.getMessages() != null) {
+            for (Message msg : msgs.getMessages()) {
+                ids.add(msg.getId());
+            }
+        }
+        return deleteMessages(ids);
+    }
+
+    public String push(String msg) {
+        return push(msg, null);
+    }
+
+    public String push(String msg, Long expiresIn) {
+        return push(msg, expiresIn, null);
+    }
+
+    public String push(String msg, Long expiresIn, Long timeout) {
+        return push(msg, expiresIn, timeout, null);
+    }
+
+    public String push(String msg, Long expiresIn, Long timeout, Long delay) {
+        if (msg == null) {
+            throw new IllegalArgumentException("message body must not be null");
+        }
+        return add(msg, expiresIn, timeout, delay);
+    }
+
+    public String push(byte[] msg) {
+        if (msg == null) {
+            throw new IllegalArgumentException("message body must not be null");
+        }
+        return push(ByteBuffer.wrap(msg), null, null, null);
+    }
+
+    public String push(ByteBuffer msg) {
+        if (msg == null) {
+            throw new IllegalArgumentException("message body must not be null");
+        }
+        return push(msg, null, null, null);
+    }
+
+    private String push(ByteBuffer msg, Long expiresIn, Long timeout,
+            Long delay) {
+        ByteBuffer copy = ByteBuffer.allocate(msg.remaining());
+        copy.put(msg.duplicate());
+        copy.flip();
+        return add(copy.asReadOnlyBuffer(), expiresIn, timeout, delay);
+    }
+
+    // The timeout is checked like the other settings, but has no effect:
+    // every get sets the reservation timeout.
+    private String add(Object msg, Long expiresIn, Long timeout, Long delay) {
+        checkSeconds("expiresIn", expiresIn);
+        checkSeconds("timeout", timeout);
+        checkSeconds("delay", delay);
+        long now = System.currentTimeMillis();
+        String id = Long.toString(ids.incrementAndGet());
+        boolean delayed = delay != null && delay > 0;
+        Entry entry = new Entry(id, msg, now + 1000
+                * (expiresIn != null ? expiresIn : DEFAULT_EXPIRES_IN),
+                delayed ? WAITING : AVAILABLE);
+        messages.put(id, entry);
+        if (delayed) {
+            scheduleRelease(entry, WAITING, delay);
+        } else {
+            available.add(entry);
+        }
+        return id;
+    }
+
+    public List<String> push(List<String> msgs) {
+        List<String> ids = new ArrayList<String>(msgs.size());
+        for (String msg : msgs) {
+            ids.add(push(msg));
+        }
+        return ids;
+    }
+
+    public List<String> pushAll(Message... msgs) {
+        List<String> ids = new ArrayList<String>(msgs.length);
+        for (Message msg : msgs) {
+            if (msg.hasBinaryBody()) {
+                ids.add(push(msg.getBodyBuffer(), msg.getExpiresIn(),
+                        msg.getTimeout(), msg.getDelay()));
+            } else {
+                ids.add(push(msg.getBody(), msg.getExpiresIn(),
+                        msg.getTimeout(), msg.getDelay()));
+            }
+        }
+        return ids;
+    }
+
+    public void clear() {
+        for (Entry entry : messages.values()) {
+            remove(entry);
+        }
+        available.clear();
+    }
+
+    /**
+     * Returns the number of messages that were not deleted, whether they are
+     * reserved or not. Expired messages count until a get comes across them.
+     */
+    public int size() {
+        return messages.size();
+    }
+
+    private static void checkSeconds(String name, Long seconds) {
+        if (seconds != null && (seconds < 0 || seconds > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException(name
+                    + " has to be within 0.." + Integer.MAX_VALUE + " seconds");
+        }
+    }
+
+    // Makes the message available again once the reservation or delay ends,
+    // unless it was deleted or reserved again by then.
+    private void scheduleRelease(final Entry entry, final long state,
+            long seconds) {
+        entry.release = timer.schedule(new Runnable() {
+            public void run() {
+                if (entry.state.compareAndSet(state, state & ~STATE | AVAILABLE)) {
+                    available.add(entry);
+                }
+            }
+        }, seconds, TimeUnit.SECONDS);
+    }
+
+    private void remove(Entry entry) {
+        messages.remove(entry.id, entry);
+        markDeleted(entry);
+    }
+
+    private static void markDeleted(Entry entry) {
+        while (true) {
+            long state = entry.state.get();
+            if ((state & STATE) == DELETED) {
+                return;
+            }
+            if (entry.state.compareAndSet(state, state | DELETED)) {
+                TimerWheel.Timeout release = entry.release;
+                if (release != null) {
+                    release.cancel();
+                }
+                return;
+            }
+        }
+    }
+}
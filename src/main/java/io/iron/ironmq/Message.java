@@ -1,6 +1,16 @@
 package io.iron.ironmq;
 
+import io.iron.ironmq.codec.BodyFormat;
+import io.iron.ironmq.metrics.MetricsRecorder;
+import io.iron.ironmq.metrics.Operation;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OptionalDataException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.codehaus.jackson.annotate.JsonProperty;
@@ -12,6 +22,7 @@ import org.codehaus.jackson.annotate.JsonRawValue;
 @JsonIgnoreProperties(ignoreUnknown=true)
 public class Message implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     private String id;
     // @JsonRawValue
     private String body;
@@ -27,13 +38,41 @@ public class Message implements Serializable {
     @JsonIgnore
     private Object push_status;
 
+    // The cloud the message was retrieved from, so that it is deleted there.
+    @JsonIgnore
+    private transient Cloud origin;
+
+    // A binary body, kept as given; the text body is derived from it when
+    // it is first asked for.
+    @JsonIgnore
+    private transient ByteBuffer bodyBuffer;
+
+    // The body as retrieved from a queue. It is decoded on first access and
+    // kept afterwards, so that the message can be forwarded without encoding
+    // it again, until the body is changed.
+    @JsonIgnore
+    private transient String encodedBody;
+    @JsonIgnore
+    private transient volatile boolean pending;
+    @JsonIgnore
+    private transient MetricsRecorder metrics;
+
     public Message() {
     }
 
     /**
-    * Returns the Message's body contents.
+    * Returns the Message's body contents. The body of a retrieved message is
+    * decoded on the first call.
+    *
+    * @throws UncheckedIOException If the retrieved body is corrupt or names
+    * an unknown codec.
     */
     public String getBody() {
+        decodeIfPending();
+        if (body == null && bodyBuffer != null) {
+            ByteBuffer data = bodyBuffer.duplicate();
+            body = UTF8.decode(data).toString();
+        }
         return body;
     }
 
@@ -44,6 +83,119 @@ public class Message implements Serializable {
     */
     public void setBody(String body) {
         this.body = body;
+        this.bodyBuffer = null;
+        this.encodedBody = null;
+        this.pending = false;
+    }
+
+    /**
+    * Returns the Message's body as bytes: a binary body as it was set or
+    * retrieved, a text body as UTF-8. The array of a binary body is not
+    * copied and must not be modified.
+    */
+    @JsonIgnore
+    public byte[] getBodyBytes() {
+        decodeIfPending();
+        ByteBuffer data = bodyBuffer;
+        if (data == null) {
+            return body != null ? body.getBytes(UTF8) : null;
+        }
+        if (data.hasArray() && data.arrayOffset() == 0
+                && data.position() == 0
+                && data.remaining() == data.array().length) {
+            return data.array();
+        }
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+    * Returns the Message's body as a read-only buffer: a binary body without
+    * copying it, a text body as UTF-8.
+    */
+    @JsonIgnore
+    public ByteBuffer getBodyBuffer() {
+        decodeIfPending();
+        ByteBuffer data = bodyBuffer;
+        if (data == null) {
+            return body != null
+                    ? ByteBuffer.wrap(body.getBytes(UTF8)).asReadOnlyBuffer()
+                    : null;
+        }
+        return data.asReadOnlyBuffer();
+    }
+
+    /**
+    * Sets the Message's body to binary contents. The array is not copied.
+    *
+    * @param body The new body contents.
+    */
+    @JsonIgnore
+    public void setBodyBytes(byte[] body) {
+        setBodyBuffer(body != null ? ByteBuffer.wrap(body) : null);
+    }
+
+    /**
+    * Sets the Message's body to the remaining bytes of a buffer. The bytes
+    * are not copied, and the position of the buffer is left unchanged.
+    *
+    * @param body The new body contents.
+    */
+    @JsonIgnore
+    public void setBodyBuffer(ByteBuffer body) {
+        this.bodyBuffer = body != null ? body.slice() : null;
+        this.body = null;
+        this.encodedBody = null;
+        this.pending = false;
+    }
+
+    /**
+    * Returns the body as it was retrieved from the queue, or null if the
+    * Message was not retrieved or its body was changed since. Pass it on
+    * with Queue.forward to avoid decoding and encoding it again.
+    */
+    @JsonIgnore
+    public String getEncodedBody() {
+        return encodedBody;
+    }
+
+    /**
+    * Sets the body as retrieved from a queue, to be decoded on first access.
+    *
+    * @param encoded The body as stored in IronMQ.
+    * @param metrics The recorder told about the decoding.
+    */
+    void setEncodedBody(String encoded, MetricsRecorder metrics) {
+        this.body = null;
+        this.bodyBuffer = null;
+        this.encodedBody = encoded;
+        this.metrics = metrics;
+        this.pending = encoded != null;
+    }
+
+    /**
+    * Returns whether the Message has a binary body.
+    */
+    boolean hasBinaryBody() {
+        decodeIfPending();
+        return bodyBuffer != null;
+    }
+
+    /**
+    * Returns the length of the body without converting it: the number of
+    * bytes of a binary body, the number of characters of a text body or of
+    * a body that was not decoded yet.
+    */
+    int getBodyLength() {
+        if (pending) {
+            return encodedBody.length();
+        }
+        ByteBuffer data = bodyBuffer;
+        if (data != null) {
+            return data.remaining();
+        }
+        return body != null ? body.length() : 0;
     }
 
     /**
@@ -113,11 +265,99 @@ public class Message implements Serializable {
         this.expiresIn = expiresIn;
     }
 
+    /**
+    * Returns the Cloud the Message was retrieved from, or null if it was not
+    * retrieved from a queue.
+    */
+    Cloud getOrigin() {
+        return origin;
+    }
+
+    @JsonIgnore
+    void setOrigin(Cloud origin) {
+        this.origin = origin;
+    }
+
     /**
     * Returns a string representation of the Message.
     */
     public String toString() {
-        return body;
+        try {
+            return getBody();
+        } catch (UncheckedIOException e) {
+            return encodedBody;
+        }
+    }
+
+    /**
+    * Decodes the body if it was not decoded yet. A corrupt body is left as
+    * it is, for the accessors to report.
+    */
+    void decodeQuietly() {
+        try {
+            decodeIfPending();
+        } catch (UncheckedIOException e) {
+            // reported again on access
+        }
+    }
+
+    private void decodeIfPending() {
+        if (pending) {
+            decode();
+        }
+    }
+
+    // Bodies written as text stay text; all others are decoded into bytes
+    // and only turned into text if asked for.
+    private synchronized void decode() {
+        if (!pending) {
+            return;
+        }
+        String encoded = encodedBody;
+        try {
+            if (BodyFormat.isText(encoded)) {
+                body = BodyFormat.decodeToString(encoded);
+            } else {
+                bodyBuffer = ByteBuffer.wrap(BodyFormat.decode(encoded));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot decode body of message "
+                    + id, e);
+        }
+        pending = false;
+        if (metrics != null) {
+            metrics.recordCompression(Operation.GET, getBodyLength(),
+                    encoded.length());
+            metrics = null;
+        }
+    }
+
+    // A binary body is written after the fields, since ByteBuffer is not
+    // Serializable. Streams written before binary bodies existed end after
+    // the fields.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        try {
+            decodeIfPending();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.defaultWriteObject();
+        out.writeObject(bodyBuffer != null ? getBodyBytes() : null);
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        try {
+            byte[] bytes = (byte[]) in.readObject();
+            if (bytes != null) {
+                bodyBuffer = ByteBuffer.wrap(bytes);
+            }
+        } catch (OptionalDataException e) {
+            if (!e.eof) {
+                throw e;
+            }
+        }
     }
 
     /**
@@ -0,0 +1,16 @@
+package io.iron.ironmq;
+
+/**
+ * A MessageListener processes the messages delivered by a
+ * MessageListenerContainer.
+ */
+public interface MessageListener {
+    /**
+     * Processes a message. The message is deleted from the queue once this
+     * method returns normally. If it throws, the message is left reserved and
+     * is delivered again after its timeout.
+     *
+     * @param msg The message to process.
+     */
+    void onMessage(Message msg) throws Exception;
+}
@@ -0,0 +1,380 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.Backoff;
+import io.iron.ironmq.util.DaemonThreadFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The MessageListenerContainer class reserves messages from a queue, hands
+ * them to a MessageListener on a pool of worker threads and deletes the ones
+ * that were processed successfully.
+ * <p>
+ * Messages are only reserved while a worker can take them, so no more than
+ * the configured number of messages is in flight at a time. The IDs of
+ * processed messages are collected and deleted in batches, either once the
+ * ack linger has passed or as soon as a full batch of 100 has accumulated.
+ * Messages whose listener threw are not deleted; IronMQ delivers them again
+ * after their timeout. While the queue is empty the container backs off as a
+ * PollingConsumer does.
+ * <p>
+ * Delivery is at least once: a message whose reservation expires before it
+ * is acknowledged is delivered again, so listeners should be idempotent and
+ * the timeout should comfortably exceed the processing time.
+ */
+public class MessageListenerContainer {
+    public static final int DEFAULT_BATCH_SIZE = Queue.MAX_MESSAGES;
+    public static final long DEFAULT_ACK_LINGER = 200;
+
+    Logger log = LoggerFactory.getLogger(getClass());
+    final private MessageQueue queue;
+    final private MessageListener listener;
+    final private Executor executor;
+    final private ExecutorService ownExecutor;
+    final private int maxInFlight;
+    final private Semaphore permits;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int timeout = Queue.DEFAULT_TIMEOUT;
+    private long ackLinger = DEFAULT_ACK_LINGER;
+    private Backoff emptyBackoff = new Backoff(
+            PollingConsumer.DEFAULT_MIN_WAIT, PollingConsumer.DEFAULT_MAX_WAIT);
+    private final Backoff errorBackoff = new Backoff(1000, 30000);
+
+    private final Object ackLock = new Object();
+    private List<Message> acks = new ArrayList<Message>();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile LeaseManager leaseManager;
+    private volatile boolean running;
+    // set once the final flush of stop() has started
+    private volatile boolean stopped;
+    private Thread fetcher;
+    private ScheduledExecutorService ackScheduler;
+
+    /**
+     * Constructs a new MessageListenerContainer with its own pool of worker
+     * threads. Call start() to begin consuming.
+     *
+     * @param queue The queue to consume.
+     * @param listener The listener processing the messages.
+     * @param concurrency The number of worker threads. At most twice as many
+     * messages are reserved at a time.
+     */
+    public MessageListenerContainer(MessageQueue queue, MessageListener listener,
+            int concurrency) {
+        this(queue, listener, Executors.newFixedThreadPool(concurrency,
+                new DaemonThreadFactory("ironmq-listener-" + queue.getName())),
+                concurrency * 2, true);
+    }
+
+    /**
+     * Constructs a new MessageListenerContainer running the listener on the
+     * given executor. Call start() to begin consuming.
+     *
+     * @param queue The queue to consume.
+     * @param listener The listener processing the messages.
+     * @param executor The executor running the listener.
+     * @param maxInFlight The maximum number of messages reserved and not yet
+     * processed at a time.
+     */
+    public MessageListenerContainer(MessageQueue queue, MessageListener listener,
+            Executor executor, int maxInFlight) {
+        this(queue, listener, executor, maxInFlight, false);
+    }
+
+    private MessageListenerContainer(MessageQueue queue, MessageListener listener,
+            Executor executor, int maxInFlight, boolean ownsExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight has to be positive");
+        }
+        this.queue = queue;
+        this.listener = listener;
+        this.executor = executor;
+        this.ownExecutor = ownsExecutor ? (ExecutorService) executor : null;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Sets the maximum number of messages reserved with one request.
+     *
+     * @param batchSize The batch size. Max. is 100.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > Queue.MAX_MESSAGES) {
+            throw new IllegalArgumentException(
+                    "batchSize has to be within 1..100");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the reservation timeout of the messages.
+     *
+     * @param timeout The timeout in seconds.
+     */
+    public void setTimeout(int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout has to be positive");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets how long the IDs of processed messages are collected before they
+     * are deleted together.
+     *
+     * @param ackLinger The linger in milliseconds.
+     */
+    public void setAckLinger(long ackLinger) {
+        if (ackLinger < 1) {
+            throw new IllegalArgumentException("ackLinger has to be positive");
+        }
+        this.ackLinger = ackLinger;
+    }
+
+    /**
+     * Keeps messages reserved while they wait for and run in the listener,
+     * however long that takes, until they are deleted. Without a
+     * LeaseManager, messages are delivered again if processing outlasts the
+     * timeout.
+     *
+     * @param leaseManager The LeaseManager of the queue, or null.
+     */
+    public void setLeaseManager(LeaseManager leaseManager) {
+        this.leaseManager = leaseManager;
+    }
+
+    /**
+     * Sets the delays between requests while the queue is empty.
+     *
+     * @param minWait The first delay in milliseconds.
+     * @param maxWait The largest delay in milliseconds.
+     * @see PollingConsumer
+     */
+    public void setEmptyBackoff(long minWait, long maxWait) {
+        this.emptyBackoff = new Backoff(minWait, maxWait);
+    }
+
+    /**
+     * Starts reserving messages and dispatching them to the listener.
+     */
+    public synchronized void start() {
+        if (fetcher != null) {
+            throw new IllegalStateException("Container already started");
+        }
+        running = true;
+        ackScheduler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("ironmq-ack-" + queue.getName()));
+        ackScheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                flushAcks();
+            }
+        }, ackLinger, ackLinger, TimeUnit.MILLISECONDS);
+        fetcher = new DaemonThreadFactory("ironmq-fetch-" + queue.getName())
+                .newThread(new Runnable() {
+                    public void run() {
+                        fetchLoop();
+                    }
+                });
+        fetcher.start();
+    }
+
+    /**
+     * Stops reserving messages, waits for the messages in flight to be
+     * processed and deletes the ones that succeeded. Messages still in flight
+     * when the wait is over are deleted by their worker once processed.
+     *
+     * @param wait The maximum time to wait for messages in flight.
+     * @param unit The unit of wait.
+     * @return true if all messages in flight were processed in time.
+     */
+    public synchronized boolean stop(long wait, TimeUnit unit)
+            throws InterruptedException {
+        if (fetcher == null) {
+            return true;
+        }
+        long deadline = System.currentTimeMillis() + unit.toMillis(wait);
+        running = false;
+        fetcher.interrupt();
+        fetcher.join(Math.max(1, deadline - System.currentTimeMillis()));
+
+        boolean drained = permits.tryAcquire(maxInFlight,
+                Math.max(0, deadline - System.currentTimeMillis()),
+                TimeUnit.MILLISECONDS);
+        if (drained) {
+            permits.release(maxInFlight);
+        } else {
+            log.warn("Stopped listening on {} with messages still in flight",
+                    queue.getName());
+        }
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+        ackScheduler.shutdown();
+        ackScheduler.awaitTermination(Math.max(0,
+                deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        stopped = true;
+        flushAcks();
+        return drained;
+    }
+
+    /**
+     * Returns the number of messages the listener processed successfully.
+     */
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    /**
+     * Returns the number of messages the listener failed to process.
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private void fetchLoop() {
+        while (running) {
+            int n = 0;
+            try {
+                permits.acquire();
+                n = 1 + permits.drainPermits();
+                if (n > batchSize) {
+                    permits.release(n - batchSize);
+                    n = batchSize;
+                }
+                Messages msgs = queue.reserve(n, timeout);
+                errorBackoff.reset();
+                int count = msgs != null ? msgs.size() : 0;
+                permits.release(n - count);
+                n = 0;
+                if (count == 0) {
+                    emptyBackoff.sleep();
+                    continue;
+                }
+                emptyBackoff.reset();
+                for (Message msg : msgs.getMessages()) {
+                    dispatch(msg);
+                }
+            } catch (InterruptedException e) {
+                permits.release(n);
+                break;
+            } catch (Exception e) {
+                permits.release(n);
+                log.warn("Reserving messages from " + queue.getName()
+                        + " failed: " + e.getMessage(), e);
+                try {
+                    errorBackoff.sleep();
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void dispatch(final Message msg) {
+        LeaseManager leases = leaseManager;
+        if (leases != null) {
+            leases.track(msg, timeout);
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    process(msg);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the message is redelivered after its timeout
+            untrack(msg.getId());
+            permits.release();
+            log.warn("Executor rejected message {}", msg.getId());
+        }
+    }
+
+    private void untrack(String id) {
+        LeaseManager leases = leaseManager;
+        if (leases != null) {
+            leases.untrack(id);
+        }
+    }
+
+    private void process(Message msg) {
+        try {
+            listener.onMessage(msg);
+            processed.incrementAndGet();
+            ack(msg);
+        } catch (Throwable e) {
+            untrack(msg.getId());
+            failed.incrementAndGet();
+            log.warn("Listener failed on message " + msg.getId() + ": "
+                    + e.getMessage(), e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void ack(Message msg) {
+        boolean full;
+        synchronized (ackLock) {
+            acks.add(msg);
+            full = acks.size() == Queue.MAX_MESSAGES;
+        }
+        if (stopped) {
+            // processed after stop() gave up waiting; nothing flushes later
+            log.debug("Deleting message {} processed after the container stopped",
+                    msg.getId());
+            flushAcks();
+        } else if (full) {
+            try {
+                ackScheduler.execute(new Runnable() {
+                    public void run() {
+                        flushAcks();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // stopping; the final flush picks the IDs up
+            }
+        }
+    }
+
+    private void flushAcks() {
+        List<Message> msgs;
+        synchronized (ackLock) {
+            if (acks.isEmpty()) {
+                return;
+            }
+            msgs = acks;
+            acks = new ArrayList<Message>();
+        }
+        DeleteResult result;
+        try {
+            result = queue.deleteMessages(new Messages(
+                    msgs.toArray(new Message[msgs.size()])));
+        } catch (RuntimeException e) {
+            for (Message msg : msgs) {
+                untrack(msg.getId());
+            }
+            log.warn("Failed to delete processed messages from "
+                    + queue.getName() + ": " + e.getMessage(), e);
+            return;
+        }
+        if (!result.isSuccessful()) {
+            for (String id : result.getFailed().keySet()) {
+                untrack(id);
+            }
+            log.warn("Failed to delete {} of {} processed messages from {}; they will be delivered again",
+                    result.getFailed().size(), msgs.size(), queue.getName());
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The MessageQueue interface is the set of queue operations that do not
+ * depend on how messages are transported. Queue implements it on top of
+ * IronMQ and MemoryQueue within the JVM, so code written against it can
+ * switch between them by configuration, see QueueProvider.
+ * <p>
+ * Retrieved messages are reserved for a timeout and become available again
+ * unless they are deleted in time.
+ */
+public interface MessageQueue {
+    /**
+    * Returns the name of the queue.
+    */
+    String getName();
+
+    /**
+    * Retrieves a Message from the queue, reserving it for the default
+    * timeout.
+    *
+    * @throws EmptyQueueException If the queue is empty.
+    */
+    Message get() throws Exception;
+
+    /**
+    * Retrieves a Message from the queue if there is one, reserving it for the
+    * default timeout.
+    *
+    * @return The message, or an empty Optional if the queue is empty.
+    */
+    Optional<Message> tryGet() throws Exception;
+
+    /**
+    * Retrieves up to the given number of Messages, reserving them for the
+    * default timeout.
+    *
+    * @param numberOfMessages The number of messages to receive. Max. is 100.
+    */
+    Messages get(int numberOfMessages) throws Exception;
+
+    /**
+    * Retrieves up to the given number of Messages, reserving them for the
+    * given timeout.
+    *
+    * @param numberOfMessages The number of messages to receive. Max. is 100.
+    * @param timeout timeout in seconds.
+    */
+    Messages reserve(int numberOfMessages, int timeout) throws Exception;
+
+    /**
+    * Deletes a Message from the queue.
+    *
+    * @param id The ID of the message to delete.
+    * @throws HTTPException With status 404 if there is no such message.
+    */
+    void deleteMessage(String id) throws IOException;
+
+    /**
+    * Deletes a retrieved Message from the queue.
+    *
+    * @param msg The message to delete.
+    * @throws HTTPException With status 404 if there is no such message.
+    */
+    void deleteMessage(Message msg) throws IOException;
+
+    /**
+    * Deletes a set of messages from the queue.
+    *
+    * @param ids The IDs of the messages to delete.
+    * @return The IDs that were deleted and the ones that failed.
+    */
+    DeleteResult deleteMessages(Collection<String> ids);
+
+    /**
+    * Deletes a set of retrieved messages from the queue.
+    *
+    * @param msgs The messages to delete.
+    * @return The IDs that were deleted and the ones that failed.
+    */
+    DeleteResult deleteMessages(Messages msgs);
+
+    /**
+    * Pushes a message onto the queue.
+    *
+    * @param msg The body of the message to push.
+    * @return The new message's ID
+    */
+    String push(String msg) throws Exception;
+
+    /**
+    * Pushes a message onto the queue.
+    *
+    * @param msg The body of the message to push.
+    * @param expiresIn How long in seconds to keep the item on the queue
+    * before it is deleted. Null for the default of 7 days.
+    * @return The new message's ID
+    */
+    String push(String msg, Long expiresIn) throws Exception;
+
+    /**
+    * Pushes a message onto the queue.
+    *
+    * @param msg The body of the message to push.
+    * @param expiresIn How long in seconds to keep the item on the queue
+    * before it is deleted. Null for the default of 7 days.
+    * @param timeout The message's default reservation timeout in seconds.
+    * @return The new message's ID
+    */
+    String push(String msg, Long expiresIn, Long timeout) throws Exception;
+
+    /**
+    * Pushes a message onto the queue.
+    *
+    * @param msg The body of the message to push.
+    * @param expiresIn How long in seconds to keep the item on the queue
+    * before it is deleted. Null for the default of 7 days.
+    * @param timeout The message's default reservation timeout in seconds.
+    * @param delay The number of seconds to delay putting the message on the
+    * queue.
+    * @return The new message's ID
+    */
+    String push(String msg, Long expiresIn, Long timeout, Long delay)
+            throws Exception;
+
+    /**
+    * Pushes a message with a binary body onto the queue.
+    *
+    * @param msg The body of the message to push.
+    * @return The new message's ID
+    */
+    String push(byte[] msg) throws Exception;
+
+    /**
+    * Pushes a message with the remaining bytes of a buffer as its body onto
+    * the queue. The position of the buffer is left unchanged.
+    *
+    * @param msg The body of the message to push.
+    * @return The new message's ID
+    */
+    String push(ByteBuffer msg) throws Exception;
+
+    /**
+    * Pushes messages onto the queue.
+    *
+    * @param msgs The bodies of the messages to push.
+    * @return The new messages' IDs, in the order of the bodies.
+    */
+    List<String> push(List<String> msgs) throws Exception;
+
+    /**
+    * Pushes messages with their own expiry, timeout and delay onto the
+    * queue.
+    *
+    * @param msgs The messages to push.
+    * @return The new messages' IDs, in the order of the messages.
+    */
+    List<String> pushAll(Message... msgs) throws Exception;
+
+    /**
+    * Deletes all messages from the queue.
+    */
+    void clear() throws IOException;
+}
@@ -1,5 +1,7 @@
 package io.iron.ironmq;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown=true)
@@ -18,4 +20,62 @@ public class Messages {
     public Message[] getMessages() {
         return messages;
     }
+
+    /**
+     * Returns the number of messages.
+     */
+    public int size() {
+        return messages != null ? messages.length : 0;
+    }
+
+    /**
+     * Decodes the bodies of retrieved messages ahead of access. Batches whose
+     * bodies add up to the threshold are decoded in parallel on the pool,
+     * smaller ones on the calling thread. Corrupt bodies are left for the
+     * accessors of their messages to report.
+     *
+     * @param pool The pool to decode on.
+     * @param threshold The total length of the bodies in characters from
+     * which on they are decoded in parallel.
+     */
+    public void decodeBodies(ForkJoinPool pool, int threshold) {
+        if (messages == null || messages.length == 0) {
+            return;
+        }
+        long total = 0;
+        for (Message msg : messages) {
+            total += msg.getBodyLength();
+        }
+        if (total < threshold || messages.length == 1) {
+            for (Message msg : messages) {
+                msg.decodeQuietly();
+            }
+        } else {
+            pool.invoke(new DecodeTask(messages, 0, messages.length));
+        }
+    }
+
+    private static class DecodeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final Message[] messages;
+        final int from;
+        final int to;
+
+        DecodeTask(Message[] messages, int from, int to) {
+            this.messages = messages;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                messages[from].decodeQuietly();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecodeTask(messages, from, mid),
+                    new DecodeTask(messages, mid, to));
+        }
+    }
 }
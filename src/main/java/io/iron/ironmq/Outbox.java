@@ -0,0 +1,595 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.Backoff;
+import io.iron.ironmq.util.DaemonThreadFactory;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The Outbox class is a durable local spool for pushes. Messages are
+ * appended to memory-mapped segment files in a directory, which takes no
+ * longer than a memory copy, and a background thread forwards them to the
+ * queue in batches of up to 100. Pushes therefore neither block nor fail
+ * while IronMQ is slow or unreachable; the forwarder retries with backoff
+ * until the messages are accepted.
+ * <p>
+ * Every record carries its length and a CRC32 of its content. The position
+ * up to which messages have been forwarded is kept in a checkpoint file, and
+ * segments are deleted once all their messages have been forwarded. When an
+ * Outbox is started on a directory left by an earlier process, forwarding
+ * resumes at the checkpoint and appending after the last intact record.
+ * <p>
+ * Delivery is at least once: messages forwarded just before a crash may be
+ * pushed again. Appended messages survive the JVM exiting, since the
+ * operating system writes the mapped pages back; to also survive a crash of
+ * the machine, enable setSync(), which forces every append to disk.
+ * <p>
+ * Only one Outbox may use a directory at a time.
+ */
+public class Outbox {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    public static final int DEFAULT_MAX_SEGMENTS = 64;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String CHECKPOINT_FILE = "checkpoint";
+    // length and CRC32 of a record
+    static final int RECORD_HEADER = 8;
+    // timeout, delay and expiration of the message
+    static final int PAYLOAD_HEADER = 24;
+    static final long ABSENT = -1;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    Logger log = LoggerFactory.getLogger(getClass());
+    final private Queue queue;
+    final private File directory;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private int batchSize = Queue.MAX_MESSAGES;
+    private boolean sync;
+    private final Backoff errorBackoff = new Backoff(1000, 60000);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition forwarded = lock.newCondition();
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private Segment writeSegment;
+    private int writePosition;
+    private long readSegment;
+    private int readPosition;
+    private RandomAccessFile checkpoint;
+
+    private volatile boolean running;
+    private Thread forwarder;
+
+    /**
+     * Constructs a new Outbox. Call start() before pushing.
+     *
+     * @param queue The queue to forward messages to.
+     * @param directory The directory holding the segment files. It is created
+     * if it does not exist.
+     */
+    public Outbox(Queue queue, File directory) {
+        this.queue = queue;
+        this.directory = directory;
+    }
+
+    /**
+     * Sets the size of new segment files. Has to be called before start().
+     *
+     * @param segmentSize The size in bytes.
+     */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize has to be at least 1024");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets the number of segment files at which further pushes are rejected
+     * with a BufferFullException, which bounds the disk space used while
+     * messages cannot be forwarded.
+     *
+     * @param maxSegments The number of segments.
+     */
+    public void setMaxSegments(int maxSegments) {
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maxSegments has to be at least 2");
+        }
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Sets the maximum number of messages forwarded with one request.
+     *
+     * @param batchSize The batch size. Max. is 100.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > Queue.MAX_MESSAGES) {
+            throw new IllegalArgumentException(
+                    "batchSize has to be within 1..100");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets whether every append is forced to disk before push() returns.
+     *
+     * @param sync true to force every append.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Opens the segment files, recovering the ones left by an earlier
+     * process, and starts forwarding.
+     *
+     * @throws IOException If the directory cannot be read or written.
+     */
+    public synchronized void start() throws IOException {
+        if (forwarder != null) {
+            throw new IllegalStateException("Outbox already started");
+        }
+        lock.lock();
+        try {
+            recover();
+        } finally {
+            lock.unlock();
+        }
+        running = true;
+        forwarder = new DaemonThreadFactory("ironmq-outbox-" + queue.getName())
+                .newThread(new Runnable() {
+                    public void run() {
+                        forwardLoop();
+                    }
+                });
+        forwarder.start();
+    }
+
+    /**
+     * Appends a message to the outbox.
+     *
+     * @param msg The body of the message to push.
+     * @throws BufferFullException If the outbox holds the maximum number of
+     * segments.
+     * @throws IOException If the message cannot be written.
+     */
+    public void push(String msg) throws Exception {
+        Message message = new Message();
+        message.setBody(msg);
+        push(message);
+    }
+
+    /**
+     * Appends a message to the outbox. The body, timeout, delay and
+     * expiration of the message are used; the message itself is not
+     * modified. Text and binary bodies are spooled already encoded in the
+     * queue's body format, so a later change of the format does not affect
+     * them.
+     *
+     * @param msg The message to push.
+     * @throws BufferFullException If the outbox holds the maximum number of
+     * segments.
+     * @throws IOException If the message cannot be written.
+     */
+    public void push(Message msg) throws Exception {
+        ByteBuffer payload = toPayload(queue.encode(msg));
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.limit());
+        int length = RECORD_HEADER + payload.limit();
+        // leave room for the end marker
+        if (length + 4 > segmentSize) {
+            throw new IOException("Message of " + payload.limit()
+                    + " bytes does not fit into a segment");
+        }
+
+        lock.lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("Outbox is not running");
+            }
+            if (writePosition + length + 4 > writeSegment.size()) {
+                roll();
+            }
+            MappedByteBuffer buffer = writeSegment.buffer;
+            buffer.position(writePosition + RECORD_HEADER);
+            buffer.put(payload);
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            // end the segment after the record, so stale bytes left by a
+            // recovered segment are never read back as records
+            buffer.putInt(writePosition + length, 0);
+            // the length goes last, so a torn record never looks complete
+            buffer.putInt(writePosition, payload.limit());
+            writePosition += length;
+            if (sync) {
+                buffer.force();
+            }
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all messages appended so far have been forwarded.
+     *
+     * @param wait The maximum time to wait.
+     * @param unit The unit of wait.
+     * @return true if all messages were forwarded in time.
+     */
+    public boolean awaitForwarded(long wait, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(wait);
+        lock.lockInterruptibly();
+        try {
+            while (!isDrained()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = forwarded.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops forwarding and closes the segment files. Messages not forwarded
+     * yet stay in the directory and are forwarded by the next Outbox started
+     * on it.
+     */
+    public synchronized void close() throws InterruptedException {
+        if (forwarder == null) {
+            return;
+        }
+        running = false;
+        forwarder.interrupt();
+        forwarder.join();
+        forwarder = null;
+        lock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            checkpoint.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held.
+    private boolean isDrained() {
+        return readSegment == writeSegment.index
+                && readPosition == writePosition;
+    }
+
+    // Must be called with the lock held.
+    private void recover() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        String[] names = directory.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        for (String name : names) {
+            long index = Long.parseLong(name.substring(0,
+                    name.length() - SEGMENT_SUFFIX.length()));
+            segments.put(index, Segment.open(new File(directory, name), index, 0));
+        }
+
+        checkpoint = new RandomAccessFile(new File(directory, CHECKPOINT_FILE), "rw");
+        readSegment = segments.isEmpty() ? 1 : segments.firstKey();
+        readPosition = 0;
+        if (checkpoint.length() >= 16) {
+            long index = checkpoint.readLong();
+            int position = checkpoint.readInt();
+            int crc = checkpoint.readInt();
+            if (crc == checkpointCrc(index, position)
+                    && segments.containsKey(index)) {
+                readSegment = index;
+                readPosition = position;
+            } else {
+                log.warn("Ignoring invalid checkpoint in {}, forwarding all segments",
+                        directory);
+            }
+        }
+        reclaim();
+
+        if (segments.isEmpty()) {
+            writeSegment = newSegment(readSegment);
+            writePosition = 0;
+        } else {
+            writeSegment = segments.lastEntry().getValue();
+            writePosition = scan(writeSegment);
+            if (writePosition + 4 <= writeSegment.size()) {
+                writeSegment.buffer.putInt(writePosition, 0);
+            }
+            if (readSegment == writeSegment.index && readPosition > writePosition) {
+                readPosition = writePosition;
+            }
+        }
+        log.debug("Outbox {} resumes forwarding at segment {} position {}",
+                directory, readSegment, readPosition);
+    }
+
+    // Returns the position after the last intact record of the segment.
+    private int scan(Segment segment) {
+        int position = 0;
+        while (true) {
+            ByteBuffer payload = record(segment, position, segment.size());
+            if (payload == null) {
+                return position;
+            }
+            position += RECORD_HEADER + payload.limit();
+        }
+    }
+
+    // Reads the record at the position, or returns null if there is no
+    // intact record before the limit.
+    private ByteBuffer record(Segment segment, int position, int limit) {
+        if (position + RECORD_HEADER > limit) {
+            return null;
+        }
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > limit - position - RECORD_HEADER) {
+            return null;
+        }
+        buffer.position(position + RECORD_HEADER);
+        buffer.limit(position + RECORD_HEADER + length);
+        ByteBuffer payload = buffer.slice();
+        byte[] bytes = new byte[length];
+        payload.duplicate().get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            log.warn("Record at {} in segment {} of {} is corrupt", position,
+                    segment.index, directory);
+            return null;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    // Must be called with the lock held.
+    private void roll() throws IOException {
+        if (segments.size() >= maxSegments) {
+            throw new BufferFullException();
+        }
+        if (writePosition + 4 <= writeSegment.size()) {
+            writeSegment.buffer.putInt(writePosition, 0);
+        }
+        if (sync) {
+            writeSegment.buffer.force();
+        }
+        writeSegment = newSegment(writeSegment.index + 1);
+        writePosition = 0;
+    }
+
+    // Must be called with the lock held.
+    private Segment newSegment(long index) throws IOException {
+        File file = new File(directory, String.format("%020d%s", index,
+                SEGMENT_SUFFIX));
+        Segment segment = Segment.open(file, index, segmentSize);
+        segments.put(index, segment);
+        return segment;
+    }
+
+    // Deletes the segments before the one being read. Must be called with the
+    // lock held.
+    private void reclaim() throws IOException {
+        while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            segment.close();
+            if (!segment.file.delete()) {
+                log.warn("Cannot delete {}", segment.file);
+            }
+        }
+    }
+
+    private void forwardLoop() {
+        while (running) {
+            try {
+                Batch batch = readBatch();
+                if (batch == null) {
+                    continue;
+                }
+                try {
+                    queue.pushEncoded(batch.messages.toArray(
+                            new Message[batch.messages.size()]));
+                    errorBackoff.reset();
+                } catch (HTTPException e) {
+                    if (e.getStatusCode() != 400 && e.getStatusCode() != 413) {
+                        throw e;
+                    }
+                    // retrying cannot succeed
+                    log.error("IronMQ rejected " + batch.messages.size()
+                            + " messages from " + directory + ", dropping them: "
+                            + e.getMessage(), e);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                log.warn("Forwarding from " + directory + " to "
+                        + queue.getName() + " failed: " + e.getMessage(), e);
+                try {
+                    errorBackoff.sleep();
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Reads the next batch of records after the checkpoint, waiting for
+    // records to be appended. Returns null if none arrived in a while.
+    private Batch readBatch() throws InterruptedException, IOException {
+        lock.lockInterruptibly();
+        try {
+            if (isDrained()) {
+                forwarded.signalAll();
+                appended.await(1, TimeUnit.SECONDS);
+            }
+            Batch batch = new Batch(readSegment, readPosition);
+            while (batch.messages.size() < batchSize) {
+                Segment segment = segments.get(batch.segment);
+                boolean current = segment == writeSegment;
+                int limit = current ? writePosition : segment.size();
+                ByteBuffer payload = record(segment, batch.position, limit);
+                if (payload == null) {
+                    if (current) {
+                        break;
+                    }
+                    // the rest of an older segment is unused or corrupt
+                    batch.segment = segments.higherKey(batch.segment);
+                    batch.position = 0;
+                    continue;
+                }
+                batch.messages.add(fromPayload(payload));
+                batch.position += RECORD_HEADER + payload.limit();
+            }
+            if (batch.messages.isEmpty()) {
+                if (batch.segment != readSegment) {
+                    commit(batch);
+                }
+                return null;
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit(Batch batch) throws IOException {
+        lock.lock();
+        try {
+            readSegment = batch.segment;
+            readPosition = batch.position;
+            checkpoint.seek(0);
+            checkpoint.writeLong(readSegment);
+            checkpoint.writeInt(readPosition);
+            checkpoint.writeInt(checkpointCrc(readSegment, readPosition));
+            if (sync) {
+                checkpoint.getFD().sync();
+            }
+            reclaim();
+            if (isDrained()) {
+                forwarded.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int checkpointCrc(long index, int position) {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putLong(index).putInt(position);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, 12);
+        return (int) crc.getValue();
+    }
+
+    private static ByteBuffer toPayload(Message msg) {
+        byte[] body = msg.getBody() != null ? msg.getBody().getBytes(UTF8)
+                : new byte[0];
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_HEADER + body.length);
+        payload.putLong(orAbsent(msg.getTimeout()));
+        payload.putLong(orAbsent(msg.getDelay()));
+        payload.putLong(orAbsent(msg.getExpiresIn()));
+        payload.put(body);
+        payload.flip();
+        return payload;
+    }
+
+    private static Message fromPayload(ByteBuffer payload) {
+        Message msg = new Message();
+        msg.setTimeout(orNull(payload.getLong()));
+        msg.setDelay(orNull(payload.getLong()));
+        msg.setExpiresIn(orNull(payload.getLong()));
+        msg.setBody(new String(payload.array(), PAYLOAD_HEADER,
+                payload.limit() - PAYLOAD_HEADER, UTF8));
+        return msg;
+    }
+
+    private static long orAbsent(Long value) {
+        return value != null ? value : ABSENT;
+    }
+
+    private static Long orNull(long value) {
+        return value != ABSENT ? Long.valueOf(value) : null;
+    }
+
+    private static class Batch {
+        long segment;
+        int position;
+        final List<Message> messages = new ArrayList<Message>();
+
+        Batch(long segment, int position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    private static class Segment {
+        final File file;
+        final long index;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        private Segment(File file, long index, FileChannel channel,
+                MappedByteBuffer buffer) {
+            this.file = file;
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        // Maps the file, growing it to size if it is smaller.
+        static Segment open(File file, long index, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer buffer = channel.map(
+                        FileChannel.MapMode.READ_WRITE, 0, raf.length());
+                return new Segment(file, index, channel, buffer);
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        int size() {
+            return buffer.capacity();
+        }
+
+        void close() throws IOException {
+            // the mapping itself is released once the buffer is collected
+            channel.close();
+        }
+    }
+}
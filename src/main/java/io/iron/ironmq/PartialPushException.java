@@ -0,0 +1,36 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The PartialPushException class indicates that a push of more than 100
+ * messages failed after some of its batches had been accepted. Those
+ * messages are on the queue; retrying the whole push would add them twice.
+ */
+public class PartialPushException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final List<String> pushedIds;
+
+    /**
+    * Creates a new PartialPushException.
+    *
+    * @param pushedIds The IDs of the messages that were pushed.
+    * @param cause The error the first failing batch ran into.
+    */
+    public PartialPushException(List<String> pushedIds, Exception cause) {
+        super(pushedIds.size() + " messages were pushed before the push failed: "
+                + cause.getMessage(), cause);
+        this.pushedIds = Collections.unmodifiableList(pushedIds);
+    }
+
+    /**
+    * Returns the IDs of the messages that were pushed, in the order of the
+    * given messages. They belong to the first messages of the push; the
+    * messages after them were not pushed.
+    */
+    public List<String> getPushedIds() {
+        return pushedIds;
+    }
+}
@@ -0,0 +1,115 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.Backoff;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The PollingConsumer class retrieves batches of messages from a queue and
+ * adapts how often it asks to how busy the queue is.
+ * <p>
+ * While messages flow, every call asks IronMQ again right away. Once the
+ * queue is found empty, the consumer waits with exponential backoff and
+ * jitter between requests, so an idle queue costs only a few requests a
+ * minute and no spinning. The first batch that arrives resets the backoff.
+ * An empty queue is never reported with an exception.
+ * <p>
+ * A PollingConsumer is meant to be used by one thread.
+ */
+public class PollingConsumer {
+    public static final long DEFAULT_MIN_WAIT = 100;
+    public static final long DEFAULT_MAX_WAIT = 10000;
+
+    private static final Messages EMPTY = new Messages(new Message[0]);
+
+    final private MessageQueue queue;
+    final private int batchSize;
+    final private int timeout;
+    final private Backoff backoff;
+
+    /**
+     * Constructs a new PollingConsumer with the default backoff.
+     *
+     * @param queue The queue to consume.
+     * @param batchSize The number of messages to ask for. Max. is 100.
+     * @param timeout The reservation timeout of the messages in seconds.
+     */
+    public PollingConsumer(MessageQueue queue, int batchSize, int timeout) {
+        this(queue, batchSize, timeout, new Backoff(DEFAULT_MIN_WAIT,
+                DEFAULT_MAX_WAIT));
+    }
+
+    /**
+     * Constructs a new PollingConsumer.
+     *
+     * @param queue The queue to consume.
+     * @param batchSize The number of messages to ask for. Max. is 100.
+     * @param timeout The reservation timeout of the messages in seconds.
+     * @param backoff The backoff applied while the queue is empty.
+     */
+    public PollingConsumer(MessageQueue queue, int batchSize, int timeout,
+            Backoff backoff) {
+        if (batchSize < 1 || batchSize > Queue.MAX_MESSAGES) {
+            throw new IllegalArgumentException(
+                    "batchSize has to be within 1..100");
+        }
+        this.queue = queue;
+        this.batchSize = batchSize;
+        this.timeout = timeout;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Retrieves the next batch of messages, waiting for as long as the queue
+     * is empty.
+     *
+     * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws IOException If there is an error accessing the IronMQ server.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public Messages poll() throws Exception {
+        while (true) {
+            Messages msgs = fetch();
+            if (msgs.size() > 0) {
+                return msgs;
+            }
+            backoff.sleep();
+        }
+    }
+
+    /**
+     * Retrieves the next batch of messages, waiting up to the given time
+     * while the queue is empty.
+     *
+     * @param maxWait The maximum time to wait.
+     * @param unit The unit of maxWait.
+     * @return The messages; empty if none arrived in time.
+     * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws IOException If there is an error accessing the IronMQ server.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public Messages poll(long maxWait, TimeUnit unit) throws Exception {
+        long deadline = System.currentTimeMillis() + unit.toMillis(maxWait);
+        while (true) {
+            Messages msgs = fetch();
+            long left = deadline - System.currentTimeMillis();
+            if (msgs.size() > 0 || left <= 0) {
+                return msgs;
+            }
+            Thread.sleep(Math.min(left, backoff.next()));
+        }
+    }
+
+    /**
+     * Asks IronMQ once, resetting the backoff if messages were returned.
+     *
+     * @return The messages; empty if the queue is empty.
+     */
+    public Messages fetch() throws Exception {
+        Messages msgs = queue.reserve(batchSize, timeout);
+        if (msgs == null || msgs.size() == 0) {
+            return EMPTY;
+        }
+        backoff.reset();
+        return msgs;
+    }
+}
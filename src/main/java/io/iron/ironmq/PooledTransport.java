@@ -0,0 +1,261 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.metrics.MetricsRecorder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Transport that keeps persistent connections to each Cloud host in a pool
+ * and reuses them across requests.
+ * <p>
+ * Connections that have been idle longer than the idle timeout are evicted by
+ * a background thread, and connections that have been inactive for a short
+ * while are checked for staleness before they are handed out again.
+ * <p>
+ * Connecting, waiting for response data and waiting for a free connection
+ * of the pool are bounded by timeouts, so that a hung server cannot hold
+ * the pool's connections and block every other caller indefinitely.
+ */
+public class PooledTransport implements Transport {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 200;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    public static final int DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_SOCKET_TIMEOUT = 60000;
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 30000;
+
+    Logger log = LoggerFactory.getLogger(getClass());
+
+    final private PoolingHttpClientConnectionManager connectionManager;
+    final private CloseableHttpClient httpClient;
+    private volatile MetricsRecorder metrics = MetricsRecorder.NONE;
+    private volatile RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(DEFAULT_CONNECT_TIMEOUT)
+            .setSocketTimeout(DEFAULT_SOCKET_TIMEOUT)
+            .setConnectionRequestTimeout(DEFAULT_CONNECTION_REQUEST_TIMEOUT)
+            .build();
+
+    /**
+     * Constructs a new PooledTransport with the default pool limits.
+     */
+    public PooledTransport() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_TOTAL,
+                DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Constructs a new PooledTransport.
+     *
+     * @param maxConnectionsPerHost The maximum number of connections kept to
+     * a single Cloud host.
+     * @param maxConnectionsTotal The maximum number of connections kept to all
+     * hosts together.
+     * @param idleTimeout The time in milliseconds after which an unused
+     * connection is closed.
+     */
+    public PooledTransport(int maxConnectionsPerHost, int maxConnectionsTotal,
+            long idleTimeout) {
+        this(maxConnectionsPerHost, maxConnectionsTotal, idleTimeout,
+                DEFAULT_VALIDATE_AFTER_INACTIVITY);
+    }
+
+    /**
+     * Constructs a new PooledTransport.
+     *
+     * @param maxConnectionsPerHost The maximum number of connections kept to
+     * a single Cloud host.
+     * @param maxConnectionsTotal The maximum number of connections kept to all
+     * hosts together.
+     * @param idleTimeout The time in milliseconds after which an unused
+     * connection is closed.
+     * @param validateAfterInactivity The time in milliseconds of inactivity
+     * after which a pooled connection is checked before it is reused.
+     */
+    public PooledTransport(int maxConnectionsPerHost, int maxConnectionsTotal,
+            long idleTimeout, int validateAfterInactivity) {
+        if (maxConnectionsPerHost < 1 || maxConnectionsTotal < 1) {
+            throw new IllegalArgumentException(
+                    "connection limits have to be positive");
+        }
+        connectionManager = new PoolingHttpClientConnectionManager() {
+            @Override
+            public void connect(HttpClientConnection conn, HttpRoute route,
+                    int connectTimeout, HttpContext context) throws IOException {
+                long start = System.nanoTime();
+                super.connect(conn, route, connectTimeout, context);
+                metrics.recordConnect(System.nanoTime() - start);
+            }
+        };
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivity);
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .disableCookieManagement()
+                .build();
+    }
+
+    /**
+     * Sets the maximum number of connections kept to the given Cloud's host,
+     * overriding the per-host default.
+     *
+     * @param cloud The cloud to configure.
+     * @param maxConnections The maximum number of connections.
+     */
+    public void setMaxConnections(Cloud cloud, int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException(
+                    "connection limits have to be positive");
+        }
+        connectionManager.setMaxPerRoute(route(cloud), maxConnections);
+    }
+
+    /**
+     * Returns the maximum number of connections kept to the given Cloud's
+     * host.
+     *
+     * @param cloud The cloud.
+     */
+    public int getMaxConnections(Cloud cloud) {
+        return connectionManager.getMaxPerRoute(route(cloud));
+    }
+
+    // The route HttpClient leases connections to the Cloud for; https
+    // connections are pooled under a secure route.
+    static HttpRoute route(Cloud cloud) {
+        return new HttpRoute(new HttpHost(cloud.host, cloud.port, cloud.scheme),
+                null, "https".equalsIgnoreCase(cloud.scheme));
+    }
+
+    /**
+     * Sets the timeouts of requests. A timeout of 0 waits indefinitely.
+     *
+     * @param connectTimeout The time in milliseconds to wait for a connection
+     * to be established.
+     * @param socketTimeout The time in milliseconds to wait for data of the
+     * response.
+     * @param connectionRequestTimeout The time in milliseconds to wait for a
+     * free connection when the pool's limit is reached.
+     */
+    public void setTimeouts(int connectTimeout, int socketTimeout,
+            int connectionRequestTimeout) {
+        if (connectTimeout < 0 || socketTimeout < 0
+                || connectionRequestTimeout < 0) {
+            throw new IllegalArgumentException("timeouts must not be negative");
+        }
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout)
+                .build();
+    }
+
+    public TransportResponse execute(String method, URL url,
+            Map<String, String> headers, byte[] body) throws IOException {
+        Request request = new Request(method, url);
+        request.setConfig(requestConfig);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+        if (body != null) {
+            request.setEntity(new ByteArrayEntity(body));
+        }
+        return new Response(httpClient.execute(request));
+    }
+
+    public void setMetricsRecorder(MetricsRecorder recorder) {
+        this.metrics = recorder;
+    }
+
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn(e.getMessage(), e);
+        }
+    }
+
+    static class Request extends HttpEntityEnclosingRequestBase {
+        final private String method;
+
+        Request(String method, URL url) throws IOException {
+            this.method = method;
+            try {
+                setURI(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid request URL: " + url, e);
+            }
+        }
+
+        @Override
+        public String getMethod() {
+            return method;
+        }
+    }
+
+    private class Response implements TransportResponse {
+        private final CloseableHttpResponse response;
+
+        Response(CloseableHttpResponse response) {
+            this.response = response;
+        }
+
+        public int getStatusCode() {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        public String getContentType() {
+            Header header = response
+                    .getFirstHeader(HttpRequestHeader.CONTENT_TYPE);
+            return header != null ? header.getValue() : null;
+        }
+
+        public long getContentLength() {
+            HttpEntity entity = response.getEntity();
+            return entity != null ? entity.getContentLength() : -1;
+        }
+
+        public InputStream getBody() throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            return entity.getContent();
+        }
+
+        public void close() {
+            // Consuming the rest of the entity hands the connection back to
+            // the pool instead of closing it.
+            EntityUtils.consumeQuietly(response.getEntity());
+            try {
+                response.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.util.Backoff;
+import io.iron.ironmq.util.DaemonThreadFactory;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The PrefetchingConsumer class keeps a local buffer of reserved messages
+ * filled by a background thread, so that consumers taking messages do not
+ * wait for a round trip to IronMQ.
+ * <p>
+ * The buffer is filled up to the high watermarks and refilled once it has
+ * drained below both low watermarks. Messages stay reserved only for the
+ * given timeout, so the consumer measures how fast messages are taken and
+ * does not fetch more than can be taken before their reservation expires.
+ * Messages whose reservation has expired while buffered are dropped instead
+ * of being handed out, since IronMQ will deliver them again.
+ * <p>
+ * Messages are not deleted by the consumer; delete them once processed.
+ * Messages still buffered when the consumer is closed return to the queue
+ * when their reservation times out.
+ */
+public class PrefetchingConsumer {
+    public static final int DEFAULT_HIGH_WATERMARK = 200;
+    public static final int DEFAULT_LOW_WATERMARK = 50;
+    public static final long DEFAULT_HIGH_WATERMARK_BYTES = 8L << 20;
+    public static final long DEFAULT_LOW_WATERMARK_BYTES = 2L << 20;
+
+    // Only this share of the reservation is used to hand messages out, the
+    // rest is left for processing and deleting them.
+    static final double RESERVATION_SHARE = 0.5;
+    static final long RATE_INTERVAL = 1000;
+
+    Logger log = LoggerFactory.getLogger(getClass());
+    final private MessageQueue queue;
+    final private int timeout;
+    private int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private long highWatermarkBytes = DEFAULT_HIGH_WATERMARK_BYTES;
+    private long lowWatermarkBytes = DEFAULT_LOW_WATERMARK_BYTES;
+    private Backoff emptyBackoff = new Backoff(
+            PollingConsumer.DEFAULT_MIN_WAIT, PollingConsumer.DEFAULT_MAX_WAIT);
+    private final Backoff errorBackoff = new Backoff(1000, 30000);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<Entry> buffer = new ArrayDeque<Entry>();
+    private long bufferedBytes;
+    private boolean filling = true;
+    private int waiting;
+    private long taken;
+    private long expired;
+
+    private volatile boolean running;
+    private Thread fetcher;
+
+    /**
+     * Constructs a new PrefetchingConsumer. Call start() to begin fetching.
+     *
+     * @param queue The queue to consume.
+     * @param timeout The reservation timeout of fetched messages in seconds.
+     */
+    public PrefetchingConsumer(MessageQueue queue, int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("timeout has to be positive");
+        }
+        this.queue = queue;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Sets the number of buffered messages at which fetching pauses and the
+     * number below which it resumes.
+     *
+     * @param high The high watermark.
+     * @param low The low watermark.
+     */
+    public void setWatermarks(int high, int low) {
+        if (high < 1 || low < 0 || low > high) {
+            throw new IllegalArgumentException("0 <= low <= high and high > 0 required");
+        }
+        this.highWatermark = high;
+        this.lowWatermark = low;
+    }
+
+    /**
+     * Sets the size of buffered message bodies in bytes at which fetching
+     * pauses and the size below which it resumes.
+     *
+     * @param high The high watermark in bytes.
+     * @param low The low watermark in bytes.
+     */
+    public void setByteWatermarks(long high, long low) {
+        if (high < 1 || low < 0 || low > high) {
+            throw new IllegalArgumentException("0 <= low <= high and high > 0 required");
+        }
+        this.highWatermarkBytes = high;
+        this.lowWatermarkBytes = low;
+    }
+
+    /**
+     * Sets the delays between requests while the queue is empty. The delay
+     * starts at minWait, doubles up to maxWait as long as the queue stays
+     * empty, and is reset as soon as messages arrive.
+     *
+     * @param minWait The first delay in milliseconds.
+     * @param maxWait The largest delay in milliseconds.
+     */
+    public void setEmptyBackoff(long minWait, long maxWait) {
+        this.emptyBackoff = new Backoff(minWait, maxWait);
+    }
+
+    /**
+     * Sets how long to wait before asking again after the queue was found
+     * empty.
+     *
+     * @param emptyWait The wait in milliseconds.
+     * @deprecated Use setEmptyBackoff(emptyWait, emptyWait) for a fixed
+     * wait, or a growing one.
+     */
+    @Deprecated
+    public void setEmptyWait(long emptyWait) {
+        setEmptyBackoff(emptyWait, emptyWait);
+    }
+
+    /**
+     * Starts the background thread filling the buffer.
+     */
+    public synchronized void start() {
+        if (fetcher != null) {
+            throw new IllegalStateException("Consumer already started");
+        }
+        running = true;
+        fetcher = new DaemonThreadFactory("ironmq-prefetch-" + queue.getName())
+                .newThread(new Runnable() {
+                    public void run() {
+                        fetchLoop();
+                    }
+                });
+        fetcher.start();
+    }
+
+    /**
+     * Stops fetching. Threads waiting in take() or poll() are interrupted.
+     */
+    public synchronized void close() {
+        running = false;
+        if (fetcher != null) {
+            fetcher.interrupt();
+        }
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message, waiting until one is available.
+     *
+     * @throws InterruptedException If the thread is interrupted or the
+     * consumer is closed while waiting.
+     */
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Message msg = next();
+                if (msg != null) {
+                    return msg;
+                }
+                if (!running) {
+                    throw new InterruptedException("Consumer closed");
+                }
+                waiting++;
+                try {
+                    notEmpty.await();
+                } finally {
+                    waiting--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message, waiting up to the given time for one to become
+     * available.
+     *
+     * @param wait The maximum time to wait.
+     * @param unit The unit of wait.
+     * @return The message, or null if none became available in time or the
+     * consumer is closed.
+     */
+    public Message poll(long wait, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(wait);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Message msg = next();
+                if (msg != null || nanos <= 0 || !running) {
+                    return msg;
+                }
+                waiting++;
+                try {
+                    nanos = notEmpty.awaitNanos(nanos);
+                } finally {
+                    waiting--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages currently buffered.
+     */
+    public int getBufferedCount() {
+        lock.lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped because their reservation
+     * expired before they were taken.
+     */
+    public long getExpiredCount() {
+        lock.lock();
+        try {
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held.
+    private Message next() {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        while ((entry = buffer.pollFirst()) != null) {
+            bufferedBytes -= entry.bytes;
+            if (entry.deadline > now) {
+                taken++;
+                if (buffer.size() <= lowWatermark
+                        && bufferedBytes <= lowWatermarkBytes) {
+                    drained.signal();
+                }
+                return entry.message;
+            }
+            expired++;
+        }
+        drained.signal();
+        return null;
+    }
+
+    private void fetchLoop() {
+        long rateSince = System.currentTimeMillis();
+        long rateTaken = 0;
+        double rate = 0;
+        while (running) {
+            try {
+                int n;
+                lock.lockInterruptibly();
+                try {
+                    long now = System.currentTimeMillis();
+                    if (now - rateSince >= RATE_INTERVAL) {
+                        // only measure while consumers were not starved, so
+                        // the rate reflects how fast messages are processed
+                        double current = (taken - rateTaken) * 1000.0
+                                / (now - rateSince);
+                        if (waiting == 0 && !buffer.isEmpty()) {
+                            rate = rate == 0 ? current : rate * 0.7 + current * 0.3;
+                        }
+                        rateSince = now;
+                        rateTaken = taken;
+                    }
+                    n = fetchSize(rate);
+                    if (n <= 0) {
+                        drained.await(RATE_INTERVAL, TimeUnit.MILLISECONDS);
+                        continue;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                long deadline = System.currentTimeMillis()
+                        + (long) (timeout * 1000L * RESERVATION_SHARE);
+                Messages msgs = queue.reserve(n, timeout);
+                errorBackoff.reset();
+                if (msgs == null || msgs.size() == 0) {
+                    emptyBackoff.sleep();
+                    continue;
+                }
+                emptyBackoff.reset();
+                add(msgs, deadline);
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                log.warn("Prefetching from " + queue.getName() + " failed: "
+                        + e.getMessage(), e);
+                try {
+                    errorBackoff.sleep();
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Must be called with the lock held.
+    private int fetchSize(double rate) {
+        int count = buffer.size();
+        if (count >= highWatermark || bufferedBytes >= highWatermarkBytes) {
+            filling = false;
+        } else if (count <= lowWatermark && bufferedBytes <= lowWatermarkBytes) {
+            filling = true;
+        }
+        if (!filling) {
+            return 0;
+        }
+        int limit = highWatermark;
+        if (rate > 0 && waiting == 0) {
+            // what can be taken before the reservation runs out
+            limit = Math.min(limit, (int) Math.max(1, rate * timeout
+                    * RESERVATION_SHARE));
+        }
+        return Math.min(Queue.MAX_MESSAGES, limit - count);
+    }
+
+    private void add(Messages msgs, long deadline) {
+        lock.lock();
+        try {
+            for (Message msg : msgs.getMessages()) {
+                Entry entry = new Entry(msg, deadline);
+                buffer.addLast(entry);
+                bufferedBytes += entry.bytes;
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Entry {
+        final Message message;
+        final long deadline;
+        final long bytes;
+
+        Entry(Message message, long deadline) {
+            this.message = message;
+            this.deadline = deadline;
+            // chars take two bytes; bodies are counted as retrieved, since
+            // they are only decoded when they are read
+            this.bytes = message.getBodyLength() * 2L;
+        }
+    }
+}
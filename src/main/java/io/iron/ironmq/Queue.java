@@ -1,17 +1,28 @@
 package io.iron.ironmq;
 
-import io.iron.ironmq.util.MessageBodyInflater;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import io.iron.ironmq.codec.BodyFormat;
+import io.iron.ironmq.metrics.MetricsRecorder;
+import io.iron.ironmq.metrics.Operation;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
-import org.apache.commons.codec.binary.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,17 +30,133 @@ import org.slf4j.LoggerFactory;
 /**
  * The Queue class represents a specific IronMQ queue bound to a client.
  */
-public class Queue {
+public class Queue implements MessageQueue {
     Logger log = LoggerFactory.getLogger(getClass());
     final private Client client;
     final private String name;
     final private String baseUrl;
+    // the queue whose settings this one uses, or null
+    final private Queue parent;
+    private volatile BodyFormat bodyFormat;
+    private volatile ForkJoinPool decodePool;
+    private volatile int decodeThreshold;
+    private volatile long infoTtl = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INFO_TTL);
+    private volatile CachedInfo cachedInfo;
+    private volatile GetCoalescer getCoalescer;
+    private volatile LeaseManager leaseManager;
+    final private AtomicReference<CompletableFuture<Info>> infoLoad = new AtomicReference<CompletableFuture<Info>>();
+
+    /**
+     * The maximum number of messages that can be pushed or retrieved with a
+     * single request.
+     */
+    public static final int MAX_MESSAGES = 100;
+
+    /**
+     * The reservation timeout in seconds of messages retrieved without an
+     * explicit timeout.
+     */
+    public static final int DEFAULT_TIMEOUT = 120;
+
+    /**
+     * The time in milliseconds queue info is cached for by default.
+     */
+    public static final long DEFAULT_INFO_TTL = 1000;
 
     public Queue(Client client, String name) {
         this.client = client;
         this.name = name;
         this.baseUrl = new StringBuilder().append("queues/").append(name)
                 .append("/messages").toString();
+        this.parent = null;
+    }
+
+    private Queue(Queue queue, Client client) {
+        this.client = client;
+        this.name = queue.name;
+        this.baseUrl = queue.baseUrl;
+        this.parent = queue;
+    }
+
+    /**
+     * Returns a queue that sends its requests through a client that never
+     * retries, for callers retrying on their own. It uses this queue's
+     * body format, decoding, get coalescing, info cache and LeaseManager,
+     * including later changes to them.
+     */
+    Queue withoutRetries() {
+        return new Queue(this, client.withoutRetries());
+    }
+
+    // Returns the queue whose settings apply to this one.
+    private Queue settings() {
+        return parent != null ? parent : this;
+    }
+
+    /**
+     * Returns the name of the queue.
+     */
+    public String getName() {
+        return name;
+    }
+
+    Client getClient() {
+        return client;
+    }
+
+    /**
+     * Returns the format message bodies are encoded with when they are pushed
+     * onto this queue. Unless set for this queue, the client's format is used.
+     */
+    public BodyFormat getBodyFormat() {
+        BodyFormat format = settings().bodyFormat;
+        return format != null ? format : client.getBodyFormat();
+    }
+
+    /**
+     * Sets the format message bodies are encoded with when they are pushed
+     * onto this queue. Bodies are always decoded according to the format
+     * they were written in.
+     *
+     * @param bodyFormat The format, or null to use the client's format.
+     */
+    public void setBodyFormat(BodyFormat bodyFormat) {
+        this.bodyFormat = bodyFormat;
+    }
+
+    /**
+     * Makes retrieved batches be decoded right away instead of on first
+     * access, in parallel on the given pool when their bodies add up to the
+     * threshold, see Messages.decodeBodies.
+     *
+     * @param pool The pool to decode on, or null to decode bodies lazily.
+     * @param threshold The total length of the bodies in characters from
+     * which on a batch is decoded in parallel.
+     */
+    public void setParallelDecoding(ForkJoinPool pool, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        this.decodeThreshold = threshold;
+        this.decodePool = pool;
+    }
+
+    /**
+     * Makes get() and tryGet() calls that arrive within the given window of
+     * each other share a single request reserving a message for each of
+     * them. This cuts requests when many threads get single messages from
+     * the queue, at the cost of delaying each get by up to the window.
+     *
+     * @param window The time a batch of gets waits for more callers, or 0 to
+     * send every get on its own.
+     * @param unit The unit of the window.
+     */
+    public void setGetCoalescing(long window, TimeUnit unit) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative");
+        }
+        this.getCoalescer = window > 0 ? new GetCoalescer(this,
+                unit.toNanos(window)) : null;
     }
 
     /**
@@ -41,17 +168,38 @@ public class Queue {
     * @throws IOException If there is an error accessing the IronMQ server.
     */
     public Message get() throws Exception {
-        Messages msgs = get(1);
-        Message msg;
-        try {
-            msg = msgs.getMessage(0);
-        } catch (IndexOutOfBoundsException e) {
+        Message msg = getOne();
+        if (msg == null) {
             throw new EmptyQueueException();
         }
-
         return msg;
     }
 
+    /**
+    * Retrieves a Message from the queue if there is one. Unlike get(), an
+    * empty queue is not reported with an exception, which makes this the
+    * cheaper call for polling loops.
+    *
+    * @return The message, or an empty Optional if the queue is empty.
+    * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public Optional<Message> tryGet() throws Exception {
+        return Optional.ofNullable(getOne());
+    }
+
+    private Message getOne() throws Exception {
+        GetCoalescer coalescer = settings().getCoalescer;
+        if (coalescer != null) {
+            return coalescer.get();
+        }
+        Messages msgs = get(1);
+        if (msgs == null || msgs.size() == 0) {
+            return null;
+        }
+        return msgs.getMessage(0);
+    }
+
     /**
     * Retrieves Messages from the queue. If there are no items on the queue, an
     * EmptyQueueException is thrown.
@@ -61,10 +209,32 @@ public class Queue {
     * @throws IOException If there is an error accessing the IronMQ server.
     */
     public Messages get(int numberOfMessages) throws Exception {
-        Messages msgs = get(numberOfMessages, 120);
-        if (msgs != null) {
+        return reserve(numberOfMessages, DEFAULT_TIMEOUT);
+    }
+
+    /**
+    * Retrieves Messages from the queue. The messages are reserved for the
+    * given timeout; unless they are deleted in time they are put back onto
+    * the queue. Their bodies are decoded when they are first accessed, so
+    * messages that are only routed or forwarded are never decoded, unless
+    * parallel decoding is set up.
+    * @param numberOfMessages The number of messages to receive. Max. is 100.
+    * @param timeout timeout in seconds.
+    * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public Messages reserve(int numberOfMessages, int timeout)
+            throws Exception {
+        Messages msgs = get(numberOfMessages, timeout);
+        if (msgs != null && msgs.getMessages() != null) {
+            MetricsRecorder metrics = client.getMetricsRecorder();
             for (Message msg : msgs.getMessages()) {
-                msg.setBody(MessageBodyInflater.inflateBody(msg.getBody()));
+                msg.setEncodedBody(msg.getBody(), metrics);
+            }
+            Queue settings = settings();
+            ForkJoinPool pool = settings.decodePool;
+            if (pool != null) {
+                msgs.decodeBodies(pool, settings.decodeThreshold);
             }
         }
         return msgs;
@@ -80,7 +250,7 @@ public class Queue {
     * @throws IOException If there is an error accessing the IronMQ server.
     */
     public Messages get(int numberOfMessages, int timeout) throws IOException {
-        if (numberOfMessages < 0 || numberOfMessages > 100) {
+        if (numberOfMessages < 0 || numberOfMessages > MAX_MESSAGES) {
             throw new IllegalArgumentException(
                     "numberOfMessages has to be within 1..100");
         }
@@ -90,7 +260,8 @@ public class Queue {
     }
 
     /**
-    * Deletes a Message from the queue.
+    * Deletes a Message from the queue. If the client uses several Clouds,
+    * they are tried in order until one knows the message.
     *
     * @param id The ID of the message to delete.
     *
@@ -98,12 +269,11 @@ public class Queue {
     * @throws IOException If there is an error accessing the IronMQ server.
     */
     public void deleteMessage(String id) throws IOException {
-        client.delete(new StringBuilder(baseUrl).append("/").append(id)
-                .toString());
+        deleteMessage(null, id);
     }
 
     /**
-    * Deletes a Message from the queue.
+    * Deletes a Message from the queue of the Cloud it was retrieved from.
     *
     * @param msg The message to delete.
     *
@@ -111,7 +281,170 @@ public class Queue {
     * @throws IOException If there is an error accessing the IronMQ server.
     */
     public void deleteMessage(Message msg) throws IOException {
-        deleteMessage(msg.getId());
+        deleteMessage(msg.getOrigin(), msg.getId());
+    }
+
+    private void deleteMessage(Cloud cloud, String id) throws IOException {
+        client.delete(cloud, new StringBuilder(baseUrl).append("/").append(id)
+                .toString());
+        LeaseManager leases = settings().leaseManager;
+        if (leases != null) {
+            leases.untrack(id);
+        }
+    }
+
+    /**
+    * Restarts the reservation of a retrieved Message, so that it stays
+    * reserved for its timeout counted from now.
+    *
+    * @param msg The message to touch.
+    *
+    * @throws HTTPException With status 404 if the message is no longer reserved.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public void touchMessage(Message msg) throws IOException {
+        client.post(Operation.TOUCH, msg.getOrigin(), new StringBuilder(baseUrl)
+                .append("/").append(msg.getId()).append("/touch").toString(),
+                "{}");
+    }
+
+    /**
+    * Ends the reservation of a retrieved Message, putting it back onto the
+    * queue.
+    *
+    * @param msg The message to release.
+    * @param delay The number of seconds before the message is available
+    * again.
+    *
+    * @throws HTTPException With status 404 if the message is no longer reserved.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public void releaseMessage(Message msg, int delay) throws IOException {
+        LeaseManager leases = settings().leaseManager;
+        if (leases != null) {
+            leases.untrack(msg.getId());
+        }
+        client.post(Operation.RELEASE, msg.getOrigin(), new StringBuilder(baseUrl)
+                .append("/").append(msg.getId()).append("/release").toString(),
+                "{\"delay\":" + delay + "}");
+    }
+
+    /**
+    * Sets the LeaseManager told about deleted and released messages, so
+    * that it stops extending their reservations.
+    */
+    synchronized void setLeaseManager(LeaseManager leaseManager) {
+        this.leaseManager = leaseManager;
+    }
+
+    /**
+    * Stops telling the given LeaseManager about deleted and released
+    * messages, unless another one has been set since.
+    */
+    synchronized void removeLeaseManager(LeaseManager leaseManager) {
+        if (this.leaseManager == leaseManager) {
+            this.leaseManager = null;
+        }
+    }
+
+    /**
+    * Deletes a set of messages from the queue using as few requests as
+    * possible, each carrying up to 100 IDs. If IronMQ rejects a batch with
+    * 400 or 404, its messages are deleted one by one so that only the
+    * failing IDs are reported; any other error fails the whole batch.
+    *
+    * @param ids The IDs of the messages to delete.
+    * @return The IDs that were deleted and the ones that failed.
+    */
+    public DeleteResult deleteMessages(Collection<String> ids) {
+        DeleteResult result = new DeleteResult();
+        deleteMessages(null, ids, result);
+        untrack(result);
+        return result;
+    }
+
+    private void untrack(DeleteResult result) {
+        LeaseManager leases = settings().leaseManager;
+        if (leases != null) {
+            for (String id : result.getDeleted()) {
+                leases.untrack(id);
+            }
+        }
+    }
+
+    private void deleteMessages(Cloud cloud, Collection<String> ids,
+            DeleteResult result) {
+        String[] all = ids.toArray(new String[ids.size()]);
+        for (int from = 0; from < all.length; from += MAX_MESSAGES) {
+            String[] batch = Arrays.copyOfRange(all, from,
+                    Math.min(from + MAX_MESSAGES, all.length));
+            try {
+                client.delete(cloud, baseUrl, new Ids(batch));
+                for (String id : batch) {
+                    result.deleted(id);
+                }
+            } catch (HTTPException e) {
+                // only a rejected ID fails the batch; other statuses, such
+                // as 401 or 429, would fail every single delete as well
+                int status = e.getStatusCode();
+                if (status == 400 || status == 404) {
+                    log.debug("Batch delete failed with status {}, deleting {} messages one by one",
+                            status, batch.length);
+                    deleteEach(result, cloud, batch);
+                } else {
+                    failAll(result, batch, e);
+                }
+            } catch (IOException e) {
+                failAll(result, batch, e);
+            }
+        }
+    }
+
+    /**
+    * Deletes a set of messages from the queue using as few requests as
+    * possible. Every message is deleted from the Cloud it was retrieved
+    * from.
+    *
+    * @param msgs The messages to delete.
+    * @return The IDs that were deleted and the ones that failed.
+    * @see #deleteMessages(Collection)
+    */
+    public DeleteResult deleteMessages(Messages msgs) {
+        Map<Cloud, List<String>> byOrigin = new LinkedHashMap<Cloud, List<String>>();
+        if (msgs != null && msgs.getMessages() != null) {
+            for (Message msg : msgs.getMessages()) {
+                List<String> ids = byOrigin.get(msg.getOrigin());
+                if (ids == null) {
+                    ids = new ArrayList<String>();
+                    byOrigin.put(msg.getOrigin(), ids);
+                }
+                ids.add(msg.getId());
+            }
+        }
+        DeleteResult result = new DeleteResult();
+        for (Map.Entry<Cloud, List<String>> entry : byOrigin.entrySet()) {
+            deleteMessages(entry.getKey(), entry.getValue(), result);
+        }
+        untrack(result);
+        return result;
+    }
+
+    private void deleteEach(DeleteResult result, Cloud cloud, String[] ids) {
+        for (String id : ids) {
+            try {
+                deleteMessage(cloud, id);
+                result.deleted(id);
+            } catch (IOException e) {
+                result.failed(id, e);
+            }
+        }
+    }
+
+    private static void failAll(DeleteResult result, String[] ids,
+            IOException e) {
+        for (String id : ids) {
+            result.failed(id, e);
+        }
     }
 
     /**
@@ -172,40 +505,190 @@ public class Queue {
     public String push(String msg, Long expiresIn, Long timeout, Long delay)
             throws Exception {
         Message message = new Message();
-        byte[] msgBytes = msg.getBytes(Charset.forName("UTF-8"));
-        log.debug("Original message length: {} bytes", msg.length());
-        byte[] zippedBytes;
-        InputStream bis = new ByteArrayInputStream(msgBytes);
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        DeflaterOutputStream dos = new DeflaterOutputStream(bos, new Deflater(
-                Deflater.BEST_COMPRESSION));
-        try {
-            MessageBodyInflater.getBytes(bis, dos);
-            dos.finish();
-            bos.flush();
-            zippedBytes = bos.toByteArray();
-            message.setBody(Base64.encodeBase64URLSafeString(zippedBytes));
-            log.debug("Compressed message length: {} bytes", message.getBody()
-                    .length());
-        } finally {
-            if (bis != null)
-                bis.close();
-            bis = null;
-            if (bos != null)
-                bos.close();
-            bos = null;
-            if (dos != null)
-                dos.close();
-            dos = null;
-        }
+        message.setBody(msg);
         message.setTimeout(timeout);
         message.setDelay(delay);
         message.setExpiresIn(expiresIn);
 
-        Messages msgs = new Messages(message);
-        // String body = client.getMapper().writeValueAsString(msgs);
+        return pushAll(message).get(0);
+    }
+
+    /**
+    * Pushes a message with a binary body onto the queue. The bytes are
+    * encoded as they are, without being turned into text; consumers read
+    * them with Message.getBodyBytes().
+    *
+    * @param msg The body of the message to push.
+    * @return The new message's ID
+    *
+    * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public String push(byte[] msg) throws Exception {
+        Message message = new Message();
+        message.setBodyBytes(msg);
+        return pushAll(message).get(0);
+    }
+
+    /**
+    * Pushes a message with the remaining bytes of a buffer as its body onto
+    * the queue. Heap buffers are encoded in place; the position of the
+    * buffer is left unchanged.
+    *
+    * @param msg The body of the message to push.
+    * @return The new message's ID
+    *
+    * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public String push(ByteBuffer msg) throws Exception {
+        Message message = new Message();
+        message.setBodyBuffer(msg);
+        return pushAll(message).get(0);
+    }
+
+    /**
+    * Pushes a batch of messages onto the queue. The messages are sent in as
+    * few requests as possible, each carrying up to 100 messages. The push is
+    * not atomic: if a request fails after earlier ones were accepted, a
+    * PartialPushException reports the IDs of the messages already pushed.
+    *
+    * @param msgs The bodies of the messages to push.
+    * @return The new messages' IDs, in the order of the given bodies.
+    *
+    * @throws PartialPushException If some of the messages were pushed.
+    * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public List<String> push(List<String> msgs) throws Exception {
+        Message[] messages = new Message[msgs.size()];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = new Message();
+            messages[i].setBody(msgs.get(i));
+        }
+        return pushAll(messages);
+    }
 
-        return client.post(baseUrl, msgs);
+    /**
+    * Pushes a batch of messages onto the queue. The body, timeout, delay and
+    * expiration of every message are used; the messages themselves are not
+    * modified. The messages are sent in as few requests as possible, each
+    * carrying up to 100 messages; see push(List) for a failure after some of
+    * them were accepted.
+    *
+    * @param msgs The messages to push.
+    * @return The new messages' IDs, in the order of the given messages.
+    *
+    * @throws IllegalArgumentException If a message has no body; nothing is
+    * pushed then.
+    * @throws PartialPushException If some of the messages were pushed.
+    * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public List<String> pushAll(Message... msgs) throws Exception {
+        return pushAll(msgs, false);
+    }
+
+    /**
+    * Pushes retrieved messages onto this queue, passing their bodies on as
+    * they were retrieved instead of decoding and encoding them again. The
+    * bodies keep the format they were written in, regardless of the format
+    * of this queue. Messages whose bodies were changed, or that were not
+    * retrieved from a queue, are encoded as pushAll does.
+    *
+    * @param msgs The messages to forward.
+    * @return The new messages' IDs, in the order of the given messages.
+    *
+    * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+    * @throws IOException If there is an error accessing the IronMQ server.
+    */
+    public List<String> forward(Message... msgs) throws Exception {
+        return pushAll(msgs, true);
+    }
+
+    private List<String> pushAll(Message[] msgs, boolean forward)
+            throws Exception {
+        // encode all messages first, so that invalid ones fail the push
+        // before anything is sent
+        Message[] encoded = new Message[msgs.length];
+        for (int i = 0; i < msgs.length; i++) {
+            Message msg = msgs[i];
+            String body = forward && msg != null ? msg.getEncodedBody() : null;
+            if (body != null) {
+                encoded[i] = copy(msg, body);
+            } else if (msg == null
+                    || (!msg.hasBinaryBody() && msg.getBody() == null)) {
+                throw new IllegalArgumentException("message " + i
+                        + " has no body");
+            } else {
+                encoded[i] = encode(msg);
+            }
+        }
+        List<String> ids = new ArrayList<String>(msgs.length);
+        for (int from = 0; from < msgs.length; from += MAX_MESSAGES) {
+            int to = Math.min(from + MAX_MESSAGES, msgs.length);
+            try {
+                ids.addAll(pushEncoded(Arrays.copyOfRange(encoded, from, to)));
+            } catch (Exception e) {
+                if (ids.isEmpty()) {
+                    throw e;
+                }
+                throw new PartialPushException(ids, e);
+            }
+        }
+        return ids;
+    }
+
+    /**
+    * Pushes up to 100 messages whose bodies have already been encoded with
+    * encode(Message).
+    */
+    List<String> pushEncoded(Message[] batch) throws Exception {
+        Ids batchIds = client.post(baseUrl, new Messages(batch));
+        if (batchIds.getSize() != batch.length) {
+            throw new IOException("IronMQ returned " + batchIds.getSize()
+                    + " IDs for " + batch.length + " pushed messages");
+        }
+        return Arrays.asList(batchIds.getIds());
+    }
+
+    /**
+    * Returns a copy of the message with its body encoded in the queue's
+    * body format.
+    */
+    Message encode(Message msg) throws Exception {
+        if (msg.hasBinaryBody()) {
+            return copy(msg, encodeBody(msg.getBodyBuffer()));
+        }
+        return copy(msg, encodeBody(msg.getBody()));
+    }
+
+    private static Message copy(Message msg, String encoded) {
+        Message message = new Message();
+        message.setBody(encoded);
+        message.setTimeout(msg.getTimeout());
+        message.setDelay(msg.getDelay());
+        message.setExpiresIn(msg.getExpiresIn());
+        return message;
+    }
+
+    private String encodeBody(String msg) throws Exception {
+        String body = getBodyFormat().encode(msg);
+        log.debug("Original message length: {} chars, encoded length: {} chars",
+                msg.length(), body.length());
+        client.getMetricsRecorder().recordCompression(Operation.PUSH,
+                msg.length(), body.length());
+        return body;
+    }
+
+    private String encodeBody(ByteBuffer msg) throws Exception {
+        int length = msg.remaining();
+        String body = getBodyFormat().encode(msg);
+        log.debug("Original message length: {} bytes, encoded length: {} chars",
+                length, body.length());
+        client.getMetricsRecorder().recordCompression(Operation.PUSH,
+                length, body.length());
+        return body;
     }
 
     /**
@@ -281,22 +764,158 @@ public class Queue {
             endpointMap.put(Subscriber.URL_KEY, endpoint);
             subscriber.endpoints.add(endpointMap);
         }
-        client.post(new StringBuilder().append("queues/").append(name).append("/subscribers").toString(), subscriber);
+        String endpoint = new StringBuilder().append("queues/").append(name).append("/subscribers").toString();
+        for (Cloud cloud : client.getRouter().getClouds()) {
+            client.post(cloud, endpoint, subscriber);
+        }
     }
 
     /**
-     * Clears the queue off all messages
+     * Returns the state of the queue on the client's preferred Cloud. The
+     * result is cached for the info TTL, and concurrent calls while it is
+     * fetched wait for the same request, so that any number of threads
+     * polling the queue cause at most one request per TTL.
+     *
+     * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws IOException If there is an error accessing the IronMQ server.
+     */
+    public Info getInfo() throws IOException {
+        Queue settings = settings();
+        while (true) {
+            CachedInfo cached = settings.cachedInfo;
+            if (cached != null && cached.expiresAt - System.nanoTime() > 0) {
+                return cached.info;
+            }
+            CompletableFuture<Info> load = settings.infoLoad.get();
+            if (load == null) {
+                load = new CompletableFuture<Info>();
+                if (!settings.infoLoad.compareAndSet(null, load)) {
+                    continue;
+                }
+                return loadInfo(settings, load);
+            }
+            try {
+                return load.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for queue info");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+    }
+
+    private Info loadInfo(Queue settings, CompletableFuture<Info> load)
+            throws IOException {
+        try {
+            // another load may have finished since the cache was checked
+            CachedInfo cached = settings.cachedInfo;
+            if (cached != null && cached.expiresAt - System.nanoTime() > 0) {
+                load.complete(cached.info);
+                return cached.info;
+            }
+            long ttl = settings.infoTtl;
+            Info info = client.getInfo(new StringBuilder("queues/")
+                    .append(name).toString());
+            settings.cachedInfo = new CachedInfo(info, System.nanoTime() + ttl);
+            // setInfoTtl() during the request: cache with the new TTL next time
+            if (settings.infoTtl != ttl) {
+                settings.cachedInfo = null;
+            }
+            load.complete(info);
+            return info;
+        } catch (Throwable e) {
+            // waiters must not block forever, whatever the load threw
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            settings.infoLoad.set(null);
+        }
+    }
+
+    /**
+     * Returns the number of messages on the queue, from the cached info.
+     *
+     * @see #getInfo()
+     */
+    public int getSize() throws IOException {
+        return getInfo().getSize();
+    }
+
+    /**
+     * Sets how long queue info is cached for. A TTL of 0 fetches it on every
+     * call, still sharing requests between concurrent callers.
+     *
+     * @param ttl The time to cache info for.
+     * @param unit The unit of the TTL.
+     */
+    public void setInfoTtl(long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.infoTtl = unit.toNanos(ttl);
+        this.cachedInfo = null;
+    }
+
+    /**
+     * Clears the queue off all messages, on every Cloud of the client
      * @param queue the name of the queue 
      * @throws IOException
      */
     public void clear() throws IOException {
-        client.post(new StringBuilder("queues/").append(name).append("/clear").toString(), "");
+        String endpoint = new StringBuilder("queues/").append(name).append("/clear").toString();
+        for (Cloud cloud : client.getRouter().getClouds()) {
+            client.post(cloud, endpoint, "");
+        }
     }
 
-    static class Info implements Serializable {
+    /**
+     * The state of a queue as reported by IronMQ.
+     */
+    @JsonIgnoreProperties(ignoreUnknown=true)
+    public static class Info implements Serializable {
         private static final long serialVersionUID = 1L;
-        int count;
-        int size;
+        @JsonProperty
+        private String name;
+        @JsonProperty
+        private int size;
+        @JsonProperty("total_messages")
+        private long totalMessages;
+
+        public Info() {
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of messages on the queue, reserved or not.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the number of messages ever pushed onto the queue.
+         */
+        public long getTotalMessages() {
+            return totalMessages;
+        }
+    }
+
+    // An Info and the time until which it is served from the cache.
+    private static class CachedInfo {
+        final Info info;
+        final long expiresAt;
+
+        CachedInfo(Info info, long expiresAt) {
+            this.info = info;
+            this.expiresAt = expiresAt;
+        }
     }
 
 }
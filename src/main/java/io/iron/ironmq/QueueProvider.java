@@ -0,0 +1,16 @@
+package io.iron.ironmq;
+
+/**
+ * The QueueProvider interface hands out queues by name. Client provides
+ * queues on IronMQ and MemoryBroker queues within the JVM, so an application
+ * that obtains its queues from a QueueProvider can switch between them by
+ * configuration only.
+ */
+public interface QueueProvider {
+    /**
+    * Returns the queue with the given name.
+    *
+    * @param name The name of the queue.
+    */
+    MessageQueue queue(String name);
+}
@@ -0,0 +1,210 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.http.NoHttpResponseException;
+
+/**
+ * The RetryPolicy class decides which failed requests a Client retries and
+ * how long it waits before each retry.
+ * <p>
+ * A request is retried if it failed with one of the retryable status codes,
+ * or with one of the retryable exception types. Failures of the connection
+ * are only retried for requests that can safely be repeated, since a push
+ * that timed out may well have been stored, unless setRetryNonIdempotent()
+ * allows it. Requests refused while connecting are always retried.
+ * <p>
+ * The wait before each retry is drawn at random between zero and an
+ * exponentially growing bound, which is capped at the maximum delay.
+ * <p>
+ * To keep retries from multiplying the load on a struggling service, they
+ * are limited by a budget: every request earns a fraction of a retry token,
+ * every retry spends a whole one, and once the tokens are gone failures are
+ * reported right away. The budget belongs to the policy, so clients sharing
+ * a policy share its budget.
+ */
+public class RetryPolicy {
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final long DEFAULT_BASE_DELAY = 100;
+    public static final long DEFAULT_MAX_DELAY = 30000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.2;
+    public static final int DEFAULT_BUDGET_TOKENS = 100;
+
+    private volatile Set<Integer> statusCodes = new HashSet<Integer>(
+            Arrays.asList(502, 503, 504));
+    private volatile List<Class<? extends IOException>> exceptionTypes = Arrays
+            .<Class<? extends IOException>> asList(SocketException.class,
+                    SocketTimeoutException.class,
+                    NoHttpResponseException.class);
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile long baseDelay = DEFAULT_BASE_DELAY;
+    private volatile long maxDelay = DEFAULT_MAX_DELAY;
+    private volatile boolean retryNonIdempotent;
+
+    private double budgetRatio = DEFAULT_BUDGET_RATIO;
+    private int budgetTokens = DEFAULT_BUDGET_TOKENS;
+    private double tokens = DEFAULT_BUDGET_TOKENS;
+
+    /**
+     * Constructs a new RetryPolicy with the defaults: 502, 503 and 504
+     * responses, connection failures and timeouts are retried up to 5 times.
+     */
+    public RetryPolicy() {
+    }
+
+    /**
+     * Returns a policy that never retries.
+     */
+    public static RetryPolicy none() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxRetries(0);
+        return policy;
+    }
+
+    /**
+     * Sets the HTTP status codes of responses that are retried.
+     *
+     * @param codes The status codes.
+     */
+    public void setRetryStatusCodes(int... codes) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (int code : codes) {
+            set.add(code);
+        }
+        this.statusCodes = set;
+    }
+
+    /**
+     * Sets the types of connection failures that are retried. Subclasses of
+     * the given types are retried as well.
+     *
+     * @param types The exception types.
+     */
+    @SafeVarargs
+    public final void setRetryExceptions(Class<? extends IOException>... types) {
+        this.exceptionTypes = Arrays.asList(types.clone());
+    }
+
+    /**
+     * Sets the maximum number of retries of a request.
+     *
+     * @param maxRetries The number of retries; 0 disables retrying.
+     */
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries must not be negative");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Sets the delays between retries. The bound of the random delay before
+     * the n-th retry is baseDelay * 4^n, capped at maxDelay.
+     *
+     * @param baseDelay The base delay in milliseconds.
+     * @param maxDelay The largest delay in milliseconds.
+     */
+    public void setDelays(long baseDelay, long maxDelay) {
+        if (baseDelay < 1 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("0 < baseDelay <= maxDelay required");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Sets whether requests that may have taken effect, such as pushes, are
+     * retried after a connection failure. Doing so may store a message
+     * twice.
+     *
+     * @param retryNonIdempotent true to retry them.
+     */
+    public void setRetryNonIdempotent(boolean retryNonIdempotent) {
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    /**
+     * Sets the retry budget.
+     *
+     * @param ratio The share of a retry earned by every request.
+     * @param maxTokens The largest number of retries that can be saved up.
+     */
+    public synchronized void setBudget(double ratio, int maxTokens) {
+        if (ratio < 0 || maxTokens < 0) {
+            throw new IllegalArgumentException("ratio and maxTokens must not be negative");
+        }
+        this.budgetRatio = ratio;
+        this.budgetTokens = maxTokens;
+        this.tokens = Math.min(tokens, maxTokens);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Returns whether a request that failed with the given error may be
+     * retried, regardless of how often it was retried already.
+     *
+     * @param e The error the request failed with.
+     * @param idempotent Whether the request can safely be repeated.
+     */
+    public boolean isRetryable(IOException e, boolean idempotent) {
+        if (e instanceof CircuitOpenException) {
+            return false;
+        }
+        if (e instanceof HTTPException) {
+            return statusCodes.contains(((HTTPException) e).getStatusCode());
+        }
+        if (!idempotent && !retryNonIdempotent
+                && !(e instanceof ConnectException)) {
+            return false;
+        }
+        for (Class<? extends IOException> type : exceptionTypes) {
+            if (type.isInstance(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records that a request is made, which adds to the retry budget.
+     */
+    synchronized void recordRequest() {
+        tokens = Math.min(budgetTokens, tokens + budgetRatio);
+    }
+
+    /**
+     * Returns the number of milliseconds to wait before retrying a request
+     * that failed with the given error, or -1 if it should not be retried.
+     * A returned delay spends a token of the retry budget.
+     *
+     * @param e The error the request failed with.
+     * @param retries The number of retries already made.
+     * @param idempotent Whether the request can safely be repeated.
+     */
+    long retryDelay(IOException e, int retries, boolean idempotent) {
+        if (retries >= maxRetries || !isRetryable(e, idempotent)
+                || !spendToken()) {
+            return -1;
+        }
+        long bound = baseDelay << Math.min(2 * (retries + 1), 40);
+        return ThreadLocalRandom.current().nextLong(Math.min(bound, maxDelay) + 1);
+    }
+
+    private synchronized boolean spendToken() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+}
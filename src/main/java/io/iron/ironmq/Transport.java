@@ -0,0 +1,42 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.metrics.MetricsRecorder;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The Transport interface performs the HTTP exchanges issued by a Client.
+ * Implementations decide how connections are opened, reused and released.
+ */
+public interface Transport {
+    /**
+    * Sends a single HTTP request and returns once the response headers
+    * arrived; the body is read from the response afterwards. The returned
+    * response must be closed by the caller so that its connection can be
+    * released or reused.
+    *
+    * @param method The HTTP method.
+    * @param url The full request URL.
+    * @param headers The request headers.
+    * @param body The request body, or null if the request has none.
+    *
+    * @throws IOException If there is an error accessing the server.
+    */
+    TransportResponse execute(String method, URL url,
+            Map<String, String> headers, byte[] body) throws IOException;
+
+    /**
+    * Sets the recorder that new connections are reported to. Transports that
+    * cannot measure connection setup ignore it.
+    *
+    * @param recorder The recorder.
+    */
+    default void setMetricsRecorder(MetricsRecorder recorder) {
+    }
+
+    /**
+    * Releases all connections and background resources held by the transport.
+    */
+    void close();
+}
@@ -0,0 +1,38 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The TransportResponse interface represents the response to a request sent
+ * through a Transport.
+ */
+public interface TransportResponse {
+    /**
+    * Returns the HTTP response's status code.
+    */
+    int getStatusCode();
+
+    /**
+    * Returns the value of the Content-Type header, or null if it is absent.
+    */
+    String getContentType();
+
+    /**
+    * Returns the response's content length, or -1 if it is unknown.
+    */
+    long getContentLength();
+
+    /**
+    * Returns the response body. An empty stream is returned if the response
+    * has no body.
+    *
+    * @throws IOException If there is an error reading from the server.
+    */
+    InputStream getBody() throws IOException;
+
+    /**
+    * Releases the response. Any unread part of the body is discarded.
+    */
+    void close();
+}
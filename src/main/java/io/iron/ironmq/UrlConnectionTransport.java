@@ -0,0 +1,102 @@
+package io.iron.ironmq;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Transport that opens a new HttpURLConnection for every request and
+ * disconnects it once the response has been read.
+ */
+public class UrlConnectionTransport implements Transport {
+    Logger log = LoggerFactory.getLogger(getClass());
+
+
+    public TransportResponse execute(String method, URL url,
+            Map<String, String> headers, byte[] body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestMethod(method);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            conn.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (body != null) {
+            conn.setRequestProperty(HttpRequestHeader.CONNECTION,
+                    HttpRequestHeader.CLOSE);
+            conn.setFixedLengthStreamingMode(body.length);
+            conn.setDoOutput(true);
+        }
+
+        // connect times are not reported: HttpURLConnection may reuse a
+        // kept-alive connection, which would record next to nothing
+        conn.connect();
+
+        if (body != null) {
+            OutputStream out = conn.getOutputStream();
+            try {
+                out.write(body);
+                out.flush();
+            } finally {
+                out.close();
+            }
+        }
+        return new Response(conn, conn.getResponseCode());
+    }
+
+    public void close() {
+    }
+
+    private class Response implements TransportResponse {
+        private final HttpURLConnection conn;
+        private final int status;
+        private InputStream is;
+
+        Response(HttpURLConnection conn, int status) {
+            this.conn = conn;
+            this.status = status;
+        }
+
+        public int getStatusCode() {
+            return status;
+        }
+
+        public String getContentType() {
+            return conn.getContentType();
+        }
+
+        public long getContentLength() {
+            return conn.getContentLength();
+        }
+
+        public InputStream getBody() throws IOException {
+            if (is == null) {
+                is = status < 400 ? conn.getInputStream() : conn
+                        .getErrorStream();
+                if (is == null) {
+                    is = new ByteArrayInputStream(new byte[0]);
+                }
+            }
+            return is;
+        }
+
+        public void close() {
+            try {
+                if (is != null)
+                    is.close();
+            } catch (Exception e) {
+                log.warn(e.getMessage(), e);
+            }
+            is = null;
+            try {
+                conn.disconnect();
+            } catch (Exception e) {
+                log.warn(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.iron.ironmq.codec;
+
+import java.util.Arrays;
+
+/**
+ * URL-safe Base64 without padding, encoding into and decoding from caller
+ * supplied buffers. Decoding also accepts the standard alphabet and skips
+ * padding and any other characters, like the commons-codec decoder does.
+ */
+final class Base64Url {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+            .toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+        VALUES['+'] = 62;
+        VALUES['/'] = 63;
+    }
+
+    private Base64Url() {
+    }
+
+    /**
+     * Returns the number of characters the given number of bytes encodes to.
+     */
+    static int encodedLength(int n) {
+        return (n * 4 + 2) / 3;
+    }
+
+    /**
+     * Encodes bytes into the given array and returns the index after the last
+     * character written.
+     */
+    static int encode(byte[] src, int off, int len, char[] dst, int pos) {
+        int end = off + len;
+        int i = off;
+        while (end - i >= 3) {
+            int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8
+                    | (src[i + 2] & 0xFF);
+            dst[pos++] = ALPHABET[bits >>> 18];
+            dst[pos++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[pos++] = ALPHABET[(bits >>> 6) & 0x3F];
+            dst[pos++] = ALPHABET[bits & 0x3F];
+            i += 3;
+        }
+        if (end - i == 1) {
+            int bits = (src[i] & 0xFF) << 16;
+            dst[pos++] = ALPHABET[bits >>> 18];
+            dst[pos++] = ALPHABET[(bits >>> 12) & 0x3F];
+        } else if (end - i == 2) {
+            int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8;
+            dst[pos++] = ALPHABET[bits >>> 18];
+            dst[pos++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[pos++] = ALPHABET[(bits >>> 6) & 0x3F];
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes the characters of src from the given index on, appending the
+     * bytes to out.
+     */
+    static void decode(String src, int from, ReusableBuffer out) {
+        int len = src.length();
+        out.ensureRemaining((len - from) * 3 / 4 + 3);
+        byte[] dst = out.array();
+        int pos = out.size();
+        int start = pos;
+        int bits = 0;
+        int n = 0;
+        for (int i = from; i < len; i++) {
+            char c = src.charAt(i);
+            int v = c < 128 ? VALUES[c] : -1;
+            if (v < 0) {
+                continue;
+            }
+            bits = bits << 6 | v;
+            if (++n == 4) {
+                dst[pos++] = (byte) (bits >>> 16);
+                dst[pos++] = (byte) (bits >>> 8);
+                dst[pos++] = (byte) bits;
+                bits = 0;
+                n = 0;
+            }
+        }
+        if (n == 2) {
+            dst[pos++] = (byte) (bits >>> 4);
+        } else if (n == 3) {
+            dst[pos++] = (byte) (bits >>> 10);
+            dst[pos++] = (byte) (bits >>> 2);
+        }
+        out.advance(pos - start);
+    }
+}
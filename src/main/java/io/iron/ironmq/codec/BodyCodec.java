@@ -0,0 +1,42 @@
+package io.iron.ironmq.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The BodyCodec interface compresses and decompresses message bodies.
+ * <p>
+ * Every codec has a short ID that is written in front of the bodies it
+ * encodes, so readers can pick the matching codec from the BodyCodecs
+ * registry. Implementations must be thread-safe.
+ */
+public interface BodyCodec {
+    /**
+    * Returns the ID written into the header of encoded bodies. IDs must not
+    * contain ':' and "t" is reserved for uncompressed text.
+    */
+    String getId();
+
+    /**
+    * Compresses the given bytes.
+    *
+    * @param src The data to compress.
+    * @param off The offset of the data in src.
+    * @param len The length of the data.
+    * @param out The stream the compressed data is written to.
+    */
+    void encode(byte[] src, int off, int len, OutputStream out)
+            throws IOException;
+
+    /**
+    * Decompresses the given bytes.
+    *
+    * @param src The data to decompress.
+    * @param off The offset of the data in src.
+    * @param len The length of the data.
+    * @param out The stream the original data is written to.
+    * @throws IOException If the data is corrupt.
+    */
+    void decode(byte[] src, int off, int len, OutputStream out)
+            throws IOException;
+}
@@ -0,0 +1,47 @@
+package io.iron.ironmq.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The registry readers use to find the codec named in an encoded body's
+ * header. The built-in codecs are always registered; custom codecs must be
+ * registered on both the producing and the consuming side.
+ */
+public class BodyCodecs {
+    private static final ConcurrentMap<String, BodyCodec> codecs = new ConcurrentHashMap<String, BodyCodec>();
+
+    static {
+        register(new IdentityCodec());
+        register(new DeflateCodec());
+        register(new GzipCodec());
+        register(new LzCodec());
+    }
+
+    private BodyCodecs() {
+    }
+
+    /**
+    * Registers a codec, replacing any codec registered with the same ID.
+    *
+    * @param codec The codec to register.
+    */
+    public static void register(BodyCodec codec) {
+        String id = codec.getId();
+        if (id == null || id.length() == 0
+                || id.indexOf(BodyFormat.SEPARATOR) >= 0
+                || BodyFormat.TEXT_ID.equals(id)) {
+            throw new IllegalArgumentException("Invalid codec ID: " + id);
+        }
+        codecs.put(id, codec);
+    }
+
+    /**
+    * Returns the codec registered with the given ID, or null if there is none.
+    *
+    * @param id The codec ID.
+    */
+    public static BodyCodec get(String id) {
+        return codecs.get(id);
+    }
+}
@@ -0,0 +1,245 @@
+package io.iron.ironmq.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * The BodyFormat class turns message bodies into the strings sent to IronMQ
+ * and back.
+ * <p>
+ * Bodies are written in a self-describing form: '~', the ID of the codec, ':'
+ * and the URL-safe Base64 of the compressed data. Bodies that are not worth
+ * compressing are written as "~t:" followed by the text itself, so they carry
+ * no Base64 overhead. Bodies without a header are URL-safe Base64 encoded
+ * zlib streams, which is what earlier versions of this client wrote and what
+ * {@link #LEGACY} still writes.
+ * <p>
+ * Readers detect the format of every body, so a queue can hold bodies
+ * written with different formats.
+ */
+public class BodyFormat {
+    static final char HEADER = '~';
+    static final char SEPARATOR = ':';
+    static final String TEXT_ID = "t";
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The format written by earlier versions of this client: every body
+     * deflated at the best compression level, without a header. Use it as
+     * long as consumers running those versions read the queue.
+     */
+    public static final BodyFormat LEGACY = new BodyFormat(new DeflateCodec(
+            Deflater.BEST_COMPRESSION), CompressionPolicy.ALWAYS, false);
+
+    private final BodyCodec codec;
+    private final CompressionPolicy policy;
+    private final boolean header;
+
+    /**
+     * Constructs a format compressing every body with the given codec.
+     *
+     * @param codec The codec to compress bodies with.
+     */
+    public BodyFormat(BodyCodec codec) {
+        this(codec, CompressionPolicy.ALWAYS);
+    }
+
+    /**
+     * Constructs a format compressing bodies with the given codec when the
+     * policy deems it worthwhile.
+     *
+     * @param codec The codec to compress bodies with.
+     * @param policy The policy deciding which bodies are compressed.
+     */
+    public BodyFormat(BodyCodec codec, CompressionPolicy policy) {
+        this(codec, policy, true);
+    }
+
+    private BodyFormat(BodyCodec codec, CompressionPolicy policy,
+            boolean header) {
+        this.codec = codec;
+        this.policy = policy;
+        this.header = header;
+    }
+
+    /**
+     * Returns a format that deflates bodies at the default level, skips small
+     * bodies and falls back to plain text when compression does not pay off.
+     */
+    public static BodyFormat adaptive() {
+        return new BodyFormat(new DeflateCodec(), new CompressionPolicy());
+    }
+
+    /**
+     * Encodes a text body. The text is written as UTF-8, compressed and
+     * Base64 encoded through per-thread buffers, so the only allocation is
+     * the resulting string.
+     *
+     * @param text The body.
+     */
+    public String encode(String text) throws IOException {
+        Buffers buffers = Buffers.get();
+        ReusableBuffer data = buffers.input();
+        Utf8.encode(text, data);
+        String compressed = compress(buffers, data.array(), 0, data.size());
+        if (compressed != null) {
+            return compressed;
+        }
+        return new StringBuilder(text.length() + 3).append(HEADER)
+                .append(TEXT_ID).append(SEPARATOR).append(text).toString();
+    }
+
+    /**
+     * Encodes a binary body.
+     *
+     * @param data The body.
+     */
+    public String encode(byte[] data) throws IOException {
+        Buffers buffers = Buffers.get();
+        String compressed = compress(buffers, data, 0, data.length);
+        if (compressed != null) {
+            return compressed;
+        }
+        return toString(buffers, IdentityCodec.ID, data, 0, data.length);
+    }
+
+    /**
+     * Encodes the remaining bytes of a binary body. Heap buffers are read in
+     * place, direct buffers through a per-thread buffer. The position of the
+     * buffer is left unchanged.
+     *
+     * @param data The body.
+     */
+    public String encode(ByteBuffer data) throws IOException {
+        Buffers buffers = Buffers.get();
+        byte[] array;
+        int off;
+        int len = data.remaining();
+        if (data.hasArray()) {
+            array = data.array();
+            off = data.arrayOffset() + data.position();
+        } else {
+            ReusableBuffer copy = buffers.input();
+            copy.ensureRemaining(len);
+            data.duplicate().get(copy.array(), 0, len);
+            copy.advance(len);
+            array = copy.array();
+            off = 0;
+        }
+        String compressed = compress(buffers, array, off, len);
+        if (compressed != null) {
+            return compressed;
+        }
+        return toString(buffers, IdentityCodec.ID, array, off, len);
+    }
+
+    private String compress(Buffers buffers, byte[] data, int off, int len)
+            throws IOException {
+        if (header && !policy.shouldCompress(len)) {
+            return null;
+        }
+        ReusableBuffer out = buffers.output();
+        codec.encode(data, off, len, out);
+        if (!header) {
+            return toString(buffers, null, out.array(), 0, out.size());
+        }
+        if (!policy.record(len, Base64Url.encodedLength(out.size()))) {
+            return null;
+        }
+        return toString(buffers, codec.getId(), out.array(), 0, out.size());
+    }
+
+    private static String toString(Buffers buffers, String id, byte[] src,
+            int off, int len) {
+        int headerLength = id != null ? id.length() + 2 : 0;
+        char[] chars = buffers.chars(headerLength
+                + Base64Url.encodedLength(len));
+        int pos = 0;
+        if (id != null) {
+            chars[pos++] = HEADER;
+            id.getChars(0, id.length(), chars, pos);
+            pos += id.length();
+            chars[pos++] = SEPARATOR;
+        }
+        pos = Base64Url.encode(src, off, len, chars, pos);
+        return new String(chars, 0, pos);
+    }
+
+    /**
+     * Decodes a body written in any format into text.
+     *
+     * @param body The body as stored in IronMQ.
+     * @throws IOException If the body is corrupt or names an unknown codec.
+     */
+    public static String decodeToString(String body) throws IOException {
+        if (isText(body)) {
+            return body.substring(TEXT_ID.length() + 2);
+        }
+        ReusableBuffer data = decode(Buffers.get(), body);
+        return new String(data.array(), 0, data.size(), UTF8);
+    }
+
+    /**
+     * Decodes a body written in any format.
+     *
+     * @param body The body as stored in IronMQ.
+     * @throws IOException If the body is corrupt or names an unknown codec.
+     */
+    public static byte[] decode(String body) throws IOException {
+        if (isText(body)) {
+            return body.substring(TEXT_ID.length() + 2).getBytes(UTF8);
+        }
+        ReusableBuffer data = decode(Buffers.get(), body);
+        return Arrays.copyOf(data.array(), data.size());
+    }
+
+    private static ReusableBuffer decode(Buffers buffers, String body)
+            throws IOException {
+        BodyCodec codec;
+        int payload;
+        if (body.length() > 0 && body.charAt(0) == HEADER) {
+            int sep = body.indexOf(SEPARATOR);
+            if (sep < 0) {
+                throw new IOException("Malformed body header");
+            }
+            String id = body.substring(1, sep);
+            codec = BodyCodecs.get(id);
+            if (codec == null) {
+                throw new IOException("Unknown body codec: " + id);
+            }
+            payload = sep + 1;
+        } else {
+            codec = BodyCodecs.get(DeflateCodec.ID);
+            payload = 0;
+        }
+        ReusableBuffer data = buffers.input();
+        Base64Url.decode(body, payload, data);
+        ReusableBuffer out = buffers.output();
+        codec.decode(data.array(), 0, data.size(), out);
+        return out;
+    }
+
+    /**
+     * Returns whether a body was written as plain text, so that decoding it
+     * into text is only a matter of dropping the header.
+     *
+     * @param body The body as stored in IronMQ.
+     */
+    public static boolean isText(String body) {
+        return body.length() >= TEXT_ID.length() + 2
+                && body.charAt(0) == HEADER
+                && body.startsWith(TEXT_ID, 1)
+                && body.charAt(TEXT_ID.length() + 1) == SEPARATOR;
+    }
+
+    public BodyCodec getCodec() {
+        return codec;
+    }
+
+    public CompressionPolicy getPolicy() {
+        return policy;
+    }
+}
@@ -0,0 +1,67 @@
+package io.iron.ironmq.codec;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread scratch space for encoding and decoding bodies: two byte
+ * buffers, a char buffer and the LZ hash table. All of it lives on the heap;
+ * the zlib objects, whose memory is native, are shared through ZlibPool.
+ */
+final class Buffers {
+    private static final ThreadLocal<Buffers> local = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private final ReusableBuffer input = new ReusableBuffer();
+    private final ReusableBuffer output = new ReusableBuffer();
+    private char[] chars = new char[ReusableBuffer.INITIAL_SIZE];
+    private int[] hashTable;
+
+    private Buffers() {
+    }
+
+    static Buffers get() {
+        return local.get();
+    }
+
+    /**
+     * Returns the emptied buffer holding a body's uncompressed bytes.
+     */
+    ReusableBuffer input() {
+        input.reset();
+        return input;
+    }
+
+    /**
+     * Returns the emptied buffer holding a body's compressed bytes.
+     */
+    ReusableBuffer output() {
+        output.reset();
+        return output;
+    }
+
+    /**
+     * Returns a char array of at least the given length.
+     */
+    char[] chars(int length) {
+        if (chars.length < length || chars.length > ReusableBuffer.MAX_RETAINED) {
+            chars = new char[Math.max(length, ReusableBuffer.INITIAL_SIZE)];
+        }
+        return chars;
+    }
+
+    /**
+     * Returns a zeroed int array of the given size.
+     */
+    int[] hashTable(int size) {
+        if (hashTable == null || hashTable.length != size) {
+            hashTable = new int[size];
+        } else {
+            Arrays.fill(hashTable, 0);
+        }
+        return hashTable;
+    }
+}
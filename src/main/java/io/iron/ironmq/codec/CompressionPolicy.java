@@ -0,0 +1,93 @@
+package io.iron.ironmq.codec;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CompressionPolicy class decides whether a body is worth compressing.
+ * <p>
+ * Bodies smaller than the minimum size are sent as they are. Larger bodies
+ * are compressed, and the compressed form is only used if it is at most
+ * maxRatio times the original size. The policy keeps a moving average of the
+ * ratios it has seen; while that average is poor it only compresses every
+ * {@value #PROBE_INTERVAL}th body to notice when the payloads change.
+ */
+public class CompressionPolicy {
+    public static final int DEFAULT_MIN_SIZE = 128;
+    public static final double DEFAULT_MAX_RATIO = 0.9;
+    static final int PROBE_INTERVAL = 16;
+
+    /**
+     * Compresses every body, whatever the result.
+     */
+    public static final CompressionPolicy ALWAYS = new CompressionPolicy(0,
+            Double.POSITIVE_INFINITY);
+
+    private final int minSize;
+    private final double maxRatio;
+    // Written without synchronization: losing an update only delays adapting.
+    private volatile double ratio;
+    private final AtomicInteger skipped = new AtomicInteger();
+
+    /**
+     * Constructs a policy with the default minimum size and ratio.
+     */
+    public CompressionPolicy() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_MAX_RATIO);
+    }
+
+    /**
+     * Constructs a policy.
+     *
+     * @param minSize The size in bytes below which bodies are not compressed.
+     * @param maxRatio The largest ratio of compressed to original size for
+     * which the compressed form is used.
+     */
+    public CompressionPolicy(int minSize, double maxRatio) {
+        if (minSize < 0 || maxRatio <= 0) {
+            throw new IllegalArgumentException(
+                    "minSize and maxRatio have to be positive");
+        }
+        this.minSize = minSize;
+        this.maxRatio = maxRatio;
+    }
+
+    /**
+     * Returns whether a body of the given size should be compressed.
+     *
+     * @param size The body's size in bytes.
+     */
+    public boolean shouldCompress(int size) {
+        if (size < minSize) {
+            return false;
+        }
+        if (ratio <= maxRatio) {
+            return true;
+        }
+        return skipped.incrementAndGet() % PROBE_INTERVAL == 0;
+    }
+
+    /**
+     * Records the outcome of compressing a body and returns whether the
+     * compressed form should be used.
+     *
+     * @param originalSize The body's size in bytes.
+     * @param encodedSize The size of the compressed body as it is sent.
+     */
+    public boolean record(int originalSize, int encodedSize) {
+        if (maxRatio == Double.POSITIVE_INFINITY) {
+            return true;
+        }
+        double r = originalSize > 0 ? (double) encodedSize / originalSize : 1;
+        double current = ratio;
+        ratio = current == 0 ? r : current * 0.9 + r * 0.1;
+        return r <= maxRatio;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public double getMaxRatio() {
+        return maxRatio;
+    }
+}
@@ -0,0 +1,92 @@
+package io.iron.ironmq.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A BodyCodec producing zlib streams, the format IronMQ bodies have always
+ * been compressed with. Streams can be compressed with a preset dictionary,
+ * which makes small bodies that share structure compress well; readers find
+ * the dictionary in DeflateDictionaries.
+ */
+public class DeflateCodec implements BodyCodec {
+    public static final String ID = "d";
+
+    private final int level;
+    private final DeflateDictionary dictionary;
+
+    /**
+     * Constructs a DeflateCodec using the default compression level.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs a DeflateCodec.
+     *
+     * @param level The compression level, from Deflater.BEST_SPEED to
+     * Deflater.BEST_COMPRESSION.
+     */
+    public DeflateCodec(int level) {
+        this(level, null);
+    }
+
+    /**
+     * Constructs a DeflateCodec compressing with a preset dictionary. The
+     * dictionary must be registered with DeflateDictionaries by consumers.
+     *
+     * @param level The compression level, from Deflater.BEST_SPEED to
+     * Deflater.BEST_COMPRESSION.
+     * @param dictionary The dictionary, or null to compress without one.
+     */
+    public DeflateCodec(int level, DeflateDictionary dictionary) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: "
+                    + level);
+        }
+        this.level = level;
+        this.dictionary = dictionary;
+    }
+
+    public String getId() {
+        return ID;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public DeflateDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void encode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        Deflater deflater = ZlibPool.borrowDeflater(level, false);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary.bytes());
+            }
+            deflater.setInput(src, off, len);
+            deflater.finish();
+            ZlibStreams.deflate(deflater, len, out);
+        } finally {
+            ZlibPool.returnDeflater(deflater, level, false);
+        }
+    }
+
+    public void decode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        Inflater inflater = ZlibPool.borrowInflater(false);
+        try {
+            inflater.setInput(src, off, len);
+            ZlibStreams.inflate(inflater, len, out, null);
+        } finally {
+            ZlibPool.returnInflater(inflater, false);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.iron.ironmq.codec;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The registry readers use to find the dictionary a zlib stream was
+ * compressed with, by the ID in its header. Consumers must register every
+ * dictionary producers may use before they read bodies compressed with it.
+ */
+public class DeflateDictionaries {
+    private static final ConcurrentMap<Integer, DeflateDictionary> dictionaries = new ConcurrentHashMap<Integer, DeflateDictionary>();
+
+    private DeflateDictionaries() {
+    }
+
+    /**
+    * Registers a dictionary, replacing any dictionary with the same ID.
+    *
+    * @param dictionary The dictionary to register.
+    */
+    public static void register(DeflateDictionary dictionary) {
+        dictionaries.put(dictionary.getId(), dictionary);
+    }
+
+    /**
+    * Returns the dictionary with the given ID, or null if there is none.
+    *
+    * @param id The dictionary ID.
+    */
+    public static DeflateDictionary get(int id) {
+        return dictionaries.get(id);
+    }
+}
@@ -0,0 +1,72 @@
+package io.iron.ironmq.codec;
+
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+/**
+ * A preset dictionary for zlib streams: data that small bodies are likely to
+ * share, such as the field names and common values of JSON events, which
+ * deflate can refer back to as if it preceded every body.
+ * <p>
+ * The ID of a dictionary is the Adler-32 checksum of its bytes, which zlib
+ * writes into the header of every stream compressed with it. Consumers look
+ * the dictionary up by that ID in DeflateDictionaries.
+ *
+ * @see DictionaryTrainer
+ */
+public final class DeflateDictionary {
+    /**
+     * The size of the deflate window; bytes of a longer dictionary are never
+     * referred to.
+     */
+    public static final int MAX_SIZE = 32768;
+
+    private final byte[] bytes;
+    private final int id;
+
+    /**
+     * Constructs a dictionary.
+     *
+     * @param bytes The contents of the dictionary, with the most useful data
+     * at the end. The array is copied.
+     */
+    public DeflateDictionary(byte[] bytes) {
+        if (bytes.length == 0 || bytes.length > MAX_SIZE) {
+            throw new IllegalArgumentException(
+                    "A dictionary must hold 1 to " + MAX_SIZE + " bytes");
+        }
+        this.bytes = bytes.clone();
+        Adler32 adler = new Adler32();
+        adler.update(this.bytes, 0, this.bytes.length);
+        this.id = (int) adler.getValue();
+    }
+
+    /**
+     * Returns the ID zlib streams compressed with this dictionary carry.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns a copy of the contents of the dictionary.
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DeflateDictionary
+                && Arrays.equals(bytes, ((DeflateDictionary) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+}
@@ -0,0 +1,245 @@
+package io.iron.ironmq.codec;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * The DictionaryTrainer class builds a DeflateDictionary from sample bodies.
+ * <p>
+ * Every run of 8 bytes is counted once per sample it occurs in. The trainer
+ * then repeatedly picks the segment whose runs occur in the most samples,
+ * adds it to the dictionary and stops counting its runs, until the
+ * dictionary is full or no run is shared by two samples. The segments picked
+ * first end up at the end of the dictionary, where deflate refers to them
+ * most cheaply. A few thousand bodies typical of the queue make a good
+ * sample.
+ * <p>
+ * The main method trains a dictionary from a file holding one body per line
+ * and reports how much it shrinks them:
+ *
+ * <pre>
+ * java io.iron.ironmq.codec.DictionaryTrainer samples.txt events.dict [size]
+ * </pre>
+ */
+public class DictionaryTrainer {
+    public static final int DEFAULT_SIZE = 8192;
+    public static final int DEFAULT_SEGMENT_LENGTH = 64;
+
+    private static final int RUN = 8;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<byte[]> samples = new ArrayList<byte[]>();
+    private int segmentLength = DEFAULT_SEGMENT_LENGTH;
+
+    /**
+     * Sets the length of the segments the dictionary is assembled from.
+     * Shorter segments pick out common fields more precisely, longer ones
+     * keep more of their context.
+     *
+     * @param segmentLength The segment length in bytes, at least 8.
+     */
+    public void setSegmentLength(int segmentLength) {
+        if (segmentLength < RUN) {
+            throw new IllegalArgumentException("segmentLength must be at least "
+                    + RUN);
+        }
+        this.segmentLength = segmentLength;
+    }
+
+    /**
+     * Adds a text body to the sample, as UTF-8.
+     *
+     * @param body The body.
+     */
+    public void addSample(String body) {
+        samples.add(body.getBytes(UTF8));
+    }
+
+    /**
+     * Adds a binary body to the sample. The array is not copied.
+     *
+     * @param body The body.
+     */
+    public void addSample(byte[] body) {
+        samples.add(body);
+    }
+
+    public int getSampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * Trains a dictionary from the samples added so far.
+     *
+     * @param size The maximum size of the dictionary in bytes.
+     * @throws IllegalStateException If the samples share no content.
+     */
+    public DeflateDictionary train(int size) {
+        if (size < 1 || size > DeflateDictionary.MAX_SIZE) {
+            throw new IllegalArgumentException("size must be within 1.."
+                    + DeflateDictionary.MAX_SIZE);
+        }
+        // number the distinct runs and count the samples each occurs in
+        Map<Long, Integer> ids = new HashMap<Long, Integer>();
+        int[] counts = new int[1024];
+        int[] lastSample = new int[1024];
+        int[][] runs = new int[samples.size()][];
+        for (int s = 0; s < samples.size(); s++) {
+            byte[] sample = samples.get(s);
+            int[] sampleRuns = new int[Math.max(0, sample.length - RUN + 1)];
+            for (int i = 0; i < sampleRuns.length; i++) {
+                Long key = run(sample, i);
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(key, id);
+                    if (id == counts.length) {
+                        counts = Arrays.copyOf(counts, id * 2);
+                        lastSample = Arrays.copyOf(lastSample, id * 2);
+                    }
+                }
+                if (lastSample[id] != s + 1) {
+                    lastSample[id] = s + 1;
+                    counts[id]++;
+                }
+                sampleRuns[i] = id;
+            }
+            runs[s] = sampleRuns;
+        }
+        // runs found in a single sample do not help other bodies
+        for (int id = 0; id < ids.size(); id++) {
+            if (counts[id] < 2) {
+                counts[id] = 0;
+            }
+        }
+
+        List<byte[]> segments = new ArrayList<byte[]>();
+        int total = 0;
+        int window = segmentLength - RUN + 1;
+        while (total < size) {
+            long bestScore = 0;
+            int bestSample = -1;
+            int bestPos = 0;
+            for (int s = 0; s < runs.length; s++) {
+                int[] sampleRuns = runs[s];
+                int w = Math.min(window, sampleRuns.length);
+                if (w == 0) {
+                    continue;
+                }
+                long score = 0;
+                for (int i = 0; i < w; i++) {
+                    score += counts[sampleRuns[i]];
+                }
+                for (int p = 0; ; p++) {
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestSample = s;
+                        bestPos = p;
+                    }
+                    if (p + w >= sampleRuns.length) {
+                        break;
+                    }
+                    score += counts[sampleRuns[p + w]] - counts[sampleRuns[p]];
+                }
+            }
+            if (bestSample < 0) {
+                break;
+            }
+            int[] sampleRuns = runs[bestSample];
+            int w = Math.min(window, sampleRuns.length);
+            for (int i = bestPos; i < bestPos + w; i++) {
+                counts[sampleRuns[i]] = 0;
+            }
+            int length = Math.min(w + RUN - 1, size - total);
+            segments.add(Arrays.copyOfRange(samples.get(bestSample), bestPos,
+                    bestPos + length));
+            total += length;
+        }
+        if (total == 0) {
+            throw new IllegalStateException("The samples share no content");
+        }
+
+        byte[] dictionary = new byte[total];
+        int pos = total;
+        for (byte[] segment : segments) {
+            pos -= segment.length;
+            System.arraycopy(segment, 0, dictionary, pos, segment.length);
+        }
+        return new DeflateDictionary(dictionary);
+    }
+
+    private static long run(byte[] data, int off) {
+        long value = 0;
+        for (int i = 0; i < RUN; i++) {
+            value = value << 8 | (data[off + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Trains a dictionary from a file of bodies, one per line, writes it to
+     * a file and prints its ID and the average compressed size of the
+     * bodies with and without it.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: DictionaryTrainer <samples> <dictionary> [size]");
+            System.exit(1);
+        }
+        DictionaryTrainer trainer = new DictionaryTrainer();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(args[0]), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    trainer.addSample(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SIZE;
+        DeflateDictionary dictionary = trainer.train(size);
+        OutputStream out = new FileOutputStream(args[1]);
+        try {
+            out.write(dictionary.bytes());
+        } finally {
+            out.close();
+        }
+
+        DeflateCodec plain = new DeflateCodec(Deflater.BEST_COMPRESSION);
+        DeflateCodec trained = new DeflateCodec(Deflater.BEST_COMPRESSION,
+                dictionary);
+        long original = 0;
+        long withoutDictionary = 0;
+        long withDictionary = 0;
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (byte[] sample : trainer.samples) {
+            original += sample.length;
+            encoded.reset();
+            plain.encode(sample, 0, sample.length, encoded);
+            withoutDictionary += encoded.size();
+            encoded.reset();
+            trained.encode(sample, 0, sample.length, encoded);
+            withDictionary += encoded.size();
+        }
+        int n = trainer.getSampleCount();
+        System.out.printf("Dictionary %08x: %d bytes from %d samples%n",
+                dictionary.getId(), dictionary.bytes().length, n);
+        System.out.printf("Average body: %d bytes, deflated %d, with dictionary %d%n",
+                original / n, withoutDictionary / n, withDictionary / n);
+    }
+}
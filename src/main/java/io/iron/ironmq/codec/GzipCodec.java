@@ -0,0 +1,134 @@
+package io.iron.ironmq.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A BodyCodec producing gzip streams, for consumers that hand bodies to tools
+ * which only understand gzip. Single-member streams are written and read.
+ */
+public class GzipCodec implements BodyCodec {
+    public static final String ID = "g";
+
+    private static final int MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final byte[] HEADER = { (byte) MAGIC, (byte) (MAGIC >> 8),
+            Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xFF };
+
+    private final int level;
+
+    /**
+     * Constructs a GzipCodec using the default compression level.
+     */
+    public GzipCodec() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs a GzipCodec.
+     *
+     * @param level The compression level, from Deflater.BEST_SPEED to
+     * Deflater.BEST_COMPRESSION.
+     */
+    public GzipCodec(int level) {
+        if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+                && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: "
+                    + level);
+        }
+        this.level = level;
+    }
+
+    public String getId() {
+        return ID;
+    }
+
+    public void encode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        out.write(HEADER);
+        Deflater deflater = ZlibPool.borrowDeflater(level, true);
+        try {
+            deflater.setInput(src, off, len);
+            deflater.finish();
+            ZlibStreams.deflate(deflater, len, out);
+        } finally {
+            ZlibPool.returnDeflater(deflater, level, true);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(src, off, len);
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, len);
+    }
+
+    public void decode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        int end = off + len;
+        int pos = readHeader(src, off, end);
+        Inflater inflater = ZlibPool.borrowInflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            inflater.setInput(src, pos, end - pos);
+            ZlibStreams.inflate(inflater, end - pos, out, crc);
+            int trailer = end - inflater.getRemaining();
+            if (trailer + 8 > end) {
+                throw new IOException("Truncated gzip body");
+            }
+            if (readInt(src, trailer) != (int) crc.getValue()
+                    || readInt(src, trailer + 4) != (int) inflater.getBytesWritten()) {
+                throw new IOException("Corrupt gzip body");
+            }
+        } finally {
+            ZlibPool.returnInflater(inflater, true);
+        }
+    }
+
+    private static int readHeader(byte[] src, int pos, int end)
+            throws IOException {
+        try {
+            if (((src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8) != MAGIC
+                    || src[pos + 2] != Deflater.DEFLATED) {
+                throw new IOException("Not a gzip body");
+            }
+            int flags = src[pos + 3] & 0xFF;
+            pos += 10;
+            if ((flags & FEXTRA) != 0) {
+                pos += 2 + ((src[pos] & 0xFF) | (src[pos + 1] & 0xFF) << 8);
+            }
+            if ((flags & FNAME) != 0) {
+                while (src[pos++] != 0) {
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (src[pos++] != 0) {
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                pos += 2;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated gzip body", e);
+        }
+        if (pos > end) {
+            throw new IOException("Truncated gzip body");
+        }
+        return pos;
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        out.write(v);
+        out.write(v >>> 8);
+        out.write(v >>> 16);
+        out.write(v >>> 24);
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8
+                | (src[i + 2] & 0xFF) << 16 | (src[i + 3] & 0xFF) << 24;
+    }
+}
@@ -0,0 +1,25 @@
+package io.iron.ironmq.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A BodyCodec that leaves the data uncompressed.
+ */
+public class IdentityCodec implements BodyCodec {
+    public static final String ID = "n";
+
+    public String getId() {
+        return ID;
+    }
+
+    public void encode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        out.write(src, off, len);
+    }
+
+    public void decode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        out.write(src, off, len);
+    }
+}
@@ -0,0 +1,244 @@
+package io.iron.ironmq.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A BodyCodec implementing a fast LZ77 compressor in the style of LZ4.
+ * <p>
+ * It compresses less than deflate but is several times faster on both ends,
+ * which suits small, repetitive JSON bodies pushed at high rates. The
+ * encoded form is the original length as a varint followed by LZ4-style
+ * sequences: a token holding the literal and match lengths, the literals, a
+ * two byte little-endian match offset and the remainder of the match length.
+ */
+public class LzCodec implements BodyCodec {
+    public static final String ID = "l";
+
+    static final int MIN_MATCH = 4;
+    static final int LAST_LITERALS = 5;
+    static final int MF_LIMIT = 12;
+    static final int MAX_OFFSET = 65535;
+    static final int HASH_LOG = 12;
+    static final int SKIP_TRIGGER = 6;
+    // the most bytes a single byte of sequences can expand to
+    static final int MAX_EXPANSION = 255;
+
+    public String getId() {
+        return ID;
+    }
+
+    /**
+     * Returns the largest encoded size of the given number of bytes.
+     */
+    static int maxEncodedLength(int len) {
+        return len + len / 255 + 16 + 5;
+    }
+
+    public void encode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        int max = maxEncodedLength(len);
+        if (out instanceof ReusableBuffer) {
+            ReusableBuffer buf = (ReusableBuffer) out;
+            buf.ensureRemaining(max);
+            buf.advance(encode(src, off, len, buf.array(), buf.size())
+                    - buf.size());
+        } else {
+            byte[] dst = new byte[max];
+            out.write(dst, 0, encode(src, off, len, dst, 0));
+        }
+    }
+
+    /**
+     * Encodes into dst, which must have room for maxEncodedLength(len) bytes,
+     * and returns the index after the last byte written.
+     */
+    private static int encode(byte[] src, int off, int len, byte[] dst, int op) {
+        op = writeVarint(dst, op, len);
+        int end = off + len;
+        int anchor = off;
+        if (len >= MF_LIMIT + 1) {
+            int[] table = Buffers.get().hashTable(1 << HASH_LOG);
+            int matchLimit = end - MF_LIMIT;
+            int literalLimit = end - LAST_LITERALS;
+            int ip = off;
+            int searches = 1 << SKIP_TRIGGER;
+            while (ip < matchLimit) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h] - 1 + off;
+                table[h] = ip - off + 1;
+                if (ref < off || ip - ref > MAX_OFFSET
+                        || readInt(src, ref) != seq) {
+                    // step faster through data that does not compress
+                    ip += searches++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searches = 1 << SKIP_TRIGGER;
+                // extend the match backwards over pending literals
+                while (ip > anchor && ref > off && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < literalLimit
+                        && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+                op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref,
+                        matchLen);
+                ip += matchLen;
+                anchor = ip;
+            }
+        }
+        return writeLastLiterals(dst, op, src, anchor, end - anchor);
+    }
+
+    public void decode(byte[] src, int off, int len, OutputStream out)
+            throws IOException {
+        try {
+            int[] pos = { off };
+            int end = off + len;
+            int size = readVarint(src, pos, end);
+            // rejects corrupt sizes before allocating for them
+            if ((long) size > (long) (end - pos[0]) * MAX_EXPANSION + 16) {
+                throw new IOException("Corrupt LZ body: " + size
+                        + " bytes cannot be encoded in " + len);
+            }
+            ReusableBuffer buf = out instanceof ReusableBuffer ? (ReusableBuffer) out
+                    : null;
+            byte[] dst;
+            int base;
+            if (buf != null) {
+                buf.ensureRemaining(size);
+                dst = buf.array();
+                base = buf.size();
+            } else {
+                dst = new byte[size];
+                base = 0;
+            }
+            int limit = base + size;
+            int ip = pos[0];
+            int op = base;
+            while (ip < end) {
+                int token = src[ip++] & 0xFF;
+                int literalLen = token >>> 4;
+                if (literalLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLen += b;
+                    } while (b == 255);
+                }
+                if (op + literalLen > limit || ip + literalLen > end) {
+                    throw new IOException("Corrupt LZ body");
+                }
+                System.arraycopy(src, ip, dst, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+                if (ip >= end) {
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLen = token & 0x0F;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < base || op + matchLen > limit) {
+                    throw new IOException("Corrupt LZ body");
+                }
+                // byte by byte since the match may overlap its own output
+                for (int i = 0; i < matchLen; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+            if (op != limit) {
+                throw new IOException("Corrupt LZ body");
+            }
+            if (buf != null) {
+                buf.advance(size);
+            } else {
+                out.write(dst, 0, size);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ body", e);
+        }
+    }
+
+    private static int writeSequence(byte[] dst, int op, byte[] src,
+            int literalOff, int literalLen, int offset, int matchLen) {
+        int ml = matchLen - MIN_MATCH;
+        dst[op++] = (byte) ((Math.min(literalLen, 15) << 4) | Math.min(ml, 15));
+        if (literalLen >= 15) {
+            op = writeLength(dst, op, literalLen - 15);
+        }
+        System.arraycopy(src, literalOff, dst, op, literalLen);
+        op += literalLen;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (ml >= 15) {
+            op = writeLength(dst, op, ml - 15);
+        }
+        return op;
+    }
+
+    private static int writeLastLiterals(byte[] dst, int op, byte[] src,
+            int literalOff, int literalLen) {
+        dst[op++] = (byte) (Math.min(literalLen, 15) << 4);
+        if (literalLen >= 15) {
+            op = writeLength(dst, op, literalLen - 15);
+        }
+        System.arraycopy(src, literalOff, dst, op, literalLen);
+        return op + literalLen;
+    }
+
+    private static int writeLength(byte[] dst, int op, int len) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int writeVarint(byte[] dst, int op, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst[op++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[op++] = (byte) value;
+        return op;
+    }
+
+    private static int readVarint(byte[] src, int[] pos, int end)
+            throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32 && pos[0] < end; shift += 7) {
+            int b = src[pos[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IOException("Corrupt LZ body");
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8
+                | (src[i + 2] & 0xFF) << 16 | (src[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
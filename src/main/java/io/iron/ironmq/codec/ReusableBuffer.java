@@ -0,0 +1,78 @@
+package io.iron.ironmq.codec;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A ByteArrayOutputStream whose backing array can be written to directly and
+ * is kept across uses. Codecs that are handed a ReusableBuffer write into its
+ * array instead of going through an intermediate chunk.
+ */
+public class ReusableBuffer extends ByteArrayOutputStream {
+    /**
+     * Arrays grown beyond this size are dropped on reset so that one large
+     * body does not pin its memory for the life of the thread.
+     */
+    static final int MAX_RETAINED = 1 << 20;
+    static final int INITIAL_SIZE = 1024;
+
+    public ReusableBuffer() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+    * Returns the backing array. Only the first size() bytes are valid.
+    */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+    * Grows the backing array, if needed, so that at least the given number of
+    * bytes can be written after the current content.
+    *
+    * @param n The number of bytes to make room for.
+    */
+    public void ensureRemaining(int n) {
+        int required = count + n;
+        if (required < 0) {
+            throw new OutOfMemoryError("Body too large");
+        }
+        if (required > buf.length) {
+            int capacity = Math.max(required, buf.length << 1);
+            if (capacity < 0) {
+                capacity = Integer.MAX_VALUE - 8;
+            }
+            byte[] grown = new byte[capacity];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+
+    /**
+    * Returns the number of bytes that can be written without growing.
+    */
+    public int remaining() {
+        return buf.length - count;
+    }
+
+    /**
+    * Marks bytes written directly into the backing array as part of the
+    * content.
+    *
+    * @param n The number of bytes written after the current content.
+    */
+    public void advance(int n) {
+        if (n < 0 || count + n > buf.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        count += n;
+    }
+
+    @Override
+    public void reset() {
+        count = 0;
+        if (buf.length > MAX_RETAINED) {
+            buf = new byte[INITIAL_SIZE];
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.iron.ironmq.codec;
+
+/**
+ * Encodes text as UTF-8 straight into a ReusableBuffer. Unpaired surrogates
+ * are written as '?', as String.getBytes does.
+ */
+final class Utf8 {
+    private Utf8() {
+    }
+
+    static void encode(String s, ReusableBuffer out) {
+        int len = s.length();
+        out.ensureRemaining(len * 3);
+        byte[] dst = out.array();
+        int start = out.size();
+        int pos = start;
+        int i = 0;
+        // fast path for ASCII
+        while (i < len) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            dst[pos++] = (byte) c;
+            i++;
+        }
+        for (; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | c >>> 6);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                char low = i + 1 < len ? s.charAt(i + 1) : 0;
+                if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+                    int cp = Character.toCodePoint(c, low);
+                    dst[pos++] = (byte) (0xF0 | cp >>> 18);
+                    dst[pos++] = (byte) (0x80 | cp >>> 12 & 0x3F);
+                    dst[pos++] = (byte) (0x80 | cp >>> 6 & 0x3F);
+                    dst[pos++] = (byte) (0x80 | cp & 0x3F);
+                    i++;
+                } else {
+                    dst[pos++] = '?';
+                }
+            } else {
+                dst[pos++] = (byte) (0xE0 | c >>> 12);
+                dst[pos++] = (byte) (0x80 | c >>> 6 & 0x3F);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        out.advance(pos - start);
+    }
+}
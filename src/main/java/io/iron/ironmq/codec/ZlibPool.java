@@ -0,0 +1,118 @@
+package io.iron.ironmq.codec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of Deflater and Inflater instances shared by all threads,
+ * keyed by compression level and wrapping. Instances are borrowed for a
+ * single body and returned right after; an instance returned to a full pool
+ * is ended, which frees its native zlib memory at once instead of whenever
+ * the garbage collector gets to it. The pool therefore holds at most a few
+ * instances per key, however many threads encode bodies.
+ */
+final class ZlibPool {
+    /**
+     * The number of idle instances kept per key.
+     */
+    static final int CAPACITY = Math.max(2, Runtime.getRuntime()
+            .availableProcessors());
+
+    // indexed by level + 1, so that DEFAULT_COMPRESSION (-1) has a slot,
+    // raw deflaters after the zlib ones
+    private static final List<BlockingQueue<Deflater>> deflaters = queues(22);
+    private static final List<BlockingQueue<Inflater>> inflaters = queues(2);
+
+    private ZlibPool() {
+    }
+
+    private static <T> List<BlockingQueue<T>> queues(int n) {
+        List<BlockingQueue<T>> queues = new ArrayList<BlockingQueue<T>>(n);
+        for (int i = 0; i < n; i++) {
+            queues.add(new ArrayBlockingQueue<T>(CAPACITY));
+        }
+        return queues;
+    }
+
+    private static BlockingQueue<Deflater> deflaters(int level, boolean nowrap) {
+        return deflaters.get(level + 1 + (nowrap ? 11 : 0));
+    }
+
+    private static BlockingQueue<Inflater> inflaters(boolean nowrap) {
+        return inflaters.get(nowrap ? 1 : 0);
+    }
+
+    /**
+     * Borrows a Deflater for the given level. It must be handed back with
+     * returnDeflater() when the body is done, also if compressing failed.
+     *
+     * @param level The compression level.
+     * @param nowrap true for raw deflate data without the zlib wrapper.
+     */
+    static Deflater borrowDeflater(int level, boolean nowrap) {
+        Deflater deflater = deflaters(level, nowrap).poll();
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+
+    /**
+     * Resets a borrowed Deflater and puts it back into the pool, or ends it
+     * if the pool is full.
+     */
+    static void returnDeflater(Deflater deflater, int level, boolean nowrap) {
+        deflater.reset();
+        if (!deflaters(level, nowrap).offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Borrows an Inflater. It must be handed back with returnInflater() when
+     * the body is done, also if inflating failed.
+     *
+     * @param nowrap true for raw deflate data without the zlib wrapper.
+     */
+    static Inflater borrowInflater(boolean nowrap) {
+        Inflater inflater = inflaters(nowrap).poll();
+        return inflater != null ? inflater : new Inflater(nowrap);
+    }
+
+    /**
+     * Resets a borrowed Inflater and puts it back into the pool, or ends it
+     * if the pool is full.
+     */
+    static void returnInflater(Inflater inflater, boolean nowrap) {
+        inflater.reset();
+        if (!inflaters(nowrap).offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the number of idle Deflaters pooled for the given key.
+     */
+    static int idleDeflaters(int level, boolean nowrap) {
+        return deflaters(level, nowrap).size();
+    }
+
+    /**
+     * Ends all idle instances, releasing their native memory.
+     */
+    static void clear() {
+        for (BlockingQueue<Deflater> queue : deflaters) {
+            Deflater deflater;
+            while ((deflater = queue.poll()) != null) {
+                deflater.end();
+            }
+        }
+        for (BlockingQueue<Inflater> queue : inflaters) {
+            Inflater inflater;
+            while ((inflater = queue.poll()) != null) {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package io.iron.ironmq.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Drives a Deflater or Inflater to completion, writing straight into the
+ * backing array when the output is a ReusableBuffer.
+ */
+final class ZlibStreams {
+    private static final int CHUNK = 4096;
+
+    private ZlibStreams() {
+    }
+
+    /**
+     * Deflates all input set on the deflater, which must have been finished.
+     *
+     * @param deflater The deflater.
+     * @param sizeHint The input length, used to size the output.
+     * @param out The stream to write to.
+     */
+    static void deflate(Deflater deflater, int sizeHint, OutputStream out)
+            throws IOException {
+        if (out instanceof ReusableBuffer) {
+            ReusableBuffer buf = (ReusableBuffer) out;
+            buf.ensureRemaining(sizeHint / 2 + 64);
+            while (!deflater.finished()) {
+                if (buf.remaining() == 0) {
+                    buf.ensureRemaining(Math.max(CHUNK, buf.size()));
+                }
+                buf.advance(deflater.deflate(buf.array(), buf.size(),
+                        buf.remaining()));
+            }
+        } else {
+            byte[] chunk = new byte[CHUNK];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+        }
+    }
+
+    /**
+     * Inflates all input set on the inflater. Streams compressed with a
+     * preset dictionary are inflated with the registered dictionary of the
+     * same ID.
+     *
+     * @param inflater The inflater.
+     * @param sizeHint The compressed length, used to size the output.
+     * @param out The stream to write to.
+     * @param crc A checksum to update with the inflated data, or null.
+     * @throws IOException If the data is corrupt or truncated.
+     */
+    static void inflate(Inflater inflater, int sizeHint, OutputStream out,
+            CRC32 crc) throws IOException {
+        try {
+            if (out instanceof ReusableBuffer) {
+                ReusableBuffer buf = (ReusableBuffer) out;
+                buf.ensureRemaining(Math.max(sizeHint * 4, 256));
+                while (!inflater.finished()) {
+                    if (buf.remaining() == 0) {
+                        buf.ensureRemaining(Math.max(CHUNK, buf.size()));
+                    }
+                    int pos = buf.size();
+                    int n = inflater.inflate(buf.array(), pos, buf.remaining());
+                    if (n == 0 && setDictionary(inflater)) {
+                        continue;
+                    }
+                    checkProgress(inflater, n);
+                    if (crc != null) {
+                        crc.update(buf.array(), pos, n);
+                    }
+                    buf.advance(n);
+                }
+            } else {
+                byte[] chunk = new byte[CHUNK];
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(chunk);
+                    if (n == 0 && setDictionary(inflater)) {
+                        continue;
+                    }
+                    checkProgress(inflater, n);
+                    if (crc != null) {
+                        crc.update(chunk, 0, n);
+                    }
+                    out.write(chunk, 0, n);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate body", e);
+        }
+    }
+
+    // Returns whether the inflater asked for a dictionary and was given it.
+    private static boolean setDictionary(Inflater inflater) throws IOException {
+        if (!inflater.needsDictionary()) {
+            return false;
+        }
+        DeflateDictionary dictionary = DeflateDictionaries.get(
+                inflater.getAdler());
+        if (dictionary == null) {
+            throw new IOException("Unknown deflate dictionary: "
+                    + Integer.toHexString(inflater.getAdler()));
+        }
+        inflater.setDictionary(dictionary.bytes());
+        return true;
+    }
+
+    private static void checkProgress(Inflater inflater, int n)
+            throws IOException {
+        if (n == 0 && !inflater.finished()
+                && (inflater.needsInput() || inflater.needsDictionary())) {
+            throw new IOException("Truncated or unsupported deflate body");
+        }
+    }
+}
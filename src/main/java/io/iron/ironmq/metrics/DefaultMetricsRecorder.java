@@ -0,0 +1,228 @@
+package io.iron.ironmq.metrics;
+
+import io.iron.ironmq.HTTPException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A MetricsRecorder that keeps all measurements in memory without locking:
+ * histograms of durations and counters for sizes, retries and errors. The
+ * getters return live values that can be read at any time, for example to
+ * export them periodically to a monitoring system.
+ */
+public class DefaultMetricsRecorder implements MetricsRecorder {
+    private final Map<Operation, OperationMetrics> operations;
+    private final Histogram connect = new Histogram();
+    private final ConcurrentMap<Integer, LongAdder> retries = new ConcurrentHashMap<Integer, LongAdder>();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<String, LongAdder>();
+
+    public DefaultMetricsRecorder() {
+        Map<Operation, OperationMetrics> map = new EnumMap<Operation, OperationMetrics>(
+                Operation.class);
+        for (Operation op : Operation.values()) {
+            map.put(op, new OperationMetrics());
+        }
+        this.operations = Collections.unmodifiableMap(map);
+    }
+
+    public void recordOperation(Operation op, long nanos, boolean succeeded) {
+        OperationMetrics metrics = operations.get(op);
+        metrics.latency.record(nanos);
+        if (!succeeded) {
+            metrics.failures.increment();
+        }
+    }
+
+    public void recordConnect(long nanos) {
+        connect.record(nanos);
+    }
+
+    public void recordFirstByte(Operation op, long nanos) {
+        operations.get(op).firstByte.record(nanos);
+    }
+
+    public void recordTransfer(Operation op, long sent, long received) {
+        OperationMetrics metrics = operations.get(op);
+        metrics.bytesSent.add(sent);
+        if (received > 0) {
+            metrics.bytesReceived.add(received);
+        }
+    }
+
+    public void recordCompression(Operation op, long original, long encoded) {
+        OperationMetrics metrics = operations.get(op);
+        metrics.originalBytes.add(original);
+        metrics.encodedBytes.add(encoded);
+    }
+
+    public void recordRetry(Operation op, int status) {
+        operations.get(op).retries.increment();
+        counter(retries, status).increment();
+    }
+
+    public void recordError(Operation op, IOException e) {
+        String type = e.getClass().getSimpleName();
+        if (e instanceof HTTPException) {
+            type = type + " " + ((HTTPException) e).getStatusCode();
+        }
+        counter(errors, type).increment();
+    }
+
+    /**
+     * Returns the durations of the operation, including retries.
+     *
+     * @param op The operation.
+     */
+    public Histogram getLatency(Operation op) {
+        return operations.get(op).latency;
+    }
+
+    /**
+     * Returns the times from sending a request of the operation, including
+     * connecting and writing its body, until its response headers arrived.
+     *
+     * @param op The operation.
+     */
+    public Histogram getFirstByte(Operation op) {
+        return operations.get(op).firstByte;
+    }
+
+    /**
+     * Returns the times it took to open new connections, as far as the
+     * transport reports them.
+     */
+    public Histogram getConnect() {
+        return connect;
+    }
+
+    /**
+     * Returns the number of operations that failed.
+     *
+     * @param op The operation.
+     */
+    public long getFailures(Operation op) {
+        return operations.get(op).failures.sum();
+    }
+
+    /**
+     * Returns the number of retries of the operation.
+     *
+     * @param op The operation.
+     */
+    public long getRetries(Operation op) {
+        return operations.get(op).retries.sum();
+    }
+
+    /**
+     * Returns the number of bytes sent in request bodies.
+     *
+     * @param op The operation.
+     */
+    public long getBytesSent(Operation op) {
+        return operations.get(op).bytesSent.sum();
+    }
+
+    /**
+     * Returns the number of bytes received in response bodies whose length
+     * was known.
+     *
+     * @param op The operation.
+     */
+    public long getBytesReceived(Operation op) {
+        return operations.get(op).bytesReceived.sum();
+    }
+
+    /**
+     * Returns the size of message bodies before encoding (PUSH) or after
+     * decoding (GET).
+     *
+     * @param op PUSH or GET.
+     */
+    public long getOriginalBytes(Operation op) {
+        return operations.get(op).originalBytes.sum();
+    }
+
+    /**
+     * Returns the size of encoded message bodies.
+     *
+     * @param op PUSH or GET.
+     */
+    public long getEncodedBytes(Operation op) {
+        return operations.get(op).encodedBytes.sum();
+    }
+
+    /**
+     * Returns the number of retries by the HTTP status of the failed attempt;
+     * 0 stands for attempts that got no response.
+     */
+    public Map<Integer, Long> getRetriesByStatus() {
+        return snapshot(retries);
+    }
+
+    /**
+     * Returns the number of failed operations by error type.
+     */
+    public Map<String, Long> getErrorsByType() {
+        return snapshot(errors);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Operation op : Operation.values()) {
+            OperationMetrics metrics = operations.get(op);
+            if (metrics.latency.getCount() == 0) {
+                continue;
+            }
+            sb.append(op).append(": latency ").append(metrics.latency)
+                    .append(", first byte ").append(metrics.firstByte)
+                    .append(", failures ").append(metrics.failures.sum())
+                    .append(", retries ").append(metrics.retries.sum())
+                    .append(", sent ").append(metrics.bytesSent.sum())
+                    .append(", received ").append(metrics.bytesReceived.sum())
+                    .append('\n');
+        }
+        sb.append("connect: ").append(connect).append('\n');
+        sb.append("retries: ").append(getRetriesByStatus()).append('\n');
+        sb.append("errors: ").append(getErrorsByType());
+        return sb.toString();
+    }
+
+    private static <K> LongAdder counter(ConcurrentMap<K, LongAdder> counters,
+            K key) {
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private static <K> Map<K, Long> snapshot(ConcurrentMap<K, LongAdder> counters) {
+        Map<K, Long> result = new TreeMap<K, Long>();
+        for (Map.Entry<K, LongAdder> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    private static class OperationMetrics {
+        final Histogram latency = new Histogram();
+        final Histogram firstByte = new Histogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+        final LongAdder originalBytes = new LongAdder();
+        final LongAdder encodedBytes = new LongAdder();
+    }
+}
@@ -0,0 +1,107 @@
+package io.iron.ironmq.metrics;
+
+import java.io.IOException;
+
+/**
+ * A MetricsRecorder receives measurements from a Client and the queues,
+ * transports and codecs it uses. Implementations are called on the request
+ * path from many threads and must be thread-safe and fast; they should not
+ * block.
+ * <p>
+ * Durations are in nanoseconds and sizes in bytes unless stated otherwise.
+ */
+public interface MetricsRecorder {
+    /**
+     * A recorder that ignores all measurements. Clients use it unless another
+     * one is set.
+     */
+    MetricsRecorder NONE = new MetricsRecorder() {
+        public void recordOperation(Operation op, long nanos, boolean succeeded) {
+        }
+
+        public void recordConnect(long nanos) {
+        }
+
+        public void recordFirstByte(Operation op, long nanos) {
+        }
+
+        public void recordTransfer(Operation op, long sent, long received) {
+        }
+
+        public void recordCompression(Operation op, long original, long encoded) {
+        }
+
+        public void recordRetry(Operation op, int status) {
+        }
+
+        public void recordError(Operation op, IOException e) {
+        }
+    };
+
+    /**
+     * Records an operation from its start to its final outcome, including
+     * retries.
+     *
+     * @param op The operation.
+     * @param nanos The time it took.
+     * @param succeeded Whether it succeeded.
+     */
+    void recordOperation(Operation op, long nanos, boolean succeeded);
+
+    /**
+     * Records the time it took to open a new connection, including the TLS
+     * handshake. Only transports that know when a connection is new report
+     * it; UrlConnectionTransport does not.
+     *
+     * @param nanos The time it took.
+     */
+    void recordConnect(long nanos);
+
+    /**
+     * Records the time from sending a request, including opening a
+     * connection if needed and writing the request body, until the response
+     * headers arrived.
+     *
+     * @param op The operation.
+     * @param nanos The time it took.
+     */
+    void recordFirstByte(Operation op, long nanos);
+
+    /**
+     * Records the size of a request body and of the response body, if known.
+     *
+     * @param op The operation.
+     * @param sent The size of the request body.
+     * @param received The size of the response body, or -1 if unknown.
+     */
+    void recordTransfer(Operation op, long sent, long received);
+
+    /**
+     * Records the size of a message body before and after encoding. Encoded
+     * bodies are ASCII strings, so their length in characters is their size
+     * in bytes.
+     *
+     * @param op PUSH for encoded bodies, GET for decoded ones.
+     * @param original The length of the body as the application sees it: in
+     * characters for text bodies, in bytes for binary ones.
+     * @param encoded The length of the body as it is sent.
+     */
+    void recordCompression(Operation op, long original, long encoded);
+
+    /**
+     * Records that a request is retried or sent to another Cloud.
+     *
+     * @param op The operation.
+     * @param status The HTTP status of the failed attempt, or 0 if there was
+     * no response.
+     */
+    void recordRetry(Operation op, int status);
+
+    /**
+     * Records the error an operation finally failed with.
+     *
+     * @param op The operation.
+     * @param e The error.
+     */
+    void recordError(Operation op, IOException e);
+}
@@ -0,0 +1,8 @@
+package io.iron.ironmq.metrics;
+
+/**
+ * The kinds of requests a Client makes, as reported to a MetricsRecorder.
+ */
+public enum Operation {
+    PUSH, GET, DELETE, CLEAR, SUBSCRIBE, INFO, TOUCH, RELEASE
+}
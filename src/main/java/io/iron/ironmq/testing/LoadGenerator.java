@@ -0,0 +1,306 @@
+package io.iron.ironmq.testing;
+
+import io.iron.ironmq.Client;
+import io.iron.ironmq.Cloud;
+import io.iron.ironmq.Message;
+import io.iron.ironmq.Messages;
+import io.iron.ironmq.PooledTransport;
+import io.iron.ironmq.Queue;
+import io.iron.ironmq.metrics.DefaultMetricsRecorder;
+import io.iron.ironmq.util.Backoff;
+import io.iron.ironmq.util.DaemonThreadFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The LoadGenerator class drives a queue with concurrent producers and
+ * consumers for a fixed time and reports throughput and latency.
+ * <p>
+ * Producers push batches of messages as fast as they can; consumers reserve
+ * batches, decode them and delete them. Every body starts with the time it
+ * was pushed, so the report includes the latency from push to consumption.
+ * Request latencies come from a DefaultMetricsRecorder set on the client.
+ * <p>
+ * The main method runs it from the command line, against a
+ * LocalIronMQServer unless a host is given:
+ *
+ * <pre>
+ * java io.iron.ironmq.testing.LoadGenerator --producers=8 --consumers=8
+ *     --batch=10 --body=1024 --duration=30 --latency=5 --error-rate=0.01
+ * </pre>
+ */
+public class LoadGenerator {
+    public static final int DEFAULT_PRODUCERS = 4;
+    public static final int DEFAULT_CONSUMERS = 4;
+    public static final int DEFAULT_BATCH_SIZE = 10;
+    public static final int DEFAULT_BODY_SIZE = 1024;
+    public static final long DEFAULT_DURATION = 10000;
+
+    Logger log = LoggerFactory.getLogger(getClass());
+
+    final private Client client;
+    final private Queue queue;
+    private int producers = DEFAULT_PRODUCERS;
+    private int consumers = DEFAULT_CONSUMERS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int bodySize = DEFAULT_BODY_SIZE;
+    private long duration = DEFAULT_DURATION;
+
+    /**
+     * Constructs a new LoadGenerator. Running it replaces the client's
+     * metrics recorder.
+     *
+     * @param client The client to use.
+     * @param queueName The name of the queue to drive.
+     */
+    public LoadGenerator(Client client, String queueName) {
+        this.client = client;
+        this.queue = client.queue(queueName);
+    }
+
+    /**
+     * Sets the number of producer threads.
+     *
+     * @param producers The number of producers; may be 0.
+     */
+    public void setProducers(int producers) {
+        if (producers < 0) {
+            throw new IllegalArgumentException("producers must not be negative");
+        }
+        this.producers = producers;
+    }
+
+    /**
+     * Sets the number of consumer threads.
+     *
+     * @param consumers The number of consumers; may be 0.
+     */
+    public void setConsumers(int consumers) {
+        if (consumers < 0) {
+            throw new IllegalArgumentException("consumers must not be negative");
+        }
+        this.consumers = consumers;
+    }
+
+    /**
+     * Sets the number of messages pushed and reserved per request.
+     *
+     * @param batchSize The batch size, within 1..100.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > Queue.MAX_MESSAGES) {
+            throw new IllegalArgumentException("batchSize has to be within 1..100");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the length of the message bodies.
+     *
+     * @param bodySize The length in characters.
+     */
+    public void setBodySize(int bodySize) {
+        if (bodySize < 1) {
+            throw new IllegalArgumentException("bodySize has to be positive");
+        }
+        this.bodySize = bodySize;
+    }
+
+    /**
+     * Sets how long the load is generated.
+     *
+     * @param duration The duration.
+     * @param unit The unit of the duration.
+     */
+    public void setDuration(long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration has to be positive");
+        }
+        this.duration = unit.toMillis(duration);
+    }
+
+    /**
+     * Generates load for the configured duration and waits for all producers
+     * and consumers to finish.
+     *
+     * @return The results.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public LoadReport run() throws InterruptedException {
+        final DefaultMetricsRecorder metrics = new DefaultMetricsRecorder();
+        client.setMetricsRecorder(metrics);
+        final LoadReport report = new LoadReport(metrics);
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(duration);
+        final String padding = padding(bodySize);
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, producers + consumers), new DaemonThreadFactory(
+                        "ironmq-load"));
+        for (int i = 0; i < producers; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    produce(report, deadline, padding);
+                }
+            });
+        }
+        for (int i = 0; i < consumers; i++) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    consume(report, deadline);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(duration + 60000, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        report.elapsed = System.nanoTime() - start;
+        return report;
+    }
+
+    private void produce(LoadReport report, long deadline, String padding) {
+        Backoff backoff = new Backoff(10, 1000);
+        Message[] batch = new Message[batchSize];
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < batchSize; i++) {
+                batch[i] = new Message();
+                batch[i].setBody(System.nanoTime() + ":" + padding);
+            }
+            try {
+                queue.pushAll(batch);
+                report.pushed.add(batchSize);
+                backoff.reset();
+            } catch (Exception e) {
+                log.debug("Push failed: {}", e.getMessage());
+                report.pushErrors.increment();
+                if (!sleep(backoff)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void consume(LoadReport report, long deadline) {
+        Backoff backoff = new Backoff(10, 200);
+        while (System.nanoTime() < deadline) {
+            Messages msgs;
+            try {
+                msgs = queue.get(batchSize);
+            } catch (Exception e) {
+                log.debug("Get failed: {}", e.getMessage());
+                report.consumeErrors.increment();
+                if (!sleep(backoff)) {
+                    return;
+                }
+                continue;
+            }
+            if (msgs == null || msgs.size() == 0) {
+                if (!sleep(backoff)) {
+                    return;
+                }
+                continue;
+            }
+            backoff.reset();
+            long now = System.nanoTime();
+            for (Message msg : msgs.getMessages()) {
+                String body = msg.getBody();
+                int colon = body.indexOf(':');
+                if (colon > 0) {
+                    report.endToEnd.record(now - Long.parseLong(body.substring(0, colon)));
+                }
+            }
+            int failed = queue.deleteMessages(msgs).getFailed().size();
+            report.consumed.add(msgs.size());
+            report.consumeErrors.add(failed);
+        }
+    }
+
+    private static boolean sleep(Backoff backoff) {
+        try {
+            backoff.sleep();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String padding(int bodySize) {
+        StringBuilder sb = new StringBuilder(bodySize);
+        String words = "lorem ipsum dolor sit amet consectetur adipiscing elit ";
+        while (sb.length() < bodySize) {
+            sb.append(words);
+        }
+        sb.setLength(Math.max(0, bodySize - 20));
+        return sb.toString();
+    }
+
+    /**
+     * Runs a load test from the command line. Options, all optional:
+     * --producers, --consumers, --batch, --body (characters), --duration
+     * (seconds), --queue; against a local server --latency (milliseconds)
+     * and --error-rate; against IronMQ --host, --port, --scheme, --project
+     * and --token.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                System.err.println("Invalid option " + arg);
+                System.exit(1);
+            }
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+
+        LocalIronMQServer server = null;
+        Cloud cloud;
+        if (options.containsKey("host")) {
+            cloud = new Cloud(option(options, "scheme", "https"),
+                    options.get("host"), Integer.parseInt(option(options, "port", "443")));
+        } else {
+            // Without it, delayed ACKs stall every response by about 40 ms.
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+            server = new LocalIronMQServer();
+            long latency = Long.parseLong(option(options, "latency", "0"));
+            server.setLatency(latency, latency);
+            server.setErrorRate(Double.parseDouble(option(options, "error-rate", "0")));
+            server.start();
+            cloud = server.getCloud();
+        }
+        Client client = new Client(option(options, "project", "load"),
+                option(options, "token", "load"), cloud, new ObjectMapper(),
+                new PooledTransport());
+        try {
+            LoadGenerator generator = new LoadGenerator(client, option(options,
+                    "queue", "load-test"));
+            generator.setProducers(Integer.parseInt(option(options, "producers", "" + DEFAULT_PRODUCERS)));
+            generator.setConsumers(Integer.parseInt(option(options, "consumers", "" + DEFAULT_CONSUMERS)));
+            generator.setBatchSize(Integer.parseInt(option(options, "batch", "" + DEFAULT_BATCH_SIZE)));
+            generator.setBodySize(Integer.parseInt(option(options, "body", "" + DEFAULT_BODY_SIZE)));
+            generator.setDuration(Long.parseLong(option(options, "duration",
+                    "" + DEFAULT_DURATION / 1000)), TimeUnit.SECONDS);
+            System.out.println(generator.run());
+        } finally {
+            client.close();
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    private static String option(Map<String, String> options, String name,
+            String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
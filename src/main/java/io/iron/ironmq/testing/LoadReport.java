@@ -0,0 +1,115 @@
+package io.iron.ironmq.testing;
+
+import io.iron.ironmq.metrics.DefaultMetricsRecorder;
+import io.iron.ironmq.metrics.Histogram;
+import io.iron.ironmq.metrics.Operation;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The results of a LoadGenerator run.
+ */
+public class LoadReport {
+    final LongAdder pushed = new LongAdder();
+    final LongAdder consumed = new LongAdder();
+    final LongAdder pushErrors = new LongAdder();
+    final LongAdder consumeErrors = new LongAdder();
+    final Histogram endToEnd = new Histogram();
+    final private DefaultMetricsRecorder metrics;
+    volatile long elapsed;
+
+    LoadReport(DefaultMetricsRecorder metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the number of messages pushed.
+     */
+    public long getPushed() {
+        return pushed.sum();
+    }
+
+    /**
+     * Returns the number of messages consumed and deleted.
+     */
+    public long getConsumed() {
+        return consumed.sum();
+    }
+
+    /**
+     * Returns the number of failed pushes of a batch.
+     */
+    public long getPushErrors() {
+        return pushErrors.sum();
+    }
+
+    /**
+     * Returns the number of failed gets of a batch and of messages that could
+     * not be deleted.
+     */
+    public long getConsumeErrors() {
+        return consumeErrors.sum();
+    }
+
+    /**
+     * Returns the time in nanoseconds from pushing a message until a consumer
+     * received it.
+     */
+    public Histogram getEndToEndLatency() {
+        return endToEnd;
+    }
+
+    /**
+     * Returns the request metrics recorded during the run.
+     */
+    public DefaultMetricsRecorder getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the duration of the run in milliseconds.
+     */
+    public long getElapsed() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+
+    /**
+     * Returns the number of messages pushed per second.
+     */
+    public double getPushRate() {
+        return rate(getPushed());
+    }
+
+    /**
+     * Returns the number of messages consumed per second.
+     */
+    public double getConsumeRate() {
+        return rate(getConsumed());
+    }
+
+    private double rate(long count) {
+        return elapsed > 0 ? count * 1e9 / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("elapsed %d ms, pushed %d (%.0f/s, %d errors), consumed %d (%.0f/s, %d errors)%n",
+                getElapsed(), getPushed(), getPushRate(), getPushErrors(),
+                getConsumed(), getConsumeRate(), getConsumeErrors()));
+        sb.append(String.format("%-11s %9s %9s %9s %9s %9s%n", "latency ms",
+                "count", "p50", "p99", "p99.9", "max"));
+        append(sb, "push", metrics.getLatency(Operation.PUSH));
+        append(sb, "get", metrics.getLatency(Operation.GET));
+        append(sb, "delete", metrics.getLatency(Operation.DELETE));
+        append(sb, "end-to-end", endToEnd);
+        sb.append("retries by status: ").append(metrics.getRetriesByStatus());
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String name, Histogram h) {
+        sb.append(String.format("%-11s %9d %9.2f %9.2f %9.2f %9.2f%n", name,
+                h.getCount(), h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6,
+                h.getPercentile(99.9) / 1e6, h.getMax() / 1e6));
+    }
+}
@@ -0,0 +1,451 @@
+package io.iron.ironmq.testing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.iron.ironmq.Cloud;
+import io.iron.ironmq.util.DaemonThreadFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The LocalIronMQServer class is an in-process stand-in for the IronMQ v1
+ * API, for tests and load tests that must not depend on the public service.
+ * <p>
+ * It implements the endpoints a Client uses: pushing, reserving, touching,
+ * releasing and deleting messages, clearing a queue, adding subscribers and
+ * reading the queue size.
+ * Reserved messages that are not deleted within their timeout become
+ * available again, and delayed and expired messages are honored. Subscribers
+ * are stored but messages are not pushed to them. Any project ID is accepted
+ * as long as the request carries an OAuth token.
+ * <p>
+ * To exercise the client's error handling, the server can delay responses
+ * and answer a share of requests with 503 Service Unavailable.
+ * <p>
+ * Unless the JVM runs with -Dsun.net.httpserver.nodelay=true, delayed ACKs
+ * stall responses by about 40 ms. The server does not set this JVM-wide
+ * property itself; the test build and LoadGenerator do.
+ *
+ * <pre>
+ * LocalIronMQServer server = new LocalIronMQServer();
+ * server.start();
+ * Client client = new Client("project", "token", server.getCloud(), mapper);
+ * ...
+ * server.stop();
+ * </pre>
+ */
+public class LocalIronMQServer {
+    Logger log = LoggerFactory.getLogger(getClass());
+
+    final private int port;
+    final private ObjectMapper mapper = new ObjectMapper();
+    final private ConcurrentMap<String, LocalQueue> queues = new ConcurrentHashMap<String, LocalQueue>();
+    final private ConcurrentMap<String, JsonNode> subscribers = new ConcurrentHashMap<String, JsonNode>();
+    final private AtomicLong nextId = new AtomicLong();
+    final private AtomicLong requests = new AtomicLong();
+    private volatile long minLatency;
+    private volatile long maxLatency;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructs a server listening on a free port of the loopback interface.
+     */
+    public LocalIronMQServer() {
+        this(0);
+    }
+
+    /**
+     * Constructs a server listening on the given port of the loopback
+     * interface.
+     *
+     * @param port The port, or 0 for a free one.
+     */
+    public LocalIronMQServer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Starts accepting requests.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The server is already started");
+        }
+        executor = Executors.newCachedThreadPool(new DaemonThreadFactory(
+                "ironmq-local-server"));
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    LocalIronMQServer.this.handle(exchange);
+                } catch (RuntimeException e) {
+                    log.warn(e.getMessage(), e);
+                    respond(exchange, 500, "Internal error");
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and drops all queues.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+        queues.clear();
+        subscribers.clear();
+    }
+
+    /**
+     * Returns a Cloud pointing at this server. The server must be started.
+     */
+    public synchronized Cloud getCloud() {
+        if (server == null) {
+            throw new IllegalStateException("The server is not started");
+        }
+        return new Cloud("http", "127.0.0.1", server.getAddress().getPort());
+    }
+
+    /**
+     * Delays every response by a random time within the given bounds.
+     *
+     * @param min The minimum delay in milliseconds.
+     * @param max The maximum delay in milliseconds.
+     */
+    public void setLatency(long min, long max) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("invalid latency bounds");
+        }
+        this.minLatency = min;
+        this.maxLatency = max;
+    }
+
+    /**
+     * Sets the share of requests answered with 503 Service Unavailable, or
+     * the status set with setErrorStatus(), without being processed.
+     *
+     * @param errorRate The share, between 0 and 1.
+     */
+    public void setErrorRate(double errorRate) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("errorRate has to be within 0..1");
+        }
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Sets the status of the responses injected by setErrorRate().
+     *
+     * @param errorStatus An HTTP status of 400 or above; 503 by default.
+     */
+    public void setErrorStatus(int errorStatus) {
+        if (errorStatus < 400 || errorStatus > 599) {
+            throw new IllegalArgumentException("errorStatus has to be within 400..599");
+        }
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Returns the number of requests received, including rejected ones.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of messages in a queue that were neither deleted
+     * nor expired, whether they are reserved or not.
+     *
+     * @param name The name of the queue.
+     */
+    public int getSize(String name) {
+        LocalQueue queue = queues.get(name);
+        return queue != null ? queue.size(System.currentTimeMillis()) : 0;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        byte[] body = readBody(exchange.getRequestBody());
+        long latency = maxLatency > 0 ? ThreadLocalRandom.current().nextLong(
+                minLatency, maxLatency + 1) : 0;
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            int status = errorStatus;
+            respond(exchange, status, status == 503 ? "Service Unavailable"
+                    : "Injected error");
+            return;
+        }
+        String auth = exchange.getRequestHeaders().getFirst("Authorization");
+        if (auth == null || !auth.startsWith("OAuth ")) {
+            respond(exchange, 401, "Invalid token");
+            return;
+        }
+
+        // /1/projects/{project}/queues/{name}[/messages[/{id}[/touch|/release]]|/clear|/subscribers]
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length < 6 || !"1".equals(path[1])
+                || !"projects".equals(path[2]) || !"queues".equals(path[4])) {
+            respond(exchange, 404, "Not found");
+            return;
+        }
+        String name = path[5];
+        String method = exchange.getRequestMethod();
+        String resource = path.length > 6 ? path[6] : "";
+        long now = System.currentTimeMillis();
+        try {
+            if (path.length == 6 && "GET".equals(method)) {
+                info(exchange, name, now);
+            } else if ("messages".equals(resource) && path.length == 7) {
+                if ("POST".equals(method)) {
+                    push(exchange, name, body, now);
+                } else if ("GET".equals(method)) {
+                    reserve(exchange, name, now);
+                } else if ("DELETE".equals(method)) {
+                    deleteAll(exchange, name, body);
+                } else {
+                    respond(exchange, 405, "Method not allowed");
+                }
+            } else if ("messages".equals(resource) && path.length == 8
+                    && "DELETE".equals(method)) {
+                LocalQueue queue = queues.get(name);
+                if (queue != null && queue.delete(path[7])) {
+                    respond(exchange, 200, "Deleted");
+                } else {
+                    respond(exchange, 404, "Message not found");
+                }
+            } else if ("messages".equals(resource) && path.length == 9
+                    && "POST".equals(method)) {
+                LocalQueue queue = queues.get(name);
+                if ("touch".equals(path[8])) {
+                    if (queue != null && queue.touch(path[7], now)) {
+                        respond(exchange, 200, "Touched");
+                    } else {
+                        respond(exchange, 404, "Message not found");
+                    }
+                } else if ("release".equals(path[8])) {
+                    long delay = body.length > 0 ? mapper.readTree(
+                            new String(body, "UTF-8")).path("delay")
+                            .getLongValue() : 0;
+                    if (queue != null && queue.release(path[7], delay, now)) {
+                        respond(exchange, 200, "Released");
+                    } else {
+                        respond(exchange, 404, "Message not found");
+                    }
+                } else {
+                    respond(exchange, 404, "Not found");
+                }
+            } else if ("clear".equals(resource) && "POST".equals(method)) {
+                LocalQueue queue = queues.get(name);
+                if (queue != null) {
+                    queue.clear();
+                }
+                respond(exchange, 200, "Cleared");
+            } else if ("subscribers".equals(resource) && "POST".equals(method)) {
+                subscribers.put(name, mapper.readTree(new String(body, "UTF-8")));
+                respond(exchange, 200, "Updated");
+            } else {
+                respond(exchange, 404, "Not found");
+            }
+        } catch (JsonProcessingException e) {
+            respond(exchange, 400, "Invalid JSON: " + e.getMessage());
+        }
+    }
+
+    private void info(HttpExchange exchange, String name, long now)
+            throws IOException {
+        LocalQueue queue = queues.get(name);
+        if (queue == null) {
+            respond(exchange, 404, "Queue not found");
+            return;
+        }
+        Map<String, Object> info = new LinkedHashMap<String, Object>();
+        info.put("id", name);
+        info.put("name", name);
+        info.put("size", queue.size(now));
+        info.put("total_messages", queue.getTotalMessages());
+        respondJson(exchange, 200, info);
+    }
+
+    private void push(HttpExchange exchange, String name, byte[] body, long now)
+            throws IOException {
+        JsonNode messages = body.length > 0 ? mapper.readTree(
+                new String(body, "UTF-8")).get("messages") : null;
+        if (messages == null || !messages.isArray() || messages.size() == 0) {
+            respond(exchange, 400, "No messages");
+            return;
+        }
+        LocalQueue queue = queue(name);
+        List<String> ids = new ArrayList<String>(messages.size());
+        for (JsonNode message : messages) {
+            JsonNode text = message.get("body");
+            if (text == null || !text.isTextual()) {
+                respond(exchange, 400, "Message body is required");
+                return;
+            }
+        }
+        for (JsonNode message : messages) {
+            String id = Long.toString(nextId.incrementAndGet());
+            queue.push(id, message.get("body").getTextValue(),
+                    longValue(message, "timeout"), longValue(message, "delay"),
+                    longValue(message, "expires_in"), now);
+            ids.add(id);
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("ids", ids);
+        result.put("msg", "Messages put on queue.");
+        respondJson(exchange, 200, result);
+    }
+
+    private void reserve(HttpExchange exchange, String name, long now)
+            throws IOException {
+        Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+        int n = 1;
+        Long timeout = null;
+        try {
+            if (params.containsKey("n")) {
+                n = Integer.parseInt(params.get("n"));
+            }
+            if (params.containsKey("timeout")) {
+                timeout = Long.parseLong(params.get("timeout"));
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "Invalid parameter");
+            return;
+        }
+        List<Map<String, Object>> messages = new ArrayList<Map<String, Object>>();
+        LocalQueue queue = queues.get(name);
+        if (queue != null) {
+            for (LocalQueue.Entry entry : queue.reserve(n, timeout, now)) {
+                Map<String, Object> message = new LinkedHashMap<String, Object>();
+                message.put("id", entry.id);
+                message.put("body", entry.body);
+                message.put("timeout", timeout != null ? timeout : entry.timeout);
+                message.put("reserved_count", entry.reservedCount);
+                messages.add(message);
+            }
+        }
+        respondJson(exchange, 200, Collections.singletonMap("messages", messages));
+    }
+
+    private void deleteAll(HttpExchange exchange, String name, byte[] body)
+            throws IOException {
+        JsonNode ids = body.length > 0 ? mapper.readTree(
+                new String(body, "UTF-8")).get("ids") : null;
+        if (ids == null || !ids.isArray()) {
+            respond(exchange, 400, "No ids");
+            return;
+        }
+        LocalQueue queue = queues.get(name);
+        for (JsonNode id : ids) {
+            if (queue != null) {
+                queue.delete(id.getTextValue());
+            }
+        }
+        respond(exchange, 200, "Deleted");
+    }
+
+    private LocalQueue queue(String name) {
+        LocalQueue queue = queues.get(name);
+        if (queue == null) {
+            LocalQueue created = new LocalQueue();
+            queue = queues.putIfAbsent(name, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    private static Long longValue(JsonNode message, String field) {
+        JsonNode value = message.get(field);
+        return value != null && value.isNumber() ? value.getLongValue() : null;
+    }
+
+    private static Map<String, String> query(String query) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq > 0) {
+                    params.put(param.substring(0, eq), param.substring(eq + 1));
+                }
+            }
+        }
+        return params;
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int len = 0;
+            int n;
+            while ((n = in.read(buffer, len, buffer.length - len)) >= 0) {
+                len += n;
+                if (len == buffer.length) {
+                    byte[] grown = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, len);
+                    buffer = grown;
+                }
+            }
+            byte[] body = new byte[len];
+            System.arraycopy(buffer, 0, body, 0, len);
+            return body;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String msg)
+            throws IOException {
+        respondJson(exchange, status, Collections.singletonMap("msg", msg));
+    }
+
+    private void respondJson(HttpExchange exchange, int status, Object value)
+            throws IOException {
+        byte[] json = mapper.writeValueAsBytes(value);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, json.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(json);
+        out.close();
+    }
+}
@@ -0,0 +1,202 @@
+package io.iron.ironmq.testing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The messages of one queue of a LocalIronMQServer.
+ * <p>
+ * Available messages wait in a FIFO; delayed and reserved ones wait in a
+ * priority queue ordered by the time they become available again. Deleted
+ * and expired messages are dropped lazily when they reach the head of either.
+ */
+class LocalQueue {
+    static final long DEFAULT_TIMEOUT = 60;
+    static final long DEFAULT_EXPIRES_IN = 7 * 24 * 3600;
+
+    private final Map<String, Entry> messages = new HashMap<String, Entry>();
+    private final ArrayDeque<Entry> available = new ArrayDeque<Entry>();
+    private final PriorityQueue<Entry> pending = new PriorityQueue<Entry>(16,
+            new Comparator<Entry>() {
+                public int compare(Entry a, Entry b) {
+                    return Long.compare(a.dueAt, b.dueAt);
+                }
+            });
+    private long totalMessages;
+
+    static class Entry {
+        final String id;
+        final String body;
+        final long timeout;
+        final long expiresAt;
+        long dueAt;
+        int reservedCount;
+        // the timeout of the current reservation in seconds, 0 if the
+        // message is not reserved
+        long reservation;
+
+        Entry(String id, String body, long timeout, long expiresAt) {
+            this.id = id;
+            this.body = body;
+            this.timeout = timeout;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Adds a message.
+     *
+     * @param id The message ID.
+     * @param body The body.
+     * @param timeout The default reservation timeout in seconds, or null.
+     * @param delay The delay in seconds before it becomes available, or null.
+     * @param expiresIn The time in seconds until it expires, or null.
+     * @param now The current time in milliseconds.
+     */
+    synchronized void push(String id, String body, Long timeout, Long delay,
+            Long expiresIn, long now) {
+        Entry entry = new Entry(id, body,
+                timeout != null ? timeout : DEFAULT_TIMEOUT,
+                now + 1000 * (expiresIn != null ? expiresIn : DEFAULT_EXPIRES_IN));
+        messages.put(id, entry);
+        totalMessages++;
+        if (delay != null && delay > 0) {
+            entry.dueAt = now + 1000 * delay;
+            pending.add(entry);
+        } else {
+            available.add(entry);
+        }
+    }
+
+    /**
+     * Reserves up to n available messages.
+     *
+     * @param n The maximum number of messages.
+     * @param timeout The reservation timeout in seconds, or null to use each
+     * message's own.
+     * @param now The current time in milliseconds.
+     */
+    synchronized List<Entry> reserve(int n, Long timeout, long now) {
+        promote(now);
+        List<Entry> reserved = new ArrayList<Entry>(Math.min(n, available.size()));
+        while (reserved.size() < n && !available.isEmpty()) {
+            Entry entry = available.poll();
+            if (!isLive(entry, now)) {
+                continue;
+            }
+            entry.reservedCount++;
+            entry.reservation = timeout != null ? timeout : entry.timeout;
+            entry.dueAt = now + 1000 * entry.reservation;
+            pending.add(entry);
+            reserved.add(entry);
+        }
+        return reserved;
+    }
+
+    /**
+     * Deletes a message, reserved or not.
+     *
+     * @return Whether the message existed.
+     */
+    synchronized boolean delete(String id) {
+        return messages.remove(id) != null;
+    }
+
+    /**
+     * Restarts the reservation of a reserved message.
+     *
+     * @return Whether the message is reserved.
+     */
+    synchronized boolean touch(String id, long now) {
+        Entry entry = reserved(id, now);
+        if (entry == null) {
+            return false;
+        }
+        pending.remove(entry);
+        entry.dueAt = now + 1000 * entry.reservation;
+        pending.add(entry);
+        return true;
+    }
+
+    /**
+     * Ends the reservation of a reserved message.
+     *
+     * @param delay The delay in seconds before it becomes available again.
+     * @return Whether the message was reserved.
+     */
+    synchronized boolean release(String id, long delay, long now) {
+        Entry entry = reserved(id, now);
+        if (entry == null) {
+            return false;
+        }
+        pending.remove(entry);
+        entry.reservation = 0;
+        if (delay > 0) {
+            entry.dueAt = now + 1000 * delay;
+            pending.add(entry);
+        } else {
+            available.add(entry);
+        }
+        return true;
+    }
+
+    private Entry reserved(String id, long now) {
+        promote(now);
+        Entry entry = messages.get(id);
+        if (entry == null || entry.reservation == 0 || !isLive(entry, now)) {
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void clear() {
+        messages.clear();
+        available.clear();
+        pending.clear();
+    }
+
+    /**
+     * Returns the number of messages that were neither deleted nor expired.
+     */
+    synchronized int size(long now) {
+        promote(now);
+        int size = 0;
+        for (Entry entry : messages.values()) {
+            if (entry.expiresAt > now) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    synchronized long getTotalMessages() {
+        return totalMessages;
+    }
+
+    // Moves messages whose delay or reservation has ended to the available ones.
+    private void promote(long now) {
+        while (!pending.isEmpty() && pending.peek().dueAt <= now) {
+            Entry entry = pending.poll();
+            entry.reservation = 0;
+            if (isLive(entry, now)) {
+                available.add(entry);
+            }
+        }
+    }
+
+    private boolean isLive(Entry entry, long now) {
+        if (messages.get(entry.id) != entry) {
+            return false;
+        }
+        if (entry.expiresAt <= now) {
+            messages.remove(entry.id);
+            return false;
+        }
+        return true;
+    }
+}
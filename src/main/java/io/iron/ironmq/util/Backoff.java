@@ -0,0 +1,62 @@
+package io.iron.ironmq.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter. Every call to next() doubles the delay up
+ * to the maximum; the returned delay is drawn between half and all of it so
+ * that pollers started together drift apart. reset() starts over from the
+ * initial delay.
+ * <p>
+ * Instances are not thread-safe; use one per polling thread.
+ */
+public class Backoff {
+    private final long initial;
+    private final long max;
+    private long current;
+
+    /**
+     * @param initial The first delay in milliseconds.
+     * @param max The largest delay in milliseconds.
+     */
+    public Backoff(long initial, long max) {
+        if (initial < 1 || max < initial) {
+            throw new IllegalArgumentException("0 < initial <= max required");
+        }
+        this.initial = initial;
+        this.max = max;
+        this.current = initial;
+    }
+
+    /**
+     * Returns the next delay in milliseconds and increases the delay.
+     */
+    public long next() {
+        long delay = current;
+        current = Math.min(max, current * 2);
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * Sleeps for the next delay.
+     */
+    public void sleep() throws InterruptedException {
+        Thread.sleep(next());
+    }
+
+    /**
+     * Resets the delay to the initial one.
+     */
+    public void reset() {
+        current = initial;
+    }
+
+    public long getInitial() {
+        return initial;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,26 @@
+package io.iron.ironmq.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ThreadFactory creating numbered daemon threads, so that background work of
+ * the client never keeps the JVM alive.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    final private String prefix;
+    final private AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param prefix The prefix of the thread names.
+     */
+    public DaemonThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
@@ -1,39 +1,22 @@
 package io.iron.ironmq.util;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import io.iron.ironmq.codec.BodyFormat;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.Charset;
-import java.util.zip.InflaterInputStream;
-import org.apache.commons.codec.binary.Base64;
 
 /**
  * @author Sergei Barinov
  *
  */
 public class MessageBodyInflater {
+    /**
+     * Decodes a message body into text, detecting the format it was written
+     * in.
+     *
+     * @see BodyFormat#decodeToString(String)
+     */
     public static String inflateBody(String body) throws Exception {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        InputStream in = null;
-        byte[] decompressedData = null;
-        try {
-            in = new InflaterInputStream(new ByteArrayInputStream(
-                    Base64.decodeBase64(body)));
-            getBytes(in, out);
-            out.flush();
-            decompressedData = out.toByteArray();
-            return new String(decompressedData, Charset.forName("UTF-8"));
-        } finally {
-            if (in != null) {
-                in.close();
-                in = null;
-            }
-            if (out != null)
-                out.close();
-            out = null;
-
-        }
+        return BodyFormat.decodeToString(body);
     }
 
     public static void getBytes(InputStream in, OutputStream out)
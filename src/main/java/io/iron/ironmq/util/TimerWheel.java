@@ -0,0 +1,205 @@
+package io.iron.ironmq.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel for large numbers of short tasks that are mostly
+ * cancelled or rescheduled before they run, such as reservation timeouts.
+ * <p>
+ * Scheduling and cancelling are lock-free and O(1): new tasks are handed to
+ * a single worker thread through a concurrent queue, and the worker moves
+ * them into the bucket of the tick they are due in. Every tick the worker
+ * runs the due tasks of one bucket, so tasks run up to one tick late. Tasks
+ * run on the worker thread and must be short; they must not block.
+ */
+public class TimerWheel {
+    public static final long DEFAULT_TICK = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    Logger log = LoggerFactory.getLogger(getClass());
+
+    final private long tickNanos;
+    final private int mask;
+    final private ArrayDeque<Task>[] buckets;
+    final private ConcurrentLinkedQueue<Task> added = new ConcurrentLinkedQueue<Task>();
+    final private long startTime;
+    final private Thread worker;
+    private volatile boolean stopped;
+
+    /**
+     * A scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Cancels the task unless it already ran.
+         *
+         * @return Whether the task was cancelled by this call.
+         */
+        boolean cancel();
+
+        /**
+         * Returns whether the task ran or is running.
+         */
+        boolean isExpired();
+    }
+
+    /**
+     * Constructs a timer wheel ticking every 10 ms with 512 buckets.
+     *
+     * @param name The name of the worker thread.
+     */
+    public TimerWheel(String name) {
+        this(name, DEFAULT_TICK, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructs a timer wheel.
+     *
+     * @param name The name of the worker thread.
+     * @param tick The duration of a tick, the precision of the timer.
+     * @param unit The unit of the tick.
+     * @param wheelSize The number of buckets, rounded up to a power of two.
+     * Tasks due within tick * wheelSize are found in a single pass.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(String name, long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0 || wheelSize < 1 || wheelSize > 1 << 20) {
+            throw new IllegalArgumentException("invalid timer wheel settings");
+        }
+        this.tickNanos = Math.max(unit.toNanos(tick), 1000000);
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        size = Math.max(size, 1);
+        this.mask = size - 1;
+        this.buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<Task>();
+        }
+        this.startTime = System.nanoTime();
+        this.worker = new DaemonThreadFactory(name).newThread(new Runnable() {
+            public void run() {
+                work();
+            }
+        });
+        worker.start();
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task The task.
+     * @param delay The time after which it runs.
+     * @param unit The unit of the delay.
+     * @return A handle to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("The timer wheel is stopped");
+        }
+        Task t = new Task(task, System.nanoTime() - startTime
+                + Math.max(0, unit.toNanos(delay)));
+        added.add(t);
+        return t;
+    }
+
+    /**
+     * Stops the worker thread. Tasks that did not run yet never run.
+     */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        long tick = 0;
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep = deadline - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            transfer(tick);
+            expire(buckets[(int) (tick & mask)], deadline);
+            tick++;
+        }
+        added.clear();
+        for (ArrayDeque<Task> bucket : buckets) {
+            bucket.clear();
+        }
+    }
+
+    // Moves newly scheduled tasks into their buckets.
+    private void transfer(long tick) {
+        Task task;
+        while ((task = added.poll()) != null) {
+            if (task.state.get() != PENDING) {
+                continue;
+            }
+            long due = task.deadline / tickNanos;
+            task.rounds = Math.max(0, (due - tick) / (mask + 1));
+            buckets[(int) (Math.max(due, tick) & mask)].add(task);
+        }
+    }
+
+    private void expire(ArrayDeque<Task> bucket, long deadline) {
+        Iterator<Task> it = bucket.iterator();
+        while (it.hasNext()) {
+            Task task = it.next();
+            if (task.state.get() != PENDING) {
+                it.remove();
+            } else if (task.rounds > 0) {
+                task.rounds--;
+            } else if (task.deadline <= deadline) {
+                it.remove();
+                task.run();
+            }
+        }
+    }
+
+    private class Task implements Timeout {
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        long rounds;
+
+        Task(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        void run() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.warn("Timer task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.codec.BodyFormat;
+import io.iron.ironmq.codec.LzCodec;
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncQueueTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        queue = client.queue("async");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testAsyncQueueUsesQueueSettings() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        LeaseManager leases = new LeaseManager(queue);
+        try {
+            AsyncQueue async = new AsyncQueue(queue, executor, scheduler);
+            Assert.assertSame(queue, async.getQueue());
+            queue.setBodyFormat(new BodyFormat(new LzCodec()));
+            async.pushAsync("compressed").get();
+            Message msg = queue.get();
+            Assert.assertTrue(msg.getEncodedBody().startsWith("~l:"));
+
+            leases.track(msg);
+            async.deleteAsync(msg.getId()).get();
+            Assert.assertEquals(0, leases.size());
+
+            // the client's policy is read when a request fails, not copied
+            client.setRetryPolicy(RetryPolicy.none());
+            client.setCircuitBreaker(server.getCloud(), null);
+            server.setErrorRate(1);
+            long requests = server.getRequestCount();
+            try {
+                async.getAsync(1).get();
+                Assert.fail("the request should fail");
+            } catch (ExecutionException e) {
+                Assert.assertEquals(503, ((HTTPException) e.getCause()).getStatusCode());
+            }
+            Assert.assertEquals(requests + 1, server.getRequestCount());
+        } finally {
+            leases.close();
+            executor.shutdown();
+            scheduler.shutdown();
+        }
+    }
+}
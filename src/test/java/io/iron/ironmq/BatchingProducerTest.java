@@ -0,0 +1,198 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.metrics.DefaultMetricsRecorder;
+import io.iron.ironmq.metrics.Operation;
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchingProducerTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+    private DefaultMetricsRecorder metrics;
+    private BatchingProducer producer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        metrics = new DefaultMetricsRecorder();
+        client.setMetricsRecorder(metrics);
+        queue = client.queue("produce");
+        producer = new BatchingProducer(queue);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        producer.close();
+        client.close();
+        server.stop();
+    }
+
+    private long pushes() {
+        return metrics.getLatency(Operation.PUSH).getCount();
+    }
+
+    @Test
+    public void testLingerCollectsABatch() throws Exception {
+        producer.setLinger(200);
+        producer.start();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<String>[] futures = new CompletableFuture[5];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = producer.send("message " + i);
+        }
+        Set<String> ids = new HashSet<String>();
+        for (CompletableFuture<String> future : futures) {
+            ids.add(future.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(5, ids.size());
+        Assert.assertEquals(1, pushes());
+        Assert.assertEquals("message 0", queue.get().getBody());
+    }
+
+    @Test
+    public void testFullBatchesDoNotLinger() throws Exception {
+        producer.setLinger(60000);
+        producer.setBatchSize(10);
+        producer.setSenders(1);
+        producer.start();
+        @SuppressWarnings("unchecked")
+        CompletableFuture<String>[] futures = new CompletableFuture[25];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = producer.send("message " + i);
+        }
+        for (int i = 0; i < 20; i++) {
+            futures[i].get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(2, pushes());
+        Assert.assertFalse(futures[24].isDone());
+        Assert.assertEquals(5, producer.getBufferedCount());
+
+        producer.flush();
+        Assert.assertTrue(futures[24].isDone());
+        Assert.assertEquals(3, pushes());
+        Assert.assertEquals(25, server.getSize("produce"));
+    }
+
+    @Test
+    public void testByteBudgetSendsEarly() throws Exception {
+        producer.setLinger(60000);
+        producer.setMaxBatchBytes(1000);
+        producer.start();
+        Random random = new Random(5);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 800; i++) {
+            body.append((char) ('a' + random.nextInt(26)));
+        }
+        CompletableFuture<String> first = producer.send(body.toString());
+        CompletableFuture<String> second = producer.send(body.toString());
+        // the two exceed the budget together, so the first goes on its own
+        first.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, pushes());
+        Assert.assertFalse(second.isDone());
+        Assert.assertEquals(1, producer.getBufferedCount());
+    }
+
+    @Test
+    public void testDropDoesNotEncode() throws Exception {
+        producer.setBufferSize(2);
+        producer.setOverflowPolicy(BatchingProducer.OverflowPolicy.DROP);
+        producer.send("one");
+        producer.send("two");
+        long encoded = metrics.getOriginalBytes(Operation.PUSH);
+        CompletableFuture<String> dropped = producer.send("three");
+        try {
+            dropped.get();
+            Assert.fail("the message should be dropped");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof BufferFullException);
+        }
+        Assert.assertEquals(encoded, metrics.getOriginalBytes(Operation.PUSH));
+
+        producer.start();
+        producer.flush();
+        Assert.assertEquals(2, server.getSize("produce"));
+    }
+
+    @Test
+    public void testFailThrows() throws Exception {
+        producer.setBufferSize(1);
+        producer.setOverflowPolicy(BatchingProducer.OverflowPolicy.FAIL);
+        producer.send("one");
+        try {
+            producer.send("two");
+            Assert.fail("the buffer is full");
+        } catch (BufferFullException e) {
+        }
+    }
+
+    @Test
+    public void testBlockWaitsForSpace() throws Exception {
+        producer.setBufferSize(2);
+        producer.send("one");
+        producer.send("two");
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread blocked = new Thread() {
+            public void run() {
+                try {
+                    result.set(producer.send("three").get());
+                } catch (Exception e) {
+                    result.set(e);
+                }
+            }
+        };
+        blocked.start();
+        blocked.join(200);
+        Assert.assertTrue(blocked.isAlive());
+
+        producer.start();
+        blocked.join(5000);
+        Assert.assertTrue(result.get() instanceof String);
+        producer.flush();
+        Assert.assertEquals(3, server.getSize("produce"));
+    }
+
+    @Test
+    public void testFlushBeforeStartFails() throws Exception {
+        producer.flush();
+        CompletableFuture<String> future = producer.send("waiting");
+        try {
+            producer.flush();
+            Assert.fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        producer.start();
+        producer.flush();
+        Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, server.getSize("produce"));
+    }
+
+    @Test
+    public void testCloseSendsBufferedMessages() throws Exception {
+        producer.setLinger(60000);
+        producer.start();
+        CompletableFuture<String> future = producer.send("last");
+        producer.close();
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(1, server.getSize("produce"));
+        try {
+            producer.send("late");
+            Assert.fail("the producer is closed");
+        } catch (IllegalStateException e) {
+        }
+    }
+}
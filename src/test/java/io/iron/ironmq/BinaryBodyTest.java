@@ -0,0 +1,49 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.nio.ByteBuffer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryBodyTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        queue = client.queue("binary");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testBinaryBodies() throws Exception {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        queue.push(data);
+        queue.push(ByteBuffer.wrap(data, 128, 128));
+        queue.push("text");
+
+        Messages msgs = queue.get(3);
+        Assert.assertArrayEquals(data, msgs.getMessage(0).getBodyBytes());
+        Assert.assertEquals(ByteBuffer.wrap(data, 128, 128),
+                msgs.getMessage(1).getBodyBuffer());
+        Assert.assertEquals("text", msgs.getMessage(2).getBody());
+        Assert.assertArrayEquals("text".getBytes("UTF-8"),
+                msgs.getMessage(2).getBodyBytes());
+    }
+}
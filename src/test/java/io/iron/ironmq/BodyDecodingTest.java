@@ -0,0 +1,76 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.codec.BodyFormat;
+import io.iron.ironmq.codec.LzCodec;
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.util.concurrent.ForkJoinPool;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BodyDecodingTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        queue = client.queue("decoding");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testForwardKeepsEncodedBodies() throws Exception {
+        queue.setBodyFormat(new BodyFormat(new LzCodec()));
+        queue.push("routed");
+        Message msg = queue.get();
+        String encoded = msg.getEncodedBody();
+        Assert.assertTrue(encoded.startsWith("~l:"));
+
+        Queue target = client.queue("target");
+        target.forward(msg);
+        Message forwarded = target.get();
+        Assert.assertEquals(encoded, forwarded.getEncodedBody());
+        Assert.assertEquals("routed", forwarded.getBody());
+        Assert.assertEquals(encoded, forwarded.getEncodedBody());
+
+        forwarded.setBody("changed");
+        Assert.assertNull(forwarded.getEncodedBody());
+        target.forward(forwarded);
+        Assert.assertEquals("changed", target.get().getBody());
+    }
+
+    @Test
+    public void testParallelDecoding() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        queue.setBodyFormat(new BodyFormat(new LzCodec()));
+        queue.setParallelDecoding(pool, 0);
+        for (int i = 0; i < 20; i++) {
+            StringBuilder body = new StringBuilder();
+            for (int j = 0; j < 500; j++) {
+                body.append("message ").append(i).append(' ');
+            }
+            queue.push(body.toString());
+        }
+        Messages msgs = queue.get(20);
+        Assert.assertEquals(20, msgs.size());
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(msgs.getMessage(i).getBody()
+                    .startsWith("message " + i + " message " + i));
+            Assert.assertEquals(4500 + 500 * Integer.toString(i).length(),
+                    msgs.getMessage(i).getBody().length());
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,92 @@
+package io.iron.ironmq;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    private static void record(CircuitBreaker breaker, int requests,
+            boolean failed) throws Exception {
+        for (int i = 0; i < requests; i++) {
+            breaker.acquire("host");
+            breaker.record(failed);
+        }
+    }
+
+    @Test
+    public void testOpensAtTheFailureRate() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 10, 10000, 10000);
+        record(breaker, 5, false);
+        record(breaker, 4, true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        record(breaker, 1, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            breaker.acquire("host");
+            Assert.fail("expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+        }
+    }
+
+    @Test
+    public void testNeedsTheMinimumRequests() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 10, 10000, 10000);
+        record(breaker, 9, true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        record(breaker, 1, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testProbeClosesOrReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 10000, 50);
+        record(breaker, 2, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(60);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquire("host");
+        // only a single probe is let through
+        try {
+            breaker.acquire("host");
+            Assert.fail("expected CircuitOpenException");
+        } catch (CircuitOpenException e) {
+        }
+        breaker.record(true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(60);
+        breaker.acquire("host");
+        breaker.record(false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // the failures before opening no longer count
+        record(breaker, 1, true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testLostProbeIsReplaced() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 10000, 50);
+        record(breaker, 1, true);
+        Thread.sleep(60);
+        breaker.acquire("host");
+        Thread.sleep(60);
+        breaker.acquire("host");
+        breaker.record(false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOldFailuresLeaveTheWindow() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 4, 100, 10000);
+        record(breaker, 3, true);
+        Thread.sleep(150);
+        record(breaker, 3, false);
+        record(breaker, 1, true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidSettings() {
+        new CircuitBreaker(0, 10, 10000, 10000);
+    }
+}
@@ -0,0 +1,93 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientTest {
+    private LocalIronMQServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private List<Client> clients() {
+        return Arrays.asList(
+                new Client("project", "token", server.getCloud(),
+                        new ObjectMapper(), new PooledTransport()),
+                new Client("project", "token", server.getCloud(),
+                        new ObjectMapper(), new UrlConnectionTransport()));
+    }
+
+    @Test
+    public void testStreamsMessagesWithNonAsciiBodies() throws Exception {
+        // long enough that multi-byte characters straddle read buffers
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append("\u00e4\u20ac\ud83d\ude00");
+        }
+        List<String> bodies = Arrays.asList("Gr\u00fc\u00dfe",
+                "\u65e5\u672c\u8a9e\u306e\u30e1\u30c3\u30bb\u30fc\u30b8",
+                "line one\nline two\r\n\ttabbed \"quoted\" \\", large.toString(),
+                "\ud83d\ude80 rocket");
+        for (Client client : clients()) {
+            try {
+                Queue queue = client.queue("streaming");
+                List<String> ids = queue.push(bodies);
+                Messages msgs = queue.get(bodies.size());
+                List<String> received = new ArrayList<String>();
+                for (int i = 0; i < msgs.size(); i++) {
+                    Assert.assertEquals(ids.get(i), msgs.getMessage(i).getId());
+                    received.add(msgs.getMessage(i).getBody());
+                }
+                Assert.assertEquals(bodies, received);
+                Assert.assertTrue(queue.deleteMessages(msgs).isSuccessful());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReadsErrorBodies() throws Exception {
+        int n = 0;
+        for (Client client : clients()) {
+            try {
+                client.setRetryPolicy(RetryPolicy.none());
+                Queue queue = client.queue("errors-" + n++);
+                try {
+                    queue.getInfo();
+                    Assert.fail("expected HTTPException");
+                } catch (HTTPException e) {
+                    Assert.assertEquals(404, e.getStatusCode());
+                    Assert.assertEquals("{\"msg\":\"Queue not found\"}", e.getMessage());
+                }
+                queue.push("one");
+                try {
+                    queue.deleteMessage("unknown");
+                    Assert.fail("expected HTTPException");
+                } catch (HTTPException e) {
+                    Assert.assertEquals(404, e.getStatusCode());
+                    Assert.assertEquals("{\"msg\":\"Message not found\"}", e.getMessage());
+                }
+                // the connection is usable after an error body was read
+                Assert.assertEquals("one", queue.get().getBody());
+            } finally {
+                client.close();
+            }
+        }
+    }
+}
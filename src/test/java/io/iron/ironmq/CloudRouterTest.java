@@ -0,0 +1,168 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloudRouterTest {
+    private LocalIronMQServer first;
+    private LocalIronMQServer second;
+    private Cloud a;
+    private Cloud b;
+    private Client client;
+    private CloudRouter router;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        first = new LocalIronMQServer();
+        first.start();
+        second = new LocalIronMQServer();
+        second.start();
+        a = first.getCloud();
+        b = second.getCloud();
+        client = new Client("project", "token", Arrays.asList(a, b),
+                new ObjectMapper(), new PooledTransport());
+        client.setCircuitBreaker(a, null);
+        client.setCircuitBreaker(b, null);
+        router = client.getRouter();
+        queue = client.queue("router");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void testOrderedRanking() {
+        Assert.assertEquals(Arrays.asList(a, b), router.rank(client));
+        for (int i = 0; i < 5; i++) {
+            router.record(a, 1, true);
+        }
+        Assert.assertTrue(router.getErrorRate(a) > CloudRouter.UNHEALTHY_ERROR_RATE);
+        Assert.assertFalse(router.isHealthy(client, a));
+        Assert.assertEquals(Arrays.asList(b, a), router.rank(client));
+
+        // an open circuit breaker makes a Cloud unhealthy as well
+        CircuitBreaker breaker = new CircuitBreaker(0.5, 1, 10000, 60000);
+        breaker.record(true);
+        client.setCircuitBreaker(b, breaker);
+        Assert.assertFalse(router.isHealthy(client, b));
+    }
+
+    @Test
+    public void testLatencyRanking() {
+        router.setMode(CloudRouter.Mode.LATENCY);
+        router.record(a, 50, false);
+        router.record(b, 5, false);
+        Assert.assertEquals(b, first(200));
+
+        // twenty times the weight outweighs ten times the latency
+        router.setWeight(a, 20);
+        Assert.assertEquals(a, first(200));
+    }
+
+    // Returns the Cloud ranked first most often.
+    private Cloud first(int ranks) {
+        int firstA = 0;
+        for (int i = 0; i < ranks; i++) {
+            List<Cloud> ranked = router.rank(client);
+            Assert.assertEquals(2, ranked.size());
+            if (ranked.get(0) == a) {
+                firstA++;
+            }
+        }
+        // only a small share explores the other Cloud
+        Assert.assertTrue(firstA < ranks / 4 || firstA > ranks * 3 / 4);
+        return firstA > ranks / 2 ? a : b;
+    }
+
+    @Test
+    public void testPushFailsOverOnUnavailable() throws Exception {
+        first.setErrorRate(1);
+        String id = queue.push("failover");
+        first.setErrorRate(0);
+
+        Assert.assertEquals(0, first.getSize("router"));
+        Assert.assertEquals(1, second.getSize("router"));
+        Message msg = queue.get();
+        Assert.assertEquals(id, msg.getId());
+        Assert.assertEquals("failover", msg.getBody());
+        Assert.assertEquals(b, msg.getOrigin());
+    }
+
+    @Test
+    public void testWhenPushesFailOver() throws Exception {
+        Assert.assertTrue(client.canFailOver(new HTTPException(503, "unavailable"), false));
+        Assert.assertTrue(client.canFailOver(new HTTPException(429, "too many"), false));
+        Assert.assertTrue(client.canFailOver(new CircuitOpenException("host"), false));
+        Assert.assertTrue(client.canFailOver(new ConnectException(), false));
+        // the push may have been stored
+        Assert.assertFalse(client.canFailOver(new HTTPException(500, "error"), false));
+        Assert.assertFalse(client.canFailOver(new HTTPException(504, "timeout"), false));
+        Assert.assertFalse(client.canFailOver(new SocketTimeoutException(), false));
+        Assert.assertFalse(client.canFailOver(new HTTPException(400, "bad"), false));
+
+        Assert.assertTrue(client.canFailOver(new HTTPException(500, "error"), true));
+        Assert.assertTrue(client.canFailOver(new SocketTimeoutException(), true));
+        Assert.assertFalse(client.canFailOver(new HTTPException(404, "not found"), true));
+    }
+
+    @Test
+    public void testDeleteGoesToTheOrigin() throws Exception {
+        first.setErrorRate(1);
+        queue.push("origin");
+        first.setErrorRate(0);
+        Message msg = queue.get();
+        Assert.assertEquals(b, msg.getOrigin());
+
+        long requests = first.getRequestCount();
+        queue.deleteMessage(msg);
+        Assert.assertEquals(requests, first.getRequestCount());
+        Assert.assertEquals(0, second.getSize("router"));
+    }
+
+    @Test
+    public void testAsyncDeleteGoesToTheOrigin() throws Exception {
+        first.setErrorRate(1);
+        queue.push("origin");
+        first.setErrorRate(0);
+        Message msg = queue.get();
+
+        long requests = first.getRequestCount();
+        client.asyncQueue("router").deleteAsync(msg).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(requests, first.getRequestCount());
+        Assert.assertEquals(0, second.getSize("router"));
+    }
+
+    @Test
+    public void testDeleteByIdWalksTheClouds() throws Exception {
+        first.setErrorRate(1);
+        String id = queue.push("walk");
+        first.setErrorRate(0);
+
+        long requests = first.getRequestCount();
+        queue.deleteMessage(id);
+        // the first Cloud answered 404 before the second deleted it
+        Assert.assertEquals(requests + 1, first.getRequestCount());
+        Assert.assertEquals(0, second.getSize("router"));
+
+        try {
+            queue.deleteMessage(id);
+            Assert.fail("expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeleteMessagesTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+    // the status batch deletes are answered with, or 0 to process them
+    private volatile int batchStatus;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        final PooledTransport pooled = new PooledTransport();
+        Transport transport = new Transport() {
+            public TransportResponse execute(String method, URL url,
+                    Map<String, String> headers, byte[] body)
+                    throws IOException {
+                boolean batch = "DELETE".equals(method) && body != null;
+                if (batch && batchStatus != 0) {
+                    server.setErrorStatus(batchStatus);
+                    server.setErrorRate(1);
+                } else {
+                    server.setErrorRate(0);
+                }
+                return pooled.execute(method, url, headers, body);
+            }
+
+            public void close() {
+                pooled.close();
+            }
+        };
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), transport);
+        client.setRetryPolicy(RetryPolicy.none());
+        client.setCircuitBreaker(server.getCloud(), null);
+        queue = client.queue("delete");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    private List<String> reserve(int n) throws Exception {
+        List<String> bodies = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            bodies.add("message " + i);
+        }
+        queue.push(bodies);
+        List<String> ids = new ArrayList<String>();
+        while (ids.size() < n) {
+            for (Message msg : queue.get(Queue.MAX_MESSAGES).getMessages()) {
+                ids.add(msg.getId());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void testDeletesInBatches() throws Exception {
+        List<String> ids = reserve(150);
+        long requests = server.getRequestCount();
+        DeleteResult result = queue.deleteMessages(ids);
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(ids, result.getDeleted());
+        Assert.assertEquals(requests + 2, server.getRequestCount());
+        Assert.assertEquals(0, server.getSize("delete"));
+    }
+
+    @Test
+    public void testRejectedBatchIsDeletedOneByOne() throws Exception {
+        for (int status : new int[] { 400, 404 }) {
+            List<String> ids = reserve(3);
+            ids.add("unknown");
+            batchStatus = status;
+            long requests = server.getRequestCount();
+            DeleteResult result = queue.deleteMessages(ids);
+            Assert.assertEquals(requests + 1 + ids.size(), server.getRequestCount());
+            Assert.assertEquals(ids.subList(0, 3), result.getDeleted());
+            Assert.assertEquals(404, ((HTTPException) result.getFailed()
+                    .get("unknown")).getStatusCode());
+            Assert.assertEquals(0, server.getSize("delete"));
+        }
+    }
+
+    @Test
+    public void testOtherErrorsFailTheWholeBatch() throws Exception {
+        List<String> ids = reserve(100);
+        for (int status : new int[] { 401, 403, 429, 500, 503 }) {
+            batchStatus = status;
+            long requests = server.getRequestCount();
+            DeleteResult result = queue.deleteMessages(ids);
+            Assert.assertEquals(requests + 1, server.getRequestCount());
+            Assert.assertTrue(result.getDeleted().isEmpty());
+            Assert.assertEquals(ids.size(), result.getFailed().size());
+            Assert.assertEquals(status, ((HTTPException) result.getFailed()
+                    .get(ids.get(0))).getStatusCode());
+        }
+        Assert.assertEquals(100, server.getSize("delete"));
+    }
+}
@@ -0,0 +1,122 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GetCoalescerTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        queue = client.queue("coalesced");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testGetCoalescing() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            queue.push("message " + i);
+        }
+        queue.setGetCoalescing(100, TimeUnit.MILLISECONDS);
+        long requests = server.getRequestCount();
+        final Set<String> ids = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger empty = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[40];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        Optional<Message> msg = queue.tryGet();
+                        if (msg.isPresent()) {
+                            ids.add(msg.get().getId());
+                        } else {
+                            empty.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(30, ids.size());
+        Assert.assertEquals(10, empty.get());
+        Assert.assertTrue(server.getRequestCount() - requests < 10);
+    }
+
+    @Test
+    public void testInterruptedGetReleasesItsMessage() throws Exception {
+        queue.push("leader");
+        queue.push("interrupted");
+        queue.setGetCoalescing(1, TimeUnit.SECONDS);
+        final AtomicReference<Message> leader = new AtomicReference<Message>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    leader.set(queue.get());
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+        final AtomicReference<Throwable> interrupted = new AtomicReference<Throwable>();
+        Thread second = new Thread() {
+            public void run() {
+                try {
+                    queue.get();
+                } catch (Throwable e) {
+                    interrupted.set(e);
+                }
+            }
+        };
+        first.start();
+        Thread.sleep(100);
+        second.start();
+        Thread.sleep(100);
+        second.interrupt();
+        second.join();
+        first.join();
+        Assert.assertNull(failure.get());
+        Assert.assertTrue(interrupted.get() instanceof InterruptedIOException);
+        Assert.assertEquals("leader", leader.get().getBody());
+
+        // the interrupted caller's message is available again
+        Messages msgs = queue.reserve(10, 30);
+        Assert.assertEquals(1, msgs.size());
+        Assert.assertEquals("interrupted", msgs.getMessage(0).getBody());
+    }
+}
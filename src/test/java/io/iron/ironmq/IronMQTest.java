@@ -1,5 +1,6 @@
 package io.iron.ironmq;
 
+import java.util.concurrent.TimeUnit;
 import org.codehaus.jackson.annotate.JsonAutoDetect.Visibility;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.annotate.JsonSerialize.Inclusion;
@@ -31,15 +32,16 @@ public class IronMQTest {
                 .withFieldVisibility(Visibility.ANY));
         Client c = new Client(projectId, token, Cloud.ironAWSUSEast, mapper);
         Queue q = c.queue("test-queue");
+        q.setInfoTtl(0, TimeUnit.SECONDS);
 
-        // q.clear();
+        q.clear();
 
-        // Assert.assertEquals(0, q.getSize());
+        Assert.assertEquals(0, q.getSize());
 
         final String body = "Hello World ABCDEFGHIJKLMNOPQRSTUVWXYZАБВГДЕЁЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯ->.1234567890!";
         q.push(body, 30l);
 
-        // Assert.assertEquals(1, q.getSize());\
+        Assert.assertEquals(1, q.getSize());
         // try {
         // Thread.sleep(20000);
         // } catch (InterruptedException e) {
@@ -0,0 +1,129 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LeaseManagerTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+    // touches of this message wait for the latch, then fail
+    private volatile String stalled;
+    private final CountDownLatch unstall = new CountDownLatch(1);
+    private final AtomicInteger touches = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        final PooledTransport pooled = new PooledTransport();
+        Transport transport = new Transport() {
+            public TransportResponse execute(String method, URL url,
+                    Map<String, String> headers, byte[] body)
+                    throws IOException {
+                String path = url.getPath();
+                if (path.endsWith("/touch")) {
+                    touches.incrementAndGet();
+                    if (path.endsWith("/" + stalled + "/touch")) {
+                        try {
+                            unstall.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw new IOException("stalled");
+                    }
+                }
+                return pooled.execute(method, url, headers, body);
+            }
+
+            public void close() {
+                pooled.close();
+            }
+        };
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), transport);
+        queue = client.queue("leases");
+    }
+
+    @After
+    public void tearDown() {
+        unstall.countDown();
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testLeaseExtension() throws Exception {
+        LeaseManager leases = new LeaseManager(queue);
+        try {
+            queue.push("slow");
+            Message msg = queue.reserve(1, 1).getMessage(0);
+            leases.track(msg);
+            Thread.sleep(2500);
+            Assert.assertFalse(queue.tryGet().isPresent());
+            queue.deleteMessage(msg);
+            Assert.assertEquals(0, leases.size());
+
+            queue.push("released");
+            msg = queue.reserve(1, 1).getMessage(0);
+            leases.track(msg);
+            queue.releaseMessage(msg, 0);
+            Assert.assertEquals(0, leases.size());
+            Assert.assertEquals("released", queue.get().getBody());
+        } finally {
+            leases.close();
+        }
+    }
+
+    @Test
+    public void testStalledTouchDoesNotHoldUpOthers() throws Exception {
+        LeaseManager leases = new LeaseManager(queue);
+        try {
+            queue.push("stalled");
+            queue.push("extended");
+            Messages msgs = queue.reserve(2, 1);
+            stalled = msgs.getMessage(0).getId();
+            leases.track(msgs);
+            Thread.sleep(2500);
+
+            // only the stalled message ran out of its reservation
+            Messages available = queue.reserve(10, 30);
+            Assert.assertEquals(1, available.size());
+            Assert.assertEquals(stalled, available.getMessage(0).getId());
+            Assert.assertTrue(touches.get() >= 3);
+        } finally {
+            unstall.countDown();
+            leases.close();
+        }
+    }
+
+    @Test
+    public void testClosingKeepsANewerLeaseManager() throws Exception {
+        LeaseManager first = new LeaseManager(queue);
+        LeaseManager second = new LeaseManager(queue);
+        first.close();
+        try {
+            queue.push("tracked");
+            Message msg = queue.get();
+            second.track(msg);
+            queue.deleteMessage(msg);
+            Assert.assertEquals(0, second.size());
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNoConcurrency() throws Exception {
+        new LeaseManager(queue, 0);
+    }
+}
@@ -0,0 +1,181 @@
+package io.iron.ironmq;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryQueueTest {
+    private MemoryBroker broker;
+    private MessageQueue queue;
+
+    @Before
+    public void setUp() {
+        broker = new MemoryBroker();
+        queue = broker.queue("jobs");
+    }
+
+    @After
+    public void tearDown() {
+        broker.close();
+    }
+
+    @Test
+    public void testPushGetDelete() throws Exception {
+        Assert.assertSame(queue, broker.queue("jobs"));
+        List<String> ids = queue.push(Arrays.asList("one", "two", "three"));
+        Messages msgs = queue.get(2);
+        Assert.assertEquals(2, msgs.size());
+        Assert.assertEquals("one", msgs.getMessage(0).getBody());
+        Assert.assertEquals(ids.get(1), msgs.getMessage(1).getId());
+        Assert.assertTrue(queue.deleteMessages(msgs).isSuccessful());
+
+        Message last = queue.get();
+        Assert.assertEquals("three", last.getBody());
+        queue.deleteMessage(last);
+        Assert.assertFalse(queue.tryGet().isPresent());
+        try {
+            queue.deleteMessage(last.getId());
+            Assert.fail("deleting twice should fail");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        }
+        try {
+            queue.get();
+            Assert.fail("an empty queue should throw");
+        } catch (EmptyQueueException e) {
+        }
+    }
+
+    @Test
+    public void testReservationDelayAndExpiry() throws Exception {
+        String id = queue.push("reserved");
+        queue.push("delayed", null, null, 1L);
+        queue.push("expired", 0L);
+        Assert.assertEquals(id, queue.reserve(10, 1).getMessage(0).getId());
+        Assert.assertFalse(queue.tryGet().isPresent());
+
+        Thread.sleep(1200);
+        Messages msgs = queue.get(10);
+        Assert.assertEquals(2, msgs.size());
+        Assert.assertEquals("delayed", msgs.getMessage(0).getBody());
+        Assert.assertEquals("reserved", msgs.getMessage(1).getBody());
+
+        DeleteResult result = queue.deleteMessages(Arrays.asList(id, "unknown"));
+        Assert.assertEquals(Collections.singletonList(id), result.getDeleted());
+        Assert.assertTrue(result.getFailed().containsKey("unknown"));
+
+        queue.clear();
+        Assert.assertEquals(0, ((MemoryQueue) queue).size());
+    }
+
+    @Test
+    public void testGetUsesTheDefaultTimeout() throws Exception {
+        // as with a Queue, the reservation timeout of the get applies
+        queue.push("text", null, 1L);
+        Message binary = new Message();
+        binary.setBodyBytes(new byte[] { 1, 2, 3 });
+        binary.setTimeout(1L);
+        queue.pushAll(binary);
+
+        Messages msgs = queue.get(10);
+        Assert.assertEquals(2, msgs.size());
+        for (Message msg : msgs.getMessages()) {
+            Assert.assertEquals(Long.valueOf(Queue.DEFAULT_TIMEOUT), msg.getTimeout());
+        }
+        Thread.sleep(1200);
+        Assert.assertFalse(queue.tryGet().isPresent());
+
+        queue.push("explicit");
+        Assert.assertEquals(Long.valueOf(1), queue.reserve(10, 1)
+                .getMessage(0).getTimeout());
+        Thread.sleep(1200);
+        Assert.assertEquals("explicit", queue.get().getBody());
+    }
+
+    @Test
+    public void testRejectsOutOfRangeSeconds() throws Exception {
+        long tooLong = Integer.MAX_VALUE + 1L;
+        try {
+            queue.push("timeout", null, tooLong);
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            queue.push("delay", null, null, tooLong);
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            queue.push("expiresIn", -1L);
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        Assert.assertEquals(0, ((MemoryQueue) queue).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReserveRejectsZeroMessages() throws Exception {
+        queue.reserve(0, 60);
+    }
+
+    @Test
+    public void testConcurrentConsumersSeeEveryMessageOnce() throws Exception {
+        final int producers = 4;
+        final int perProducer = 5000;
+        final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers + 4);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int p = 0; p < producers; p++) {
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.push(Integer.toString(i));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        for (int c = 0; c < 4; c++) {
+            new Thread() {
+                public void run() {
+                    PollingConsumer consumer = new PollingConsumer(queue, 50, 60);
+                    while (seen.size() < producers * perProducer) {
+                        try {
+                            Messages msgs = consumer.poll(10, TimeUnit.MILLISECONDS);
+                            for (Message msg : msgs.getMessages()) {
+                                if (!seen.add(msg.getId())) {
+                                    duplicates.incrementAndGet();
+                                }
+                            }
+                            queue.deleteMessages(msgs);
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                            break;
+                        }
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(producers * perProducer, seen.size());
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(0, ((MemoryQueue) queue).size());
+    }
+}
@@ -0,0 +1,146 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.metrics.DefaultMetricsRecorder;
+import io.iron.ironmq.metrics.Operation;
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageListenerContainerTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+    private DefaultMetricsRecorder metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        metrics = new DefaultMetricsRecorder();
+        client.setMetricsRecorder(metrics);
+        queue = client.queue("listen");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    private void awaitSize(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getSize("listen") != size) {
+            Assert.assertTrue("queue holds " + server.getSize("listen")
+                    + " messages instead of " + size,
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testProcessesAndDeletesInBatches() throws Exception {
+        final int count = 250;
+        for (int i = 0; i < count; i++) {
+            queue.push("message " + i);
+        }
+        final Set<String> seen = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch done = new CountDownLatch(count);
+        MessageListenerContainer container = new MessageListenerContainer(queue,
+                new MessageListener() {
+                    public void onMessage(Message msg) {
+                        if (seen.add(msg.getBody())) {
+                            done.countDown();
+                        }
+                    }
+                }, 4);
+        container.setEmptyBackoff(10, 50);
+        container.start();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(container.stop(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(count, container.getProcessedCount());
+        Assert.assertEquals(0, server.getSize("listen"));
+        long deletes = metrics.getLatency(Operation.DELETE).getCount();
+        Assert.assertTrue(deletes >= 3 && deletes < count / 5);
+    }
+
+    @Test
+    public void testFailedMessagesAreNotDeleted() throws Exception {
+        queue.push(Collections.nCopies(5, "good"));
+        queue.push("bad");
+        final CountDownLatch done = new CountDownLatch(6);
+        MessageListenerContainer container = new MessageListenerContainer(queue,
+                new MessageListener() {
+                    public void onMessage(Message msg) {
+                        done.countDown();
+                        if ("bad".equals(msg.getBody())) {
+                            throw new IllegalStateException("cannot process");
+                        }
+                    }
+                }, 2);
+        container.setAckLinger(20);
+        container.setEmptyBackoff(10, 50);
+        container.start();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(container.stop(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(5, container.getProcessedCount());
+        Assert.assertEquals(1, container.getFailedCount());
+        Assert.assertEquals(1, server.getSize("listen"));
+    }
+
+    @Test
+    public void testStopWaitsForMessagesInFlight() throws Exception {
+        queue.push(Collections.nCopies(4, "slow"));
+        final CountDownLatch started = new CountDownLatch(4);
+        MessageListenerContainer container = new MessageListenerContainer(queue,
+                new MessageListener() {
+                    public void onMessage(Message msg) throws Exception {
+                        started.countDown();
+                        Thread.sleep(300);
+                    }
+                }, 4);
+        container.setAckLinger(10000);
+        container.setEmptyBackoff(10, 50);
+        container.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(container.stop(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, container.getProcessedCount());
+        // deleted by the final flush rather than after the linger
+        Assert.assertEquals(0, server.getSize("listen"));
+    }
+
+    @Test
+    public void testMessagesProcessedAfterStopAreDeleted() throws Exception {
+        queue.push(Collections.nCopies(2, "blocked"));
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        MessageListenerContainer container = new MessageListenerContainer(queue,
+                new MessageListener() {
+                    public void onMessage(Message msg) throws Exception {
+                        started.countDown();
+                        release.await();
+                    }
+                }, 2);
+        container.setEmptyBackoff(10, 50);
+        container.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(container.stop(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, server.getSize("listen"));
+
+        release.countDown();
+        awaitSize(0);
+        Assert.assertEquals(2, container.getProcessedCount());
+    }
+}
@@ -0,0 +1,269 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+    private File directory;
+    private Outbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        client.setCircuitBreaker(server.getCloud(), null);
+        queue = client.queue("outbox");
+        directory = new File(folder.getRoot(), "spool");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (outbox != null) {
+            outbox.close();
+        }
+        client.close();
+        server.stop();
+    }
+
+    private Outbox open() throws Exception {
+        if (outbox != null) {
+            outbox.close();
+        }
+        outbox = new Outbox(queue, directory);
+        outbox.setSegmentSize(1024);
+        outbox.start();
+        return outbox;
+    }
+
+    // Appends messages while IronMQ refuses every push, so that none of them
+    // is forwarded, and closes the outbox.
+    private void spool(String... bodies) throws Exception {
+        Message[] msgs = new Message[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            msgs[i] = new Message();
+            msgs[i].setBody(bodies[i]);
+        }
+        spool(msgs);
+    }
+
+    private void spool(Message... msgs) throws Exception {
+        client.setRetryPolicy(RetryPolicy.none());
+        server.setErrorRate(1);
+        open();
+        for (Message msg : msgs) {
+            outbox.push(msg);
+        }
+        outbox.close();
+        outbox = null;
+        server.setErrorRate(0);
+        client.setRetryPolicy(new RetryPolicy());
+    }
+
+    private List<String> bodies() throws Exception {
+        List<String> bodies = new ArrayList<String>();
+        Messages msgs = queue.get(Queue.MAX_MESSAGES);
+        for (Message msg : msgs.getMessages()) {
+            bodies.add(msg.getBody());
+        }
+        return bodies;
+    }
+
+    private File[] segments() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(Outbox.SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(files);
+        return files;
+    }
+
+    // Returns the offsets of the records of a segment.
+    private static List<Integer> records(File segment) throws Exception {
+        List<Integer> offsets = new ArrayList<Integer>();
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            int position = 0;
+            while (position + Outbox.RECORD_HEADER <= file.length()) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length <= 0) {
+                    break;
+                }
+                offsets.add(position);
+                position += Outbox.RECORD_HEADER + length;
+            }
+        } finally {
+            file.close();
+        }
+        return offsets;
+    }
+
+    @Test
+    public void testReplaysUnforwardedMessagesInOrder() throws Exception {
+        spool("one", "two", "three", "four");
+        Assert.assertEquals(0, server.getSize("outbox"));
+
+        open();
+        Assert.assertTrue(outbox.awaitForwarded(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("one", "two", "three", "four"),
+                bodies());
+
+        // forwarded messages are not replayed
+        open();
+        outbox.push("five");
+        Assert.assertTrue(outbox.awaitForwarded(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("five"), bodies());
+    }
+
+    @Test
+    public void testBinaryBodiesAreSpooledEncoded() throws Exception {
+        byte[] bytes = new byte[300];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        Message binary = new Message();
+        binary.setBodyBytes(bytes);
+        spool(binary);
+
+        open();
+        Assert.assertTrue(outbox.awaitForwarded(10, TimeUnit.SECONDS));
+        Message msg = queue.get();
+        Assert.assertTrue(msg.hasBinaryBody());
+        Assert.assertArrayEquals(bytes, msg.getBodyBytes());
+    }
+
+    @Test
+    public void testRecoveryStopsAtTheLastIntactRecord() throws Exception {
+        spool("one", "two", "three");
+        File segment = segments()[0];
+        List<Integer> records = records(segment);
+        Assert.assertEquals(3, records.size());
+        // flip a byte of the last body, as a torn write would leave it
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            long position = records.get(2) + Outbox.RECORD_HEADER
+                    + Outbox.PAYLOAD_HEADER;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xFF);
+        } finally {
+            file.close();
+        }
+
+        open();
+        outbox.push("four");
+        Assert.assertTrue(outbox.awaitForwarded(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("one", "two", "four"), bodies());
+        // the new record took the place of the corrupt one
+        Assert.assertEquals(records, records(segment));
+    }
+
+    @Test
+    public void testRecoveryIgnoresATruncatedRecord() throws Exception {
+        spool("one", "two");
+        File segment = segments()[0];
+        List<Integer> records = records(segment);
+        // a record whose length points past the end of the segment
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.seek(records.get(1));
+            file.writeInt((int) file.length());
+        } finally {
+            file.close();
+        }
+
+        open();
+        Assert.assertTrue(outbox.awaitForwarded(10, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("one"), bodies());
+    }
+
+    @Test
+    public void testForwardedSegmentsAreReclaimed() throws Exception {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            padding.append((char) ('a' + i * 7 % 26));
+        }
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            expected.add(i + " " + padding);
+        }
+        spool(expected.toArray(new String[expected.size()]));
+        File[] spooled = segments();
+        Assert.assertTrue(spooled.length > 2);
+
+        open();
+        Assert.assertTrue(outbox.awaitForwarded(10, TimeUnit.SECONDS));
+        Assert.assertEquals(expected, bodies());
+
+        File[] remaining = segments();
+        Assert.assertEquals(1, remaining.length);
+        Assert.assertEquals(spooled[spooled.length - 1], remaining[0]);
+        DataInputStream checkpoint = new DataInputStream(new FileInputStream(
+                new File(directory, Outbox.CHECKPOINT_FILE)));
+        try {
+            Assert.assertEquals(spooled.length, checkpoint.readLong());
+            List<Integer> records = records(remaining[0]);
+            int last = records.get(records.size() - 1);
+            RandomAccessFile file = new RandomAccessFile(remaining[0], "r");
+            try {
+                file.seek(last);
+                Assert.assertEquals(last + Outbox.RECORD_HEADER
+                        + file.readInt(), checkpoint.readInt());
+            } finally {
+                file.close();
+            }
+        } finally {
+            checkpoint.close();
+        }
+    }
+
+    @Test
+    public void testForwardingRetriesInjectedErrors() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxRetries(20);
+        policy.setDelays(1, 5);
+        client.setRetryPolicy(policy);
+        server.setErrorRate(0.3);
+        open();
+        outbox.setBatchSize(10);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            expected.add("message " + i);
+            outbox.push("message " + i);
+        }
+        Assert.assertTrue(outbox.awaitForwarded(30, TimeUnit.SECONDS));
+        server.setErrorRate(0);
+
+        Assert.assertEquals(200, server.getSize("outbox"));
+        List<String> bodies = new ArrayList<String>();
+        while (bodies.size() < 200) {
+            bodies.addAll(bodies());
+        }
+        Assert.assertEquals(expected, bodies);
+    }
+}
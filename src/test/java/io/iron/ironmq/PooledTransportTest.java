@@ -0,0 +1,114 @@
+package io.iron.ironmq;
+
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultRoutePlanner;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.message.BasicHttpRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledTransportTest {
+    private ServerSocket hung;
+    private PooledTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        // accepts connections into its backlog, but never answers
+        hung = new ServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (transport != null) {
+            transport.close();
+        }
+        hung.close();
+    }
+
+    // The route HttpClient itself leases connections for.
+    private static HttpRoute plannedRoute(Cloud cloud) throws Exception {
+        return new DefaultRoutePlanner(DefaultSchemePortResolver.INSTANCE)
+                .determineRoute(new HttpHost(cloud.host, cloud.port, cloud.scheme),
+                        new BasicHttpRequest("GET", "/"), HttpClientContext.create());
+    }
+
+    private URL url() throws Exception {
+        return new URL("http", "127.0.0.1", hung.getLocalPort(), "/");
+    }
+
+    @Test
+    public void testMaxConnectionsApplyToHttpsClouds() throws Exception {
+        transport = new PooledTransport();
+        Assert.assertEquals(plannedRoute(Cloud.ironAWSUSEast),
+                PooledTransport.route(Cloud.ironAWSUSEast));
+        Assert.assertEquals(PooledTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+                transport.getMaxConnections(Cloud.ironAWSUSEast));
+        transport.setMaxConnections(Cloud.ironAWSUSEast, 77);
+        Assert.assertEquals(77, transport.getMaxConnections(Cloud.ironAWSUSEast));
+        Assert.assertEquals(PooledTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+                transport.getMaxConnections(Cloud.ironRackspaceDFW));
+
+        Cloud local = new Cloud("http", "127.0.0.1", hung.getLocalPort());
+        Assert.assertEquals(plannedRoute(local), PooledTransport.route(local));
+    }
+
+    @Test
+    public void testHungServerTimesOut() throws Exception {
+        transport = new PooledTransport();
+        transport.setTimeouts(1000, 200, 200);
+        long start = System.nanoTime();
+        try {
+            transport.execute("GET", url(), Collections.<String, String> emptyMap(), null);
+            Assert.fail("expected SocketTimeoutException");
+        } catch (SocketTimeoutException e) {
+        }
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testWaitingForAPooledConnectionTimesOut() throws Exception {
+        transport = new PooledTransport(1, 1, 30000);
+        transport.setTimeouts(1000, 3000, 200);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // holds the only connection until its socket timeout
+            Future<TransportResponse> holder = executor.submit(new Callable<TransportResponse>() {
+                public TransportResponse call() throws Exception {
+                    return transport.execute("GET", url(),
+                            Collections.<String, String> emptyMap(), null);
+                }
+            });
+            Thread.sleep(300);
+            long start = System.nanoTime();
+            try {
+                transport.execute("GET", url(), Collections.<String, String> emptyMap(), null);
+                Assert.fail("expected ConnectionPoolTimeoutException");
+            } catch (ConnectionPoolTimeoutException e) {
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            Assert.assertFalse(holder.isDone());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNegativeTimeouts() {
+        transport = new PooledTransport();
+        transport.setTimeouts(-1, 0, 0);
+    }
+}
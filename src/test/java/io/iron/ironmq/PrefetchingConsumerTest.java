@@ -0,0 +1,119 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrefetchingConsumerTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+    private PrefetchingConsumer consumer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        queue = client.queue("prefetch");
+    }
+
+    @After
+    public void tearDown() {
+        if (consumer != null) {
+            consumer.close();
+        }
+        client.close();
+        server.stop();
+    }
+
+    private void awaitBuffered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (consumer.getBufferedCount() != count) {
+            Assert.assertTrue("buffered " + consumer.getBufferedCount()
+                    + " instead of " + count, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testWatermarks() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            queue.push("message " + i);
+        }
+        consumer = new PrefetchingConsumer(queue, 60);
+        consumer.setWatermarks(10, 5);
+        consumer.setEmptyBackoff(10, 50);
+        consumer.start();
+        awaitBuffered(10);
+        Thread.sleep(300);
+        Assert.assertEquals(10, consumer.getBufferedCount());
+
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(ids.add(consumer.take().getId()));
+        }
+        // still above the low watermark
+        Thread.sleep(300);
+        Assert.assertEquals(6, consumer.getBufferedCount());
+        Assert.assertTrue(ids.add(consumer.take().getId()));
+        awaitBuffered(10);
+
+        while (ids.size() < 50) {
+            Message msg = consumer.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(msg);
+            Assert.assertTrue(ids.add(msg.getId()));
+        }
+        Assert.assertNull(consumer.poll(200, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(0, consumer.getExpiredCount());
+    }
+
+    @Test
+    public void testExpiredMessagesAreDropped() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            queue.push("message " + i);
+        }
+        consumer = new PrefetchingConsumer(queue, 1);
+        consumer.setEmptyBackoff(10, 50);
+        consumer.start();
+        awaitBuffered(3);
+        // half of the reservation is left for processing
+        Thread.sleep(700);
+        Assert.assertNull(consumer.poll(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(3, consumer.getExpiredCount());
+
+        // IronMQ hands them out again once their reservation ran out
+        Assert.assertNotNull(consumer.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseWakesTakers() throws Exception {
+        consumer = new PrefetchingConsumer(queue, 60);
+        consumer.setEmptyBackoff(10, 50);
+        consumer.start();
+        Thread closer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                }
+                consumer.close();
+            }
+        };
+        closer.start();
+        try {
+            consumer.take();
+            Assert.fail("take should fail once the consumer is closed");
+        } catch (InterruptedException e) {
+        }
+        closer.join();
+        Assert.assertNull(consumer.poll(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,115 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PushAllTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+    private final AtomicInteger posts = new AtomicInteger();
+    // the number of the push from which on the server answers 503
+    private volatile int failFrom = Integer.MAX_VALUE;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        final PooledTransport pooled = new PooledTransport();
+        Transport transport = new Transport() {
+            public TransportResponse execute(String method, URL url,
+                    Map<String, String> headers, byte[] body)
+                    throws IOException {
+                if ("POST".equals(method)
+                        && posts.incrementAndGet() >= failFrom) {
+                    server.setErrorRate(1);
+                }
+                return pooled.execute(method, url, headers, body);
+            }
+
+            public void close() {
+                pooled.close();
+            }
+        };
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), transport);
+        client.setRetryPolicy(RetryPolicy.none());
+        client.setCircuitBreaker(server.getCloud(), null);
+        queue = client.queue("push");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    private static Message[] messages(int n) {
+        Message[] msgs = new Message[n];
+        for (int i = 0; i < msgs.length; i++) {
+            msgs[i] = new Message();
+            msgs[i].setBody("message " + i);
+        }
+        return msgs;
+    }
+
+    @Test
+    public void testPushesInBatches() throws Exception {
+        Assert.assertEquals(250, queue.pushAll(messages(250)).size());
+        Assert.assertEquals(3, posts.get());
+        Assert.assertEquals(250, server.getSize("push"));
+    }
+
+    @Test
+    public void testPartialPush() throws Exception {
+        failFrom = 2;
+        try {
+            queue.pushAll(messages(150));
+            Assert.fail("the second batch should fail");
+        } catch (PartialPushException e) {
+            Assert.assertEquals(503, ((HTTPException) e.getCause()).getStatusCode());
+            Assert.assertEquals(100, e.getPushedIds().size());
+            server.setErrorRate(0);
+            Assert.assertEquals(100, server.getSize("push"));
+            Assert.assertEquals(e.getPushedIds().get(0), queue.get().getId());
+        }
+    }
+
+    @Test
+    public void testFailedFirstBatchIsNotPartial() throws Exception {
+        failFrom = 1;
+        try {
+            queue.pushAll(messages(150));
+            Assert.fail("the first batch should fail");
+        } catch (HTTPException e) {
+            Assert.assertEquals(503, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testInvalidMessagesFailBeforeAnyPush() throws Exception {
+        Message[] msgs = messages(150);
+        msgs[120].setBody(null);
+        try {
+            queue.pushAll(msgs);
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        msgs[120] = null;
+        try {
+            queue.pushAll(msgs);
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        Assert.assertEquals(0, posts.get());
+        Assert.assertEquals(0, server.getSize("push"));
+    }
+}
@@ -0,0 +1,167 @@
+package io.iron.ironmq;
+
+import io.iron.ironmq.testing.LocalIronMQServer;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueueInfoTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        queue = client.queue("info");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testInfoIsCachedAndShared() throws Exception {
+        queue.push(Arrays.asList("one", "two", "three"));
+        Queue.Info info = queue.getInfo();
+        Assert.assertEquals("info", info.getName());
+        Assert.assertEquals(3, info.getSize());
+        Assert.assertEquals(3, info.getTotalMessages());
+        queue.push("four");
+        Assert.assertEquals(3, queue.getSize());
+
+        queue.setInfoTtl(1, TimeUnit.HOURS);
+        server.setLatency(50, 50);
+        long requests = server.getRequestCount();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger fours = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[50];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        if (queue.getSize() == 4) {
+                            fours.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(threads.length, fours.get());
+        Assert.assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testInfoLoadFailingWithAnErrorReleasesWaiters() throws Exception {
+        queue.push("one");
+        final PooledTransport pooled = new PooledTransport();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Transport transport = new Transport() {
+            public TransportResponse execute(String method, URL url,
+                    Map<String, String> headers, byte[] body)
+                    throws IOException {
+                if (loading.getCount() > 0) {
+                    loading.countDown();
+                    try {
+                        waiting.await();
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new Error("injected");
+                }
+                return pooled.execute(method, url, headers, body);
+            }
+
+            public void close() {
+                pooled.close();
+            }
+        };
+        Client failing = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), transport);
+        final Queue shared = failing.queue("info");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Queue.Info> getInfo = new Callable<Queue.Info>() {
+                public Queue.Info call() throws Exception {
+                    return shared.getInfo();
+                }
+            };
+            Future<Queue.Info> loader = executor.submit(getInfo);
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<Queue.Info> waiter = executor.submit(getInfo);
+            waiting.countDown();
+            try {
+                loader.get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the injected error");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("injected", e.getCause().getMessage());
+            }
+            try {
+                // either shares the failed load or makes its own request
+                Assert.assertEquals("info",
+                        waiter.get(5, TimeUnit.SECONDS).getName());
+            } catch (ExecutionException e) {
+                Assert.assertEquals("injected", e.getCause().getCause().getMessage());
+            }
+            Assert.assertEquals("info", shared.getInfo().getName());
+        } finally {
+            executor.shutdownNow();
+            failing.close();
+        }
+    }
+
+    @Test
+    public void testInfoTtlSetDuringALoadApplies() throws Exception {
+        queue.push("one");
+        queue.setInfoTtl(1, TimeUnit.HOURS);
+        server.setLatency(200, 200);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Queue.Info> load = executor.submit(new Callable<Queue.Info>() {
+                public Queue.Info call() throws Exception {
+                    return queue.getInfo();
+                }
+            });
+            Thread.sleep(100);
+            queue.setInfoTtl(0, TimeUnit.SECONDS);
+            Assert.assertEquals(1, load.get(5, TimeUnit.SECONDS).getSize());
+        } finally {
+            executor.shutdownNow();
+        }
+        server.setLatency(0, 0);
+        queue.push("two");
+        Assert.assertEquals(2, queue.getSize());
+    }
+}
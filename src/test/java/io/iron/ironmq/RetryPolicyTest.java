@@ -0,0 +1,82 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+    @Test
+    public void testRetryableErrors() {
+        RetryPolicy policy = new RetryPolicy();
+        Assert.assertTrue(policy.isRetryable(new HTTPException(503, "busy"), false));
+        Assert.assertTrue(policy.isRetryable(new HTTPException(502, "bad gateway"), false));
+        Assert.assertFalse(policy.isRetryable(new HTTPException(404, "not found"), true));
+        Assert.assertFalse(policy.isRetryable(new CircuitOpenException("host"), true));
+        Assert.assertTrue(policy.isRetryable(new ConnectException(), false));
+        Assert.assertTrue(policy.isRetryable(new SocketTimeoutException(), true));
+        // the request may have taken effect
+        Assert.assertFalse(policy.isRetryable(new SocketTimeoutException(), false));
+        policy.setRetryNonIdempotent(true);
+        Assert.assertTrue(policy.isRetryable(new SocketTimeoutException(), false));
+    }
+
+    @Test
+    public void testRetryExceptions() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setRetryExceptions(ConnectException.class);
+        Assert.assertTrue(policy.isRetryable(new ConnectException(), true));
+        Assert.assertFalse(policy.isRetryable(new SocketTimeoutException(), true));
+        Assert.assertFalse(policy.isRetryable(new IOException(), true));
+    }
+
+    @Test
+    public void testMaxRetriesAndDelays() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxRetries(3);
+        policy.setDelays(10, 100);
+        IOException e = new HTTPException(503, "busy");
+        for (int retries = 0; retries < 3; retries++) {
+            long delay = policy.retryDelay(e, retries, true);
+            Assert.assertTrue(delay >= 0);
+            Assert.assertTrue(delay <= Math.min(10L << 2 * (retries + 1), 100));
+        }
+        Assert.assertEquals(-1, policy.retryDelay(e, 3, true));
+    }
+
+    @Test
+    public void testBudgetLimitsRetries() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBudget(0.5, 3);
+        IOException e = new HTTPException(503, "busy");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(policy.retryDelay(e, 0, true) >= 0);
+        }
+        Assert.assertEquals(-1, policy.retryDelay(e, 0, true));
+
+        // every request earns half a retry
+        policy.recordRequest();
+        Assert.assertEquals(-1, policy.retryDelay(e, 0, true));
+        policy.recordRequest();
+        Assert.assertTrue(policy.retryDelay(e, 0, true) >= 0);
+        Assert.assertEquals(-1, policy.retryDelay(e, 0, true));
+
+        // the tokens saved up are capped
+        for (int i = 0; i < 100; i++) {
+            policy.recordRequest();
+        }
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(policy.retryDelay(e, 0, true) >= 0);
+        }
+        Assert.assertEquals(-1, policy.retryDelay(e, 0, true));
+    }
+
+    @Test
+    public void testErrorsThatAreNotRetriedKeepTheBudget() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBudget(0, 1);
+        Assert.assertEquals(-1, policy.retryDelay(new HTTPException(400, "bad"), 0, true));
+        Assert.assertTrue(policy.retryDelay(new HTTPException(503, "busy"), 0, true) >= 0);
+    }
+}
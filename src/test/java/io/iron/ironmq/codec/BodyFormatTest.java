@@ -0,0 +1,241 @@
+package io.iron.ironmq.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BodyFormatTest {
+    private static final String TEXT = "Hello World ABCDEFGHIJKLMNOPQRSTUVWXYZ\u0410\u0411\u0412\u0413->.1234567890!";
+
+    private static String json(int events) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < events; i++) {
+            sb.append("{\"event\":\"page_view\",\"user\":").append(i * 7919 % 1000)
+                    .append(",\"url\":\"/products/").append(i % 13)
+                    .append("\",\"agent\":\"Mozilla/5.0\"},\n");
+        }
+        return sb.append("]").toString();
+    }
+
+    @Test
+    public void testRoundTripAllCodecs() throws Exception {
+        BodyCodec[] codecs = { new IdentityCodec(), new DeflateCodec(1),
+                new DeflateCodec(9), new GzipCodec(), new LzCodec() };
+        for (BodyCodec codec : codecs) {
+            BodyFormat format = new BodyFormat(codec);
+            for (String body : new String[] { "", "a", TEXT, json(200) }) {
+                String encoded = format.encode(body);
+                Assert.assertTrue(encoded.startsWith("~" + codec.getId() + ":"));
+                Assert.assertEquals(body, BodyFormat.decodeToString(encoded));
+            }
+        }
+    }
+
+    @Test
+    public void testLzRoundTripBinary() throws Exception {
+        Random random = new Random(42);
+        LzCodec codec = new LzCodec();
+        for (int size : new int[] { 0, 5, 13, 100, 4096, 70000, 300000 }) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                // mix runs, repeats and noise
+                data[i] = (byte) (i % 3 == 0 ? random.nextInt(4) : i / 97);
+            }
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            codec.encode(data, 0, size, encoded);
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            codec.decode(encoded.toByteArray(), 0, encoded.size(), decoded);
+            Assert.assertArrayEquals(data, decoded.toByteArray());
+        }
+    }
+
+    @Test
+    public void testCorruptLzBodies() throws Exception {
+        String encoded = new BodyFormat(new LzCodec()).encode(json(20));
+        String[] corrupt = {
+                // truncated
+                encoded.substring(0, encoded.length() / 2),
+                "~l:",
+                // a size of 2^31 - 1 bytes in five bytes
+                "~l:" + Base64.encodeBase64URLSafeString(new byte[] { -1, -1,
+                        -1, -1, 7 }),
+                // a size beyond any int
+                "~l:" + Base64.encodeBase64URLSafeString(new byte[] { -1, -1,
+                        -1, -1, -1, -1 }),
+                "~l:" + Base64.encodeBase64URLSafeString("garbage!".getBytes("UTF-8")) };
+        for (String body : corrupt) {
+            try {
+                BodyFormat.decode(body);
+                Assert.fail("decoded corrupt body " + body);
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testEncodeBuffers() throws Exception {
+        byte[] data = new byte[3000];
+        new Random(3).nextBytes(data);
+        for (int i = 0; i < 2000; i++) {
+            data[i] = (byte) (i % 10);
+        }
+        BodyFormat format = BodyFormat.adaptive();
+        String expected = format.encode(Arrays.copyOfRange(data, 100, 2900));
+
+        ByteBuffer heap = ByteBuffer.wrap(data, 100, 2800);
+        Assert.assertEquals(expected, format.encode(heap));
+        Assert.assertEquals(100, heap.position());
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).position(100).limit(2900);
+        Assert.assertEquals(expected, format.encode(direct));
+        Assert.assertEquals(100, direct.position());
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 100, 2900),
+                BodyFormat.decode(expected));
+    }
+
+    @Test
+    public void testZlibPoolIsBounded() throws Exception {
+        ZlibPool.clear();
+        final BodyFormat format = new BodyFormat(new DeflateCodec(5));
+        final String body = json(20);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[ZlibPool.CAPACITY * 4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 50; j++) {
+                            Assert.assertEquals(body, BodyFormat.decodeToString(
+                                    format.encode(body)));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        int idle = ZlibPool.idleDeflaters(5, false);
+        Assert.assertTrue(idle > 0 && idle <= ZlibPool.CAPACITY);
+        ZlibPool.clear();
+        Assert.assertEquals(0, ZlibPool.idleDeflaters(5, false));
+    }
+
+    @Test
+    public void testInteroperability() throws Exception {
+        Random random = new Random(7);
+        GzipCodec gzip = new GzipCodec();
+        for (int size = 0; size < 300; size += 7) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            gzip.encode(data, 0, size, out);
+            GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(
+                    out.toByteArray()));
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+            byte[] buffer = new byte[512];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                inflated.write(buffer, 0, n);
+            }
+            Assert.assertArrayEquals(data, inflated.toByteArray());
+
+            String encoded = new BodyFormat(new IdentityCodec()).encode(data);
+            Assert.assertEquals("~n:" + Base64.encodeBase64URLSafeString(data),
+                    encoded);
+            Assert.assertArrayEquals(data, BodyFormat.decode(encoded));
+        }
+
+        String text = "pair \uD83D\uDE00 lone \uD800 end \u00E9\u4E2D";
+        BodyFormat format = new BodyFormat(new IdentityCodec());
+        Assert.assertArrayEquals(text.getBytes("UTF-8"),
+                BodyFormat.decode(format.encode(text.getBytes("UTF-8"))));
+        Assert.assertEquals(new String(text.getBytes("UTF-8"), "UTF-8"),
+                BodyFormat.decodeToString(new BodyFormat(new DeflateCodec()).encode(text)));
+    }
+
+    @Test
+    public void testReadsLegacyBodies() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DeflaterOutputStream dos = new DeflaterOutputStream(bos, new Deflater(
+                Deflater.BEST_COMPRESSION));
+        dos.write(TEXT.getBytes("UTF-8"));
+        dos.close();
+        String legacy = Base64.encodeBase64URLSafeString(bos.toByteArray());
+
+        Assert.assertEquals(TEXT, BodyFormat.decodeToString(legacy));
+        Assert.assertEquals(legacy, BodyFormat.LEGACY.encode(TEXT));
+    }
+
+    @Test
+    public void testAdaptiveSkipsSmallAndIncompressibleBodies() throws Exception {
+        BodyFormat format = BodyFormat.adaptive();
+        Assert.assertEquals("~t:" + TEXT, format.encode(TEXT));
+
+        String large = json(50);
+        String encoded = format.encode(large);
+        Assert.assertTrue(encoded.startsWith("~d:"));
+        Assert.assertTrue(encoded.length() < large.length());
+
+        byte[] noise = new byte[1000];
+        new Random(1).nextBytes(noise);
+        encoded = format.encode(noise);
+        Assert.assertTrue(encoded.startsWith("~n:"));
+        Assert.assertArrayEquals(noise, BodyFormat.decode(encoded));
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        DictionaryTrainer trainer = new DictionaryTrainer();
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            trainer.addSample(event(random));
+        }
+        DeflateDictionary dictionary = trainer.train(2048);
+        Assert.assertTrue(dictionary.getBytes().length <= 2048);
+
+        String body = event(random);
+        BodyFormat plain = new BodyFormat(new DeflateCodec(9));
+        BodyFormat trained = new BodyFormat(new DeflateCodec(9, dictionary));
+        String encoded = trained.encode(body);
+        Assert.assertTrue(encoded.length() * 2 < plain.encode(body).length());
+        try {
+            BodyFormat.decodeToString(encoded);
+            Assert.fail("the dictionary is not registered");
+        } catch (IOException e) {
+        }
+        DeflateDictionaries.register(dictionary);
+        Assert.assertEquals(body, BodyFormat.decodeToString(encoded));
+    }
+
+    private static String event(Random random) {
+        return "{\"event\":\"page_view\",\"user\":" + random.nextInt(100000)
+                + ",\"url\":\"/products/" + random.nextInt(500)
+                + "\",\"agent\":\"Mozilla/5.0 (X11; Linux x86_64)\",\"ts\":"
+                + (1700000000000L + random.nextInt(1000000000)) + "}";
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownCodec() throws Exception {
+        BodyFormat.decode("~zz:AAAA");
+    }
+}
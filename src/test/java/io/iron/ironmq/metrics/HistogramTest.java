@@ -0,0 +1,58 @@
+package io.iron.ironmq.metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void testBucketsCoverAllValues() {
+        Assert.assertEquals(0, Histogram.bucket(0));
+        Assert.assertEquals(Histogram.BUCKETS - 1, Histogram.bucket(Long.MAX_VALUE));
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            long low = Histogram.lowestValue(i);
+            long high = Histogram.highestValue(i);
+            Assert.assertEquals(i, Histogram.bucket(low));
+            Assert.assertEquals(i, Histogram.bucket(high));
+            if (i + 1 < Histogram.BUCKETS) {
+                Assert.assertEquals(high + 1, Histogram.lowestValue(i + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        Histogram histogram = new Histogram();
+        Random random = new Random(42);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + random.nextInt(1000000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[] { 50, 90, 99, 99.9 }) {
+            long actual = values[(int) Math.ceil(values.length * p / 100) - 1];
+            long estimate = histogram.getPercentile(p);
+            Assert.assertTrue(p + ": " + estimate + " vs " + actual,
+                    estimate >= actual && estimate <= actual * 1.125);
+        }
+        Assert.assertEquals(values.length, histogram.getCount());
+        Assert.assertEquals(values[values.length - 1], histogram.getMax());
+        Assert.assertEquals(values[values.length - 1], histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testEmptyAndReset() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getPercentile(99));
+        histogram.record(-5);
+        histogram.record(7);
+        Assert.assertEquals(2, histogram.getCount());
+        Assert.assertEquals(7, histogram.getSum());
+        Assert.assertEquals(0, histogram.getPercentile(50));
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+    }
+}
@@ -0,0 +1,107 @@
+package io.iron.ironmq.testing;
+
+import io.iron.ironmq.Client;
+import io.iron.ironmq.HTTPException;
+import io.iron.ironmq.Message;
+import io.iron.ironmq.Messages;
+import io.iron.ironmq.PooledTransport;
+import io.iron.ironmq.Queue;
+import io.iron.ironmq.RetryPolicy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalIronMQServerTest {
+    private LocalIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalIronMQServer();
+        server.start();
+        client = new Client("project", "token", server.getCloud(),
+                new ObjectMapper(), new PooledTransport());
+        queue = client.queue("test-queue");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testPushGetDelete() throws Exception {
+        List<String> ids = queue.push(Arrays.asList("one", "two", "three"));
+        Assert.assertEquals(3, ids.size());
+        Assert.assertEquals(3, server.getSize("test-queue"));
+
+        Messages msgs = queue.get(2);
+        Assert.assertEquals(2, msgs.size());
+        Assert.assertEquals("one", msgs.getMessage(0).getBody());
+        Assert.assertEquals(ids.get(1), msgs.getMessage(1).getId());
+        Assert.assertTrue(queue.deleteMessages(msgs).isSuccessful());
+
+        Message last = queue.get();
+        Assert.assertEquals("three", last.getBody());
+        queue.deleteMessage(last);
+        Assert.assertFalse(queue.tryGet().isPresent());
+        Assert.assertEquals(0, server.getSize("test-queue"));
+        try {
+            queue.deleteMessage(last.getId());
+            Assert.fail("deleting twice should fail");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testReservationTimeout() throws Exception {
+        queue.push("reserved");
+        Assert.assertEquals(1, queue.reserve(1, 1).size());
+        Assert.assertFalse(queue.tryGet().isPresent());
+        Thread.sleep(1100);
+        Message msg = queue.get();
+        Assert.assertEquals("reserved", msg.getBody());
+
+        queue.clear();
+        Assert.assertEquals(0, server.getSize("test-queue"));
+    }
+
+    @Test
+    public void testInjectedErrorsAreRetried() throws Exception {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxRetries(20);
+        policy.setDelays(1, 5);
+        client.setRetryPolicy(policy);
+        client.setCircuitBreaker(server.getCloud(), null);
+        server.setErrorRate(0.3);
+        for (int i = 0; i < 20; i++) {
+            queue.push("message " + i);
+        }
+        server.setErrorRate(0);
+        Assert.assertEquals(20, server.getSize("test-queue"));
+        Assert.assertTrue(server.getRequestCount() > 20);
+    }
+
+    @Test
+    public void testLoadGenerator() throws Exception {
+        LoadGenerator generator = new LoadGenerator(client, "load");
+        generator.setProducers(2);
+        generator.setConsumers(2);
+        generator.setDuration(500, TimeUnit.MILLISECONDS);
+        LoadReport report = generator.run();
+        Assert.assertTrue(report.getPushed() > 0);
+        Assert.assertTrue(report.getConsumed() > 0);
+        Assert.assertEquals(0, report.getPushErrors());
+        Assert.assertEquals(report.getPushed() - report.getConsumed(),
+                server.getSize("load"));
+        Assert.assertTrue(report.getEndToEndLatency().getCount() > 0);
+    }
+}